@@ -1,5 +1,6 @@
 plugins {
     id("java")
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 repositories {
@@ -8,6 +9,14 @@ repositories {
 
 dependencies {
     compileOnly("net.portswigger.burp.extensions:montoya-api:2025.6")
+
+    testImplementation(platform("org.junit:junit-bom:5.10.2"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+tasks.test {
+    useJUnitPlatform()
 }
 
 tasks.withType<JavaCompile> {
@@ -20,4 +29,18 @@ tasks.jar {
     duplicatesStrategy = DuplicatesStrategy.EXCLUDE
     from(configurations.runtimeClasspath.get().filter { it.isDirectory })
     from(configurations.runtimeClasspath.get().filterNot { it.isDirectory }.map { zipTree(it) })
-}
\ No newline at end of file
+}
+
+// Benchmarks for the comparison hot paths: ./gradlew jmh (results in build/results/jmh/results.json)
+jmh {
+    jmhVersion.set("1.37")
+    profilers.add("gc")
+    benchmarkMode.add("thrpt")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    jvmArgs.add("-Xmx4g")
+    resultFormat.set("JSON")
+    // e.g. ./gradlew jmh -Pjmh.includes=hasSignificantImpact
+    (findProperty("jmh.includes") as String?)?.let { includes.add(it) }
+}
@@ -0,0 +1,158 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+// Baseline model building and probe comparison on synthetic HTML and JSON responses. Every baseline and the
+// probe share the same structure; only the dynamic lines (a share of all lines given by dynamicDensity)
+// carry fresh random values, so the probe matches the baseline and every comparison runs to the end.
+@State(Scope.Benchmark)
+public class ComparisonBenchmark {
+    @Param({"html", "json"})
+    public String format;
+
+    @Param({"10KB", "1MB", "20MB"})
+    public String size;
+
+    @Param({"2", "5", "10"})
+    public int baselines;
+
+    @Param({"0.01", "0.1"})
+    public double dynamicDensity;
+
+    private List<AnalysisEngine.ResponseLines> baselineLines;
+    private byte[] probe;
+    private AnalysisEngine.ResponseLines probeLines;
+    private int firstDynamicLine;
+    private Map<Integer, AnalysisEngine.LineTemplate> templates;
+    private AnalysisEngine.ResponseNormalizer basicNormalizer;
+    private AnalysisEngine.ResponseNormalizer accurateNormalizer;
+    private AnalysisEngine.ResponseNormalizer structuralNormalizer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int targetSize = switch (size) {
+            case "10KB" -> 10 * 1024;
+            case "1MB" -> 1024 * 1024;
+            default -> 20 * 1024 * 1024;
+        };
+        Random values = new Random(1);
+        baselineLines = new ArrayList<>();
+        for (int i = 0; i < baselines; i++) {
+            baselineLines.add(AnalysisEngine.ResponseLines.of(response(targetSize, values)));
+        }
+        probe = response(targetSize, values);
+        probeLines = AnalysisEngine.ResponseLines.of(probe);
+
+        Set<Integer> dynamicLines = new HashSet<>();
+        AnalysisEngine.identifyDynamicLines(baselineLines, false, dynamicLines, new HashMap<>());
+        basicNormalizer = new AnalysisEngine.LineNormalizer(baselineLines.get(0).data, dynamicLines, Map.of());
+        templates = new HashMap<>();
+        AnalysisEngine.identifyDynamicLines(baselineLines, true, new HashSet<>(), templates);
+        accurateNormalizer = new AnalysisEngine.LineNormalizer(baselineLines.get(0).data, Set.of(), templates);
+        structuralNormalizer = AnalysisEngine.StructuralNormalizer.compile(baselineLines);
+        firstDynamicLine = dynamicLines.stream().mapToInt(Integer::intValue).min().orElse(0);
+    }
+
+    // Basic normalization: find the lines that differ across baselines and compile the line model
+    @Benchmark
+    public AnalysisEngine.ResponseNormalizer normalizeResponseBasic() {
+        Set<Integer> dynamicLines = new HashSet<>();
+        AnalysisEngine.identifyDynamicLines(baselineLines, false, dynamicLines, new HashMap<>());
+        return new AnalysisEngine.LineNormalizer(baselineLines.get(0).data, dynamicLines, Map.of());
+    }
+
+    // Accurate normalization: a template per dynamic line, then the line model
+    @Benchmark
+    public AnalysisEngine.ResponseNormalizer normalizeResponseAccurate() {
+        Map<Integer, AnalysisEngine.LineTemplate> lineTemplates = new HashMap<>();
+        AnalysisEngine.identifyDynamicLines(baselineLines, true, new HashSet<>(), lineTemplates);
+        return new AnalysisEngine.LineNormalizer(baselineLines.get(0).data, Set.of(), lineTemplates);
+    }
+
+    @Benchmark
+    public AnalysisEngine.ResponseNormalizer normalizeResponseStructural() {
+        return AnalysisEngine.StructuralNormalizer.compile(baselineLines);
+    }
+
+    @Benchmark
+    public AnalysisEngine.LineTemplate extractCommonAndVariable() {
+        return AnalysisEngine.extractCommonAndVariable(baselineLines, firstDynamicLine);
+    }
+
+    // Every dynamic line of the probe against its template
+    @Benchmark
+    public void normalizeLine(Blackhole blackhole) {
+        for (Map.Entry<Integer, AnalysisEngine.LineTemplate> entry : templates.entrySet()) {
+            int line = entry.getKey();
+            blackhole.consume(AnalysisEngine.normalizeLine(probeLines.data, probeLines.starts[line], probeLines.ends[line], entry.getValue()));
+        }
+    }
+
+    @Benchmark
+    public boolean hasSignificantImpactBasic() {
+        return AnalysisEngine.hasSignificantImpact(200, basicNormalizer, probe);
+    }
+
+    @Benchmark
+    public boolean hasSignificantImpactAccurate() {
+        return AnalysisEngine.hasSignificantImpact(200, accurateNormalizer, probe);
+    }
+
+    @Benchmark
+    public boolean hasSignificantImpactStructural() {
+        return AnalysisEngine.hasSignificantImpact(200, structuralNormalizer, probe);
+    }
+
+    // Same structure on every call (fixed seed); dynamic values come from the shared generator
+    private byte[] response(int targetSize, Random values) {
+        Random structure = new Random(42);
+        StringBuilder body = new StringBuilder(targetSize + 256);
+        boolean html = format.equals("html");
+        body.append(html ? "<!DOCTYPE html>\n<html>\n<head><title>Report</title></head>\n<body>\n<table>\n" : "[\n");
+        for (int row = 0; body.length() < targetSize; row++) {
+            String word = Long.toString(structure.nextLong() & Long.MAX_VALUE, 36);
+            boolean dynamic = structure.nextDouble() < dynamicDensity;
+            if (html) {
+                body.append(dynamic
+                    ? String.format("<tr><td>%d</td><td data-nonce=\"%s\">%s updated %019d</td></tr>\n", row, token(values), word, values.nextLong() & Long.MAX_VALUE)
+                    : String.format("<tr><td>%d</td><td class=\"name\">%s</td></tr>\n", row, word));
+            } else {
+                body.append(String.format("  {\"id\": %d, \"name\": \"%s\", \"token\": \"%s\", \"updated\": %019d},\n",
+                    row, word, dynamic ? token(values) : "static", dynamic ? values.nextLong() & Long.MAX_VALUE : 0));
+            }
+        }
+        body.append(html ? "</table>\n</body>\n</html>\n" : "  {\"id\": -1}\n]\n");
+
+        byte[] bodyBytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 200 OK\r\n"
+            + "Content-Type: " + (html ? "text/html; charset=utf-8" : "application/json") + "\r\n"
+            + "Date: " + token(values) + "\r\n"
+            + "Content-Length: " + bodyBytes.length + "\r\n\r\n";
+        ByteArrayOutputStream out = new ByteArrayOutputStream(head.length() + bodyBytes.length);
+        out.writeBytes(head.getBytes(StandardCharsets.US_ASCII));
+        out.writeBytes(bodyBytes);
+        return out.toByteArray();
+    }
+
+    // Fixed length, so every sample has the same number of rows and the same Content-Length
+    private static String token(Random values) {
+        byte[] bytes = new byte[16];
+        values.nextBytes(bytes);
+        return HexFormat.of().formatHex(bytes);
+    }
+}
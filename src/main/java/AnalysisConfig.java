@@ -0,0 +1,14 @@
+import java.util.Set;
+
+// Analysis options; the Burp tab captures them from the toolbar when a job is queued.
+// reuseModel lets the engine reuse a comparison model stored for the endpoint after one confirming baseline;
+// requestTimeoutMillis bounds each baseline and probe request (0 = no limit); mutations are the value
+// mutations probed after removal (REMOVED is implied and ignored, empty = removal only); minConfidence is the
+// confidence, in percent, that a borderline removal finding needs for its element to be kept; http2 sends
+// through HttpTransport.sendMultiplexed with at most maxConcurrentStreams streams per connection;
+// maxBodyKilobytes cuts every response body to that size before comparison (0 = no limit).
+public record AnalysisConfig(String filter, boolean accurate, int baselineCount, boolean adaptiveBaseline,
+                             int baselineDelay, boolean reuseModel, boolean bisect, Set<RawRequest.Mutation> mutations,
+                             int minConfidence, int probeConcurrency, int requestsPerSecond, int requestTimeoutMillis,
+                             boolean http2, int maxConcurrentStreams, int maxBodyKilobytes, boolean useProbeCache, boolean refreshProbeCache) {
+}
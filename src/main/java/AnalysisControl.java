@@ -0,0 +1,69 @@
+// Pauses or cancels a running analysis from another thread. Stopping interrupts the thread that called
+// AnalysisEngine.analyze, which then returns after a Stopped event. A paused analysis keeps a checkpoint of its
+// baselines and finished probes: calling resume() and analyzing the same request with the same config and
+// control again continues from there without re-sending them.
+public class AnalysisControl {
+    public enum State { RUNNING, PAUSED, CANCELLED }
+
+    private State state = State.RUNNING;
+    private Thread runner;
+    private AnalysisEngine.Checkpoint checkpoint;
+
+    public synchronized State state() {
+        return state;
+    }
+
+    public synchronized void pause() {
+        if (state == State.RUNNING) {
+            state = State.PAUSED;
+            interruptRunner();
+        }
+    }
+
+    public synchronized void cancel() {
+        state = State.CANCELLED;
+        checkpoint = null;
+        interruptRunner();
+    }
+
+    public synchronized void resume() {
+        if (state == State.PAUSED) {
+            state = State.RUNNING;
+        }
+    }
+
+    synchronized boolean isStopped() {
+        return state != State.RUNNING;
+    }
+
+    // False if the analysis was stopped before it started
+    synchronized boolean attach() {
+        if (state != State.RUNNING) {
+            return false;
+        }
+        runner = Thread.currentThread();
+        return true;
+    }
+
+    synchronized void detach() {
+        runner = null;
+        if (state != State.RUNNING) {
+            // Our interrupt may have arrived after the last blocking call; don't leak it to the caller's thread
+            Thread.interrupted();
+        }
+    }
+
+    // The saved progress for this request and config, or a fresh checkpoint if there is none
+    synchronized AnalysisEngine.Checkpoint checkpoint(String requestKey, AnalysisConfig config) {
+        if (checkpoint == null || !checkpoint.requestKey.equals(requestKey) || !checkpoint.config.equals(config)) {
+            checkpoint = new AnalysisEngine.Checkpoint(requestKey, config);
+        }
+        return checkpoint;
+    }
+
+    private void interruptRunner() {
+        if (runner != null) {
+            runner.interrupt();
+        }
+    }
+}
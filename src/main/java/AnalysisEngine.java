@@ -0,0 +1,2821 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Finds the request elements that influence the response, independently of Burp and Swing.
+// Requests go out through an HttpTransport; progress, findings and the minimized request are
+// reported as AnalysisEvents. One engine can run several analyses at once: they share the
+// per-host rate limiters and the probe cache.
+public class AnalysisEngine {
+    // Adaptive baselines stop once this many consecutive samples after the first leave the dynamic-line model
+    // unchanged, so three identical responses are enough. Fixed rather than configurable; the baseline count is
+    // only the upper bound, so it needs to be above ADAPTIVE_MIN_BASELINES for adaptive mode to save requests.
+    private static final int ADAPTIVE_STABLE_SAMPLES = 2;
+    static final int ADAPTIVE_MIN_BASELINES = ADAPTIVE_STABLE_SAMPLES + 1;
+    // The default upper bound when adaptive sampling is turned on
+    static final int ADAPTIVE_DEFAULT_BASELINES = 10;
+    static final int PROBE_CACHE_SIZE = 10_000;
+    static final long PROBE_CACHE_TTL_MINUTES = 30;
+    // Per-element mode still bisects a request whose JSON, XML or multipart body has more leaves than this
+    static final int BISECT_BODY_LEAVES = 16;
+    // A single-element probe is flagged as slow when it takes this many times the median baseline
+    // response time, and at least SLOW_PROBE_MIN_EXTRA_MS longer
+    private static final int SLOW_PROBE_FACTOR = 3;
+    private static final long SLOW_PROBE_MIN_EXTRA_MS = 1000;
+    // A probe with impact is borderline when its response differs in fewer lines than STRONG_IMPACT_LINES and
+    // by a smaller share of bytes than STRONG_IMPACT_BYTES, or when its status changed to one that is often
+    // transient. Borderline probes are sent REPROBE_ATTEMPTS more times once everything else is done.
+    private static final int STRONG_IMPACT_LINES = 4;
+    private static final double STRONG_IMPACT_BYTES = 0.25;
+    private static final Set<Integer> TRANSIENT_STATUS_CODES = Set.of(429, 502, 503, 504);
+    private static final int REPROBE_ATTEMPTS = 2;
+
+    // Headers compared before the body. A probe whose value differs from the baseline's (where the model holds
+    // it constant) has impact, and its body is not read.
+    private static final Set<String> DECISIVE_HEADERS = Set.of("content-type", "content-encoding", "location");
+
+    private final HttpTransport transport;
+    private final ModelStore modelStore;
+    private final Map<String, HostRateLimiter> hostRateLimiters = new ConcurrentHashMap<>();
+    private final ProbeCache probeCache = new ProbeCache(PROBE_CACHE_SIZE, TimeUnit.MINUTES.toNanos(PROBE_CACHE_TTL_MINUTES));
+    private final ProbeMetrics metrics = new ProbeMetrics();
+    // Baselines of analyses paused while sampling; created on the first such pause. Guarded by this.
+    private ResponseStore checkpointStore;
+
+    public AnalysisEngine(HttpTransport transport) {
+        this(transport, null);
+    }
+
+    // With a model store, analyses with reuseModel set load and save comparison models there
+    public AnalysisEngine(HttpTransport transport, ModelStore modelStore) {
+        this.transport = transport;
+        this.modelStore = modelStore;
+    }
+
+    public ProbeMetrics metrics() {
+        return metrics;
+    }
+
+    // Runs one analysis on the calling thread. Events are delivered on the calling thread and on probe threads.
+    public void analyze(RawRequest request, AnalysisConfig config, Consumer<AnalysisEvent> events)
+            throws IOException, InterruptedException {
+        analyze(request, config, events, new AnalysisControl());
+    }
+
+    // As above, stopping early with a Stopped event if the control is paused or cancelled
+    public void analyze(RawRequest request, AnalysisConfig config, Consumer<AnalysisEvent> events, AnalysisControl control)
+            throws IOException, InterruptedException {
+        Checkpoint checkpoint = control.checkpoint(canonicalRequestKey(request), config);
+        if (!control.attach()) {
+            events.accept(new AnalysisEvent.Stopped(control.state() == AnalysisControl.State.PAUSED, checkpoint.completedProbes.size()));
+            return;
+        }
+        try {
+            restoreBaselines(checkpoint);
+            new Analysis(request, config, events, control, checkpoint).run();
+        } catch (InterruptedException e) {
+            if (!control.isStopped()) {
+                throw e;
+            }
+            if (control.state() == AnalysisControl.State.PAUSED) {
+                spillBaselines(checkpoint);
+            }
+            events.accept(new AnalysisEvent.Stopped(control.state() == AnalysisControl.State.PAUSED, checkpoint.completedProbes.size()));
+        } finally {
+            control.detach();
+        }
+    }
+
+    // Deletes the file holding the baselines of paused analyses; they cannot be resumed afterwards
+    public synchronized void close() throws IOException {
+        if (checkpointStore != null) {
+            checkpointStore.close();
+            checkpointStore = null;
+        }
+    }
+
+    private synchronized ResponseStore checkpointStore() throws IOException {
+        if (checkpointStore == null) {
+            checkpointStore = new ResponseStore(0);
+        }
+        return checkpointStore;
+    }
+
+    // A paused analysis that was still sampling keeps its baselines on disk until it is resumed. They stay on the
+    // heap if the file cannot be written.
+    private void spillBaselines(Checkpoint checkpoint) {
+        if (checkpoint.baselines.isEmpty()) {
+            return;
+        }
+        List<Integer> ids = new ArrayList<>();
+        try {
+            ResponseStore store = checkpointStore();
+            for (ResponseLines lines : checkpoint.baselines) {
+                ids.add(store.add(new byte[0], lines.data));
+            }
+        } catch (IOException e) {
+            return;
+        }
+        checkpoint.spilledBaselines.addAll(ids);
+        checkpoint.baselines.clear();
+    }
+
+    private void restoreBaselines(Checkpoint checkpoint) throws IOException {
+        if (checkpoint.spilledBaselines.isEmpty()) {
+            return;
+        }
+        ResponseStore store = checkpointStore();
+        for (int id : checkpoint.spilledBaselines) {
+            checkpoint.baselines.add(ResponseLines.of(store.get(id).response()));
+        }
+        checkpoint.spilledBaselines.clear();
+    }
+
+    // What a paused analysis has done so far: the baselines sampled, the comparison model built from them and
+    // every finished probe by canonical request. Probes that failed are not kept, so a resume retries them.
+    // Baselines are only kept until the model is built, and on disk while the analysis is paused.
+    static final class Checkpoint {
+        final String requestKey;
+        final AnalysisConfig config;
+        final List<ResponseLines> baselines = new ArrayList<>();
+        // Ids in the engine's checkpoint store of the baselines spilled at a pause, in sampling order
+        final List<Integer> spilledBaselines = new ArrayList<>();
+        final List<Long> baselineNanos = new ArrayList<>();
+        final Map<String, ProbeResult> completedProbes = new ConcurrentHashMap<>();
+        BaselineModel model;
+        // Per-element findings already published, in enumeration order; with bisect, the hits among them
+        int publishedFindings;
+        // Elements whose mutation findings are already published
+        int publishedMutationElements;
+        // Confidence of borderline findings that were re-probed and published, by canonical request
+        final Map<String, Double> reprobeConfidence = new ConcurrentHashMap<>();
+
+        Checkpoint(String requestKey, AnalysisConfig config) {
+            this.requestKey = requestKey;
+            this.config = config;
+        }
+    }
+
+    // A value mutation of the element at this index of the enumerated elements
+    private record MutationProbe(int element, RawRequest.Mutation mutation, RawRequest request) {
+    }
+
+    private record BaselineSample(byte[] response, long nanos) {
+    }
+
+    // Reports a finding once its confidence is known; publish is false for findings published before a pause
+    private interface FindingReport {
+        void report(double confidence, boolean publish);
+    }
+
+    // A borderline probe waiting to be sent again, and what to do with its confidence
+    private record Reprobe(RawRequest request, String label, ProbeResult first, FindingReport report) {
+    }
+
+    // One more send of a borderline probe, and of the original request at the same moment
+    private record ReprobeAttempt(ProbeResult probe, ProbeResult control) {
+    }
+
+    // A comparison model as kept in the ModelStore: gzipped, starting with the format version and the endpoint
+    // key, then the baseline status code and the normalizer's model. The reference baseline is not kept, only
+    // hashes of its lines or leaves: enough to tell whether a confirming response matches, and that response
+    // then becomes the baseline of the analysis.
+    private static final class StoredModel {
+        static final int VERSION = 2;
+        // Models larger than this, e.g. of responses with a hundred thousand lines, are not stored
+        static final int MAX_BYTES = 1024 * 1024;
+
+        static byte[] write(String endpoint, int statusCode, ResponseNormalizer normalizer) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+                out.writeInt(VERSION);
+                out.writeUTF(endpoint);
+                out.writeInt(statusCode);
+                if (normalizer instanceof StructuralNormalizer structural) {
+                    out.writeBoolean(true);
+                    structural.writeModel(out);
+                } else {
+                    out.writeBoolean(false);
+                    ((LineNormalizer) normalizer).writeModel(out);
+                }
+            }
+            return bytes.toByteArray();
+        }
+
+        // Null if the model was written by another version or for another endpoint
+        static StoredBaseline read(String endpoint, byte[] data) throws IOException {
+            try (DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(data)))) {
+                if (in.readInt() != VERSION || !in.readUTF().equals(endpoint)) {
+                    return null;
+                }
+                int statusCode = in.readInt();
+                StoredComparison comparison = in.readBoolean() ? StructuralNormalizer.readModel(in) : LineNormalizer.readModel(in);
+                return new StoredBaseline(statusCode, comparison);
+            }
+        }
+    }
+
+    private record StoredBaseline(int statusCode, StoredComparison comparison) {
+    }
+
+    // A comparison model read back from the ModelStore, without its reference baseline
+    private interface StoredComparison {
+        boolean matches(byte[] response);
+
+        // The normalizer for an analysis, with a response that matches as its baseline
+        ResponseNormalizer withBaseline(byte[] response);
+    }
+
+    // First 8 bytes of the SHA-256 of data[start, end), standing for a baseline line or leaf in a stored model
+    private static long storedHash(MessageDigest digest, byte[] data, int start, int end) {
+        digest.update(data, start, end - start);
+        byte[] hash = digest.digest();
+        long value = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            value = value << 8 | (hash[i] & 0xff);
+        }
+        return value;
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Corrupt model");
+        }
+        return in.readNBytes(length);
+    }
+
+    private record BaselineModel(String status, int statusCode, long medianNanos, ResponseNormalizer normalizer,
+                                 String fingerprint, byte[] digest) {
+    }
+
+    // Token alignment of a dynamic line is quadratic; beyond this many cells fall back to prefix/postfix
+    private static final long MAX_ALIGNMENT_CELLS = 4_000_000;
+
+    private static final Pattern ID_SEGMENT = Pattern.compile("\\d+|[0-9a-fA-F]{16,}|[0-9a-fA-F]{8}(-[0-9a-fA-F]{4}){3}-[0-9a-fA-F]{12}");
+
+    private static final byte[] DYNAMIC_PLACEHOLDER = "<__DYNAMIC_CONTENTS__>".getBytes(StandardCharsets.US_ASCII);
+
+    // Ends a response whose body was cut at the size limit, as a line of its own. What follows the cut is
+    // unknown, so comparisons stop at this line on either side instead of counting the rest as changed.
+    static final byte[] CUT_MARKER = "<__BODY_CUT__>".getBytes(StandardCharsets.US_ASCII);
+
+    // Literal anchors of a dynamic line with a wildcard between each consecutive pair. The first anchor
+    // must match at the start of the line and the last at the end (either may be empty); the middle
+    // anchors are found left to right with KMP, so matching is linear in the line length.
+    static class LineTemplate {
+        final byte[][] anchors;
+        private final int[][] failureTables;
+
+        LineTemplate(byte[][] anchors) {
+            this.anchors = anchors;
+            this.failureTables = new int[anchors.length][];
+            for (int i = 1; i < anchors.length - 1; i++) {
+                failureTables[i] = failureTable(anchors[i]);
+            }
+        }
+
+        boolean matches(byte[] data, int start, int end) {
+            byte[] prefix = anchors[0];
+            byte[] postfix = anchors[anchors.length - 1];
+            if (end - start < prefix.length + postfix.length
+                    || !Arrays.equals(data, start, start + prefix.length, prefix, 0, prefix.length)
+                    || !Arrays.equals(data, end - postfix.length, end, postfix, 0, postfix.length)) {
+                return false;
+            }
+            int pos = start + prefix.length;
+            int limit = end - postfix.length;
+            for (int i = 1; i < anchors.length - 1; i++) {
+                int found = indexOf(data, pos, limit, anchors[i], failureTables[i]);
+                if (found < 0) {
+                    return false;
+                }
+                pos = found + anchors[i].length;
+            }
+            return true;
+        }
+
+        // The anchors joined by the dynamic-content placeholder
+        byte[] normalized() {
+            int length = DYNAMIC_PLACEHOLDER.length * (anchors.length - 1);
+            for (byte[] anchor : anchors) {
+                length += anchor.length;
+            }
+            byte[] normalized = new byte[length];
+            int pos = 0;
+            for (int i = 0; i < anchors.length; i++) {
+                if (i > 0) {
+                    System.arraycopy(DYNAMIC_PLACEHOLDER, 0, normalized, pos, DYNAMIC_PLACEHOLDER.length);
+                    pos += DYNAMIC_PLACEHOLDER.length;
+                }
+                System.arraycopy(anchors[i], 0, normalized, pos, anchors[i].length);
+                pos += anchors[i].length;
+            }
+            return normalized;
+        }
+
+        private static int[] failureTable(byte[] pattern) {
+            int[] table = new int[pattern.length];
+            for (int i = 1, k = 0; i < pattern.length; i++) {
+                while (k > 0 && pattern[i] != pattern[k]) {
+                    k = table[k - 1];
+                }
+                if (pattern[i] == pattern[k]) {
+                    k++;
+                }
+                table[i] = k;
+            }
+            return table;
+        }
+
+        private static int indexOf(byte[] data, int from, int to, byte[] pattern, int[] table) {
+            if (pattern.length == 0) {
+                return from;
+            }
+            for (int i = from, k = 0; i < to; i++) {
+                while (k > 0 && data[i] != pattern[k]) {
+                    k = table[k - 1];
+                }
+                if (data[i] == pattern[k]) {
+                    k++;
+                }
+                if (k == pattern.length) {
+                    return i - pattern.length + 1;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof LineTemplate other && Arrays.deepEquals(anchors, other.anchors);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.deepHashCode(anchors);
+        }
+    }
+
+    // Raw response bytes with the offsets of each '\n'-separated line.
+    // Trailing newlines are not significant, matching String.split semantics.
+    static class ResponseLines {
+        final byte[] data;
+        final int[] starts;
+        final int[] ends;
+
+        private ResponseLines(byte[] data, int[] starts, int[] ends) {
+            this.data = data;
+            this.starts = starts;
+            this.ends = ends;
+        }
+
+        static ResponseLines of(byte[] data) {
+            int end = contentEnd(data, 0, data.length);
+            int count = 1;
+            for (int i = 0; i < end; i++) {
+                if (data[i] == '\n') {
+                    count++;
+                }
+            }
+            int[] starts = new int[count];
+            int[] ends = new int[count];
+            int start = 0;
+            for (int line = 0; line < count; line++) {
+                int lineEnd = indexOfNewline(data, start, end);
+                starts[line] = start;
+                ends[line] = lineEnd;
+                start = lineEnd + 1;
+            }
+            return new ResponseLines(data, starts, ends);
+        }
+
+        int count() {
+            return starts.length;
+        }
+
+        int length(int line) {
+            return ends[line] - starts[line];
+        }
+
+        byte get(int line, int offset) {
+            return data[starts[line] + offset];
+        }
+
+        boolean lineEquals(int line, ResponseLines other, int otherLine) {
+            return Arrays.equals(data, starts[line], ends[line], other.data, other.starts[otherLine], other.ends[otherLine]);
+        }
+
+        // Length of data[from, to) without trailing newlines
+        static int contentEnd(byte[] data, int from, int to) {
+            int end = to;
+            while (end > from && data[end - 1] == '\n') {
+                end--;
+            }
+            return end - from;
+        }
+
+        // Returns the offset of the next '\n' before end, or end if there is none
+        static int indexOfNewline(byte[] data, int from, int end) {
+            for (int i = from; i < end; i++) {
+                if (data[i] == '\n') {
+                    return i;
+                }
+            }
+            return end;
+        }
+    }
+
+    // Builds the dynamic-line model one baseline at a time, so it is ready as soon as the last one arrives.
+    // Each sample is compared with the first line by line; in accurate mode every line that has differed keeps
+    // a running token alignment that each later sample can only narrow. Lines are independent, so the
+    // alignment work for a long response is split across the common fork/join pool.
+    static class TemplateBuilder {
+        private static final int PARALLEL_LINES = 4096;
+
+        private final boolean accurate;
+        private final List<ResponseLines> samples = new ArrayList<>();
+        private int lineCount;
+        private boolean[] dynamic;
+        private LineMerge[] merges;
+
+        TemplateBuilder(boolean accurate) {
+            this.accurate = accurate;
+        }
+
+        // Returns whether the sample changed the model. Lines past the end of the shortest sample are ignored.
+        boolean add(ResponseLines sample) {
+            samples.add(sample);
+            if (samples.size() == 1) {
+                lineCount = sample.count();
+                dynamic = new boolean[lineCount];
+                merges = new LineMerge[lineCount];
+                return true;
+            }
+            int lines = Math.min(lineCount, sample.count());
+            boolean shrunk = lines < lineCount;
+            lineCount = lines;
+            IntStream indexes = IntStream.range(0, lines);
+            if (accurate && lines >= PARALLEL_LINES) {
+                indexes = indexes.parallel();
+            }
+            return indexes.map(i -> addLine(i, sample) ? 1 : 0).sum() > 0 || shrunk;
+        }
+
+        // Only touches line i, so lines can be merged in parallel
+        private boolean addLine(int i, ResponseLines sample) {
+            if (!dynamic[i]) {
+                if (samples.get(0).lineEquals(i, sample, i)) {
+                    return false;
+                }
+                dynamic[i] = true;
+                if (!accurate) {
+                    return true;
+                }
+                merges[i] = new LineMerge(samples.get(0), i);
+            }
+            return accurate && merges[i].merge(samples);
+        }
+
+        // Basic mode: the lines that differed in any sample
+        Set<Integer> dynamicLines() {
+            Set<Integer> lines = new HashSet<>();
+            if (!accurate) {
+                for (int i = 0; i < lineCount; i++) {
+                    if (dynamic[i]) {
+                        lines.add(i);
+                    }
+                }
+            }
+            return lines;
+        }
+
+        // Accurate mode: a template for each line that differed in any sample
+        Map<Integer, LineTemplate> templates() {
+            Map<Integer, LineTemplate> templates = new HashMap<>();
+            if (accurate) {
+                for (int i = 0; i < lineCount; i++) {
+                    if (dynamic[i]) {
+                        templates.put(i, merges[i].template());
+                    }
+                }
+            }
+            return templates;
+        }
+    }
+
+    // Running token alignment of one dynamic line of the first baseline with each later sample: gaps[k] marks a
+    // wildcard before kept token k, gaps[kept.size()] one at the end of the line. Samples that still agree with
+    // the first on this line leave it unchanged, so a line can start merging at any sample.
+    private static final class LineMerge {
+        private final ResponseLines first;
+        private final int line;
+        private List<int[]> kept;
+        private boolean[] gaps;
+        // Set once a sample is too long to align; from then on the line is only a common prefix and postfix
+        private LineTemplate prefixPostfix;
+
+        LineMerge(ResponseLines first, int line) {
+            this.first = first;
+            this.line = line;
+            this.kept = tokenize(first.data, first.starts[line], first.ends[line]);
+            this.gaps = new boolean[kept.size() + 1];
+        }
+
+        // Narrows the alignment by the last of the samples (the first being the baseline this merge started
+        // from); returns whether the template changed
+        boolean merge(List<ResponseLines> samples) {
+            if (prefixPostfix != null) {
+                LineTemplate previous = prefixPostfix;
+                prefixPostfix = extractPrefixPostfix(samples, line);
+                return !Arrays.deepEquals(previous.anchors, prefixPostfix.anchors);
+            }
+            ResponseLines lines = samples.get(samples.size() - 1);
+            byte[] firstData = first.data;
+            byte[] data = lines.data;
+            List<int[]> tokens = tokenize(data, lines.starts[line], lines.ends[line]);
+            int m = kept.size();
+            int n = tokens.size();
+            if ((long) m * n > MAX_ALIGNMENT_CELLS) {
+                prefixPostfix = extractPrefixPostfix(samples, line);
+                return true;
+            }
+
+            // Longest common subsequence of tokens, suffix-based so the walk below runs forwards
+            int[] lcs = new int[(m + 1) * (n + 1)];
+            for (int i = m - 1; i >= 0; i--) {
+                for (int j = n - 1; j >= 0; j--) {
+                    lcs[i * (n + 1) + j] = tokenEquals(firstData, kept.get(i), data, tokens.get(j))
+                        ? lcs[(i + 1) * (n + 1) + j + 1] + 1
+                        : Math.max(lcs[(i + 1) * (n + 1) + j], lcs[i * (n + 1) + j + 1]);
+                }
+            }
+
+            List<int[]> nextKept = new ArrayList<>();
+            List<Boolean> nextGaps = new ArrayList<>();
+            int previousI = -1;
+            int previousJ = -1;
+            int i = 0;
+            int j = 0;
+            while (i < m && j < n) {
+                if (tokenEquals(firstData, kept.get(i), data, tokens.get(j))
+                        && lcs[i * (n + 1) + j] == lcs[(i + 1) * (n + 1) + j + 1] + 1) {
+                    // Adjacent in both the template and this sample, with no wildcard between them
+                    boolean contiguous = i == previousI + 1 && j == previousJ + 1 && !gaps[i];
+                    nextKept.add(kept.get(i));
+                    nextGaps.add(!contiguous);
+                    previousI = i;
+                    previousJ = j;
+                    i++;
+                    j++;
+                } else if (lcs[(i + 1) * (n + 1) + j] >= lcs[i * (n + 1) + j + 1]) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+            boolean gapAtEnd = previousI != m - 1 || previousJ != n - 1 || gaps[m];
+
+            boolean[] nextGapArray = new boolean[nextKept.size() + 1];
+            for (int k = 0; k < nextGaps.size(); k++) {
+                nextGapArray[k] = nextGaps.get(k);
+            }
+            nextGapArray[nextKept.size()] = gapAtEnd;
+            // Kept tokens only ever shrink to a subsequence, so equal sizes mean the same tokens
+            boolean changed = nextKept.size() != m || !Arrays.equals(gaps, nextGapArray);
+            kept = nextKept;
+            gaps = nextGapArray;
+            return changed;
+        }
+
+        LineTemplate template() {
+            if (prefixPostfix != null) {
+                return prefixPostfix;
+            }
+            List<byte[]> anchors = new ArrayList<>();
+            ByteArrayOutputStream anchor = new ByteArrayOutputStream();
+            for (int k = 0; k < kept.size(); k++) {
+                if (gaps[k]) {
+                    anchors.add(anchor.toByteArray());
+                    anchor.reset();
+                }
+                int[] token = kept.get(k);
+                anchor.write(first.data, token[0], token[1] - token[0]);
+            }
+            if (gaps[kept.size()] || anchors.isEmpty()) {
+                anchors.add(anchor.toByteArray());
+                anchor.reset();
+            }
+            anchors.add(anchor.toByteArray());
+            return new LineTemplate(anchors.toArray(new byte[0][]));
+        }
+    }
+
+    // Decides whether a probe response is equivalent to the baseline once dynamic content is ignored
+    interface ResponseNormalizer {
+        boolean matchesBaseline(byte[] response);
+
+        // Whether a decisive header differs from the baseline; needs only the status line and headers
+        boolean headDiffers(byte[] response);
+
+        // SHA-256 of the response with dynamic content masked; equal digests mean equivalent responses
+        byte[] digest(byte[] response);
+
+        // Identifies the comparison model, so digests taken under different models are never mixed
+        String fingerprint();
+
+        // How much of the response differs from the baseline, ignoring dynamic content
+        Difference difference(byte[] response);
+    }
+
+    // Changed lines out of the lines of the longer side (for structured bodies, header lines plus body leaves),
+    // and the bytes they hold out of the longer response
+    record Difference(int changedLines, int lines, long changedBytes, long bytes) {
+    }
+
+    // Compares responses against a fixed baseline under the dynamic-line model.
+    // Compiled once per analysis: baseline line offsets and template matches are computed up front,
+    // and each comparison walks the candidate response bytes line by line, stopping at the first mismatch.
+    // Before walking the body it compares the body as a whole: an identical body needs no line walk, and a
+    // body without dynamic lines that is not identical (starting with its length) cannot match.
+    static class LineNormalizer implements ResponseNormalizer {
+        private final ResponseLines baseline;
+        private final boolean[] dynamic;
+        private final LineTemplate[] templates;
+        private final boolean[] baselineMatchesTemplate;
+        // Decisive headers of the baseline that the model holds constant, by lower-case name
+        private final Map<String, byte[]> decisiveHeaders = new HashMap<>();
+        // First line after the blank line that ends the headers, or -1 if the baseline has no body
+        private final int bodyLine;
+        private final boolean staticBody;
+        // The baseline line holding CUT_MARKER, or -1
+        private final int cutLine;
+
+        LineNormalizer(byte[] baseline, Set<Integer> dynamicLines, Map<Integer, LineTemplate> dynamicLinePrefixesPostfixes) {
+            this.baseline = ResponseLines.of(baseline);
+            int lineCount = this.baseline.count();
+            this.dynamic = new boolean[lineCount];
+            this.templates = new LineTemplate[lineCount];
+            this.baselineMatchesTemplate = new boolean[lineCount];
+            for (int i = 0; i < lineCount; i++) {
+                dynamic[i] = dynamicLines.contains(i);
+                templates[i] = dynamicLinePrefixesPostfixes.get(i);
+                if (templates[i] != null) {
+                    baselineMatchesTemplate[i] = templates[i].matches(baseline, this.baseline.starts[i], this.baseline.ends[i]);
+                }
+            }
+
+            int blankLine = -1;
+            for (int i = 1; i < lineCount && blankLine < 0; i++) {
+                int start = this.baseline.starts[i];
+                int end = lineContentEnd(baseline, start, this.baseline.ends[i]);
+                if (end == start) {
+                    blankLine = i;
+                } else if (!dynamic[i] && templates[i] == null) {
+                    String name = headerName(baseline, start, end);
+                    if (name != null && DECISIVE_HEADERS.contains(name) && !decisiveHeaders.containsKey(name)) {
+                        decisiveHeaders.put(name, headerValue(baseline, start, end));
+                    }
+                }
+            }
+            int last = lineCount - 1;
+            this.cutLine = isCutMarker(baseline, this.baseline.starts[last], this.baseline.ends[last]) ? last : -1;
+            this.bodyLine = blankLine >= 0 && blankLine < last ? blankLine + 1 : -1;
+            boolean bodyDynamic = cutLine >= 0;
+            for (int i = Math.max(bodyLine, 0); i < lineCount && bodyLine >= 0; i++) {
+                bodyDynamic |= dynamic[i] || templates[i] != null;
+            }
+            this.staticBody = bodyLine >= 0 && !bodyDynamic;
+        }
+
+        @Override
+        public boolean headDiffers(byte[] response) {
+            if (decisiveHeaders.isEmpty()) {
+                return false;
+            }
+            Set<String> seen = new HashSet<>();
+            int start = ResponseLines.indexOfNewline(response, 0, response.length) + 1;
+            while (start < response.length) {
+                int lineEnd = ResponseLines.indexOfNewline(response, start, response.length);
+                int end = lineContentEnd(response, start, lineEnd);
+                if (end == start) {
+                    break;
+                }
+                String name = headerName(response, start, end);
+                byte[] expected = name != null ? decisiveHeaders.get(name) : null;
+                if (expected != null && seen.add(name) && !Arrays.equals(expected, headerValue(response, start, end))) {
+                    return true;
+                }
+                start = lineEnd + 1;
+            }
+            // A decisive header that went missing
+            return seen.size() < decisiveHeaders.size();
+        }
+
+        // End of a line without its carriage return
+        private static int lineContentEnd(byte[] data, int start, int end) {
+            return end > start && data[end - 1] == '\r' ? end - 1 : end;
+        }
+
+        // Lower-case name of a header line, or null if it has no colon
+        private static String headerName(byte[] data, int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (data[i] == ':') {
+                    return new String(data, start, i - start, StandardCharsets.ISO_8859_1).strip().toLowerCase(Locale.ROOT);
+                }
+            }
+            return null;
+        }
+
+        private static byte[] headerValue(byte[] data, int start, int end) {
+            int valueStart = start;
+            while (data[valueStart] != ':') {
+                valueStart++;
+            }
+            valueStart++;
+            while (valueStart < end && (data[valueStart] == ' ' || data[valueStart] == '\t')) {
+                valueStart++;
+            }
+            while (end > valueStart && (data[end - 1] == ' ' || data[end - 1] == '\t')) {
+                end--;
+            }
+            return Arrays.copyOfRange(data, valueStart, end);
+        }
+
+        @Override
+        public boolean matchesBaseline(byte[] response) {
+            return matchesBaseline(response, 0, response.length);
+        }
+
+        boolean matchesBaseline(byte[] response, int from, int to) {
+            int lineCount = baseline.count();
+            int end = from + ResponseLines.contentEnd(response, from, to);
+            int start = from;
+            for (int i = 0; i < lineCount; i++) {
+                if (i == bodyLine) {
+                    // Same length and bytes: every remaining line matches, whatever the model says about it
+                    if (Arrays.equals(response, start, end, baseline.data, baseline.starts[i], baseline.ends[lineCount - 1])) {
+                        return true;
+                    }
+                    if (staticBody && !endsWithCutMarker(response, start, end)) {
+                        return false;
+                    }
+                }
+                int lineEnd = ResponseLines.indexOfNewline(response, start, end);
+                if (i == cutLine || isCutMarker(response, start, lineEnd)) {
+                    return true;
+                }
+                if (!lineMatches(i, response, start, lineEnd)) {
+                    return false;
+                }
+                if (lineEnd >= end) {
+                    return i == lineCount - 1;
+                }
+                start = lineEnd + 1;
+            }
+            return false;
+        }
+
+        private boolean lineMatches(int i, byte[] response, int start, int end) {
+            if (dynamic[i]) {
+                return true;
+            }
+            LineTemplate template = templates[i];
+            if (template != null) {
+                boolean modifiedMatches = template.matches(response, start, end);
+                if (modifiedMatches && baselineMatchesTemplate[i]) {
+                    return true;
+                }
+                if (modifiedMatches || baselineMatchesTemplate[i]) {
+                    // Only one side collapses to the template, so compare the normalized forms
+                    byte[] normalizedBaseline = normalizeLine(baseline.data, baseline.starts[i], baseline.ends[i], template);
+                    byte[] normalizedModified = normalizeLine(response, start, end, template);
+                    return Arrays.equals(normalizedBaseline, normalizedModified);
+                }
+            }
+            return Arrays.equals(response, start, end, baseline.data, baseline.starts[i], baseline.ends[i]);
+        }
+
+        @Override
+        public byte[] digest(byte[] response) {
+            MessageDigest digest = sha256();
+            digestInto(digest, response, 0, response.length);
+            return digest.digest();
+        }
+
+        // Feeds the normalized lines of response[from, to) to the digest
+        void digestInto(MessageDigest digest, byte[] response, int from, int to) {
+            int end = from + ResponseLines.contentEnd(response, from, to);
+            int start = from;
+            for (int i = 0; ; i++) {
+                int lineEnd = ResponseLines.indexOfNewline(response, start, end);
+                if (i < dynamic.length && dynamic[i]) {
+                    digest.update(DYNAMIC_PLACEHOLDER);
+                } else if (i < templates.length && templates[i] != null && templates[i].matches(response, start, lineEnd)) {
+                    digest.update(templates[i].normalized());
+                } else {
+                    digest.update(response, start, lineEnd - start);
+                }
+                if (lineEnd >= end) {
+                    return;
+                }
+                digest.update((byte) '\n');
+                start = lineEnd + 1;
+            }
+        }
+
+        @Override
+        public Difference difference(byte[] response) {
+            return difference(response, 0, response.length);
+        }
+
+        // Like matchesBaseline, but goes on past mismatches; lines beyond the end of the shorter side count as
+        // changed, unless that side was cut
+        Difference difference(byte[] response, int from, int to) {
+            int lineCount = baseline.count();
+            int end = from + ResponseLines.contentEnd(response, from, to);
+            int changedLines = 0;
+            long changedBytes = 0;
+            int responseLines = 0;
+            int start = from;
+            boolean cut = false;
+            while (true) {
+                int lineEnd = ResponseLines.indexOfNewline(response, start, end);
+                int i = responseLines++;
+                if (i == cutLine || isCutMarker(response, start, lineEnd)) {
+                    cut = true;
+                    break;
+                }
+                if (i >= lineCount) {
+                    changedLines++;
+                    changedBytes += lineEnd - start;
+                } else if (!lineMatches(i, response, start, lineEnd)) {
+                    changedLines++;
+                    changedBytes += Math.max(lineEnd - start, baseline.ends[i] - baseline.starts[i]);
+                }
+                if (lineEnd >= end) {
+                    break;
+                }
+                start = lineEnd + 1;
+            }
+            for (int i = responseLines; i < lineCount && !cut; i++) {
+                changedLines++;
+                changedBytes += baseline.ends[i] - baseline.starts[i];
+            }
+            return new Difference(changedLines, Math.max(lineCount, responseLines), changedBytes,
+                Math.max(baseline.data.length, end - from));
+        }
+
+        // Hashes of the baseline lines, the cut line, the dynamic lines and the templates, for StoredModel
+        void writeModel(DataOutputStream out) throws IOException {
+            MessageDigest digest = sha256();
+            out.writeInt(baseline.count());
+            for (int i = 0; i < baseline.count(); i++) {
+                out.writeLong(storedHash(digest, baseline.data, baseline.starts[i], baseline.ends[i]));
+            }
+            out.writeInt(cutLine);
+            List<Integer> dynamicLines = new ArrayList<>();
+            List<Integer> templateLines = new ArrayList<>();
+            for (int i = 0; i < dynamic.length; i++) {
+                if (dynamic[i]) {
+                    dynamicLines.add(i);
+                }
+                if (templates[i] != null) {
+                    templateLines.add(i);
+                }
+            }
+            out.writeInt(dynamicLines.size());
+            for (int line : dynamicLines) {
+                out.writeInt(line);
+            }
+            out.writeInt(templateLines.size());
+            for (int line : templateLines) {
+                out.writeInt(line);
+                out.writeBoolean(baselineMatchesTemplate[line]);
+                out.writeInt(templates[line].anchors.length);
+                for (byte[] anchor : templates[line].anchors) {
+                    out.writeInt(anchor.length);
+                    out.write(anchor);
+                }
+            }
+        }
+
+        static StoredLines readModel(DataInputStream in) throws IOException {
+            int lineCount = in.readInt();
+            if (lineCount < 1 || lineCount > StoredModel.MAX_BYTES) {
+                throw new IOException("Corrupt model");
+            }
+            long[] hashes = new long[lineCount];
+            for (int i = 0; i < lineCount; i++) {
+                hashes[i] = in.readLong();
+            }
+            int cutLine = in.readInt();
+            Set<Integer> dynamicLines = new HashSet<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                dynamicLines.add(in.readInt());
+            }
+            Map<Integer, LineTemplate> templates = new HashMap<>();
+            Set<Integer> matchedTemplates = new HashSet<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                int line = in.readInt();
+                if (in.readBoolean()) {
+                    matchedTemplates.add(line);
+                }
+                int anchorCount = in.readInt();
+                if (anchorCount < 1) {
+                    throw new IOException("Corrupt model");
+                }
+                byte[][] anchors = new byte[anchorCount][];
+                for (int j = 0; j < anchors.length; j++) {
+                    anchors[j] = readBytes(in);
+                }
+                templates.put(line, new LineTemplate(anchors));
+            }
+            return new StoredLines(hashes, cutLine, dynamicLines, templates, matchedTemplates);
+        }
+
+        // A stored line model: matches like matchesBaseline, with line hashes in place of the baseline lines. A
+        // template line must match its template if the baseline did, and be identical to the baseline otherwise.
+        private static final class StoredLines implements StoredComparison {
+            private final long[] hashes;
+            private final int cutLine;
+            private final Set<Integer> dynamicLines;
+            private final Map<Integer, LineTemplate> templates;
+            private final Set<Integer> matchedTemplates;
+
+            StoredLines(long[] hashes, int cutLine, Set<Integer> dynamicLines, Map<Integer, LineTemplate> templates,
+                        Set<Integer> matchedTemplates) {
+                this.hashes = hashes;
+                this.cutLine = cutLine;
+                this.dynamicLines = dynamicLines;
+                this.templates = templates;
+                this.matchedTemplates = matchedTemplates;
+            }
+
+            @Override
+            public boolean matches(byte[] response) {
+                return matches(response, 0, response.length);
+            }
+
+            boolean matches(byte[] response, int from, int to) {
+                MessageDigest digest = sha256();
+                int end = from + ResponseLines.contentEnd(response, from, to);
+                int start = from;
+                for (int i = 0; i < hashes.length; i++) {
+                    int lineEnd = ResponseLines.indexOfNewline(response, start, end);
+                    if (i == cutLine || isCutMarker(response, start, lineEnd)) {
+                        return true;
+                    }
+                    if (!dynamicLines.contains(i)) {
+                        boolean matches = matchedTemplates.contains(i)
+                            ? templates.get(i).matches(response, start, lineEnd)
+                            : storedHash(digest, response, start, lineEnd) == hashes[i];
+                        if (!matches) {
+                            return false;
+                        }
+                    }
+                    if (lineEnd >= end) {
+                        return i == hashes.length - 1;
+                    }
+                    start = lineEnd + 1;
+                }
+                return false;
+            }
+
+            @Override
+            public LineNormalizer withBaseline(byte[] response) {
+                return new LineNormalizer(response, dynamicLines, templates);
+            }
+        }
+
+        @Override
+        public String fingerprint() {
+            MessageDigest digest = sha256();
+            for (int i = 0; i < dynamic.length; i++) {
+                if (dynamic[i] || templates[i] != null) {
+                    digest.update(Integer.toString(i).getBytes(StandardCharsets.US_ASCII));
+                    digest.update(templates[i] != null ? templates[i].normalized() : DYNAMIC_PLACEHOLDER);
+                }
+            }
+            digest.update(digest(baseline.data));
+            return HexFormat.of().formatHex(digest.digest());
+        }
+    }
+
+    // Receives the leaves of a structured body; returning false stops the parse
+    private interface LeafVisitor {
+        boolean visit(String path, byte[] data, int start, int end);
+    }
+
+    // Streams a structured body as (path, value) leaves without building a tree
+    private interface StructureParser {
+        // Returns false if the visitor stopped the parse early
+        boolean parse(byte[] data, int start, int end, LeafVisitor visitor);
+    }
+
+    // Streaming JSON tokenizer; leaves are scalar values and empty containers, addressed by JSON pointer
+    private static class JsonLeafParser implements StructureParser {
+        private byte[] data;
+        private int pos;
+        private int end;
+
+        @Override
+        public boolean parse(byte[] data, int start, int end, LeafVisitor visitor) {
+            this.data = data;
+            this.pos = start;
+            this.end = end;
+            boolean completed = parseValue("", visitor);
+            skipWhitespace();
+            if (completed && pos != end) {
+                throw new IllegalArgumentException("Trailing data after JSON value at offset " + pos);
+            }
+            return completed;
+        }
+
+        private boolean parseValue(String path, LeafVisitor visitor) {
+            skipWhitespace();
+            int valueStart = pos;
+            byte c = peek();
+            if (c == '{') {
+                pos++;
+                skipWhitespace();
+                if (peek() == '}') {
+                    pos++;
+                    return visitor.visit(path, data, valueStart, pos);
+                }
+                while (true) {
+                    skipWhitespace();
+                    int keyStart = pos;
+                    skipString();
+                    String key = new String(data, keyStart + 1, pos - keyStart - 2, StandardCharsets.UTF_8);
+                    skipWhitespace();
+                    expect((byte) ':');
+                    if (!parseValue(path + "/" + key.replace("~", "~0").replace("/", "~1"), visitor)) {
+                        return false;
+                    }
+                    skipWhitespace();
+                    if (peek() == ',') {
+                        pos++;
+                        continue;
+                    }
+                    expect((byte) '}');
+                    return true;
+                }
+            }
+            if (c == '[') {
+                pos++;
+                skipWhitespace();
+                if (peek() == ']') {
+                    pos++;
+                    return visitor.visit(path, data, valueStart, pos);
+                }
+                for (int index = 0; ; index++) {
+                    if (!parseValue(path + "/" + index, visitor)) {
+                        return false;
+                    }
+                    skipWhitespace();
+                    if (peek() == ',') {
+                        pos++;
+                        continue;
+                    }
+                    expect((byte) ']');
+                    return true;
+                }
+            }
+            if (c == '"') {
+                skipString();
+            } else {
+                while (pos < end && "{}[],: \t\r\n".indexOf(data[pos]) < 0) {
+                    pos++;
+                }
+                if (pos == valueStart) {
+                    throw new IllegalArgumentException("Unexpected JSON token at offset " + pos);
+                }
+            }
+            return visitor.visit(path, data, valueStart, pos);
+        }
+
+        private void skipString() {
+            expect((byte) '"');
+            while (pos < end) {
+                byte c = data[pos++];
+                if (c == '\\') {
+                    pos++;
+                } else if (c == '"') {
+                    return;
+                }
+            }
+            throw new IllegalArgumentException("Unterminated JSON string");
+        }
+
+        private void skipWhitespace() {
+            while (pos < end && (data[pos] == ' ' || data[pos] == '\t' || data[pos] == '\r' || data[pos] == '\n')) {
+                pos++;
+            }
+        }
+
+        private byte peek() {
+            if (pos >= end) {
+                throw new IllegalArgumentException("Unexpected end of JSON");
+            }
+            return data[pos];
+        }
+
+        private void expect(byte expected) {
+            if (peek() != expected) {
+                throw new IllegalArgumentException("Expected '" + (char) expected + "' at offset " + pos);
+            }
+            pos++;
+        }
+    }
+
+    // Lenient streaming HTML/XML tokenizer; leaves are attributes and non-blank text nodes,
+    // addressed by element path with sibling indexes (e.g. /html[0]/body[0]/p[2]#text[0])
+    private static class HtmlLeafParser implements StructureParser {
+        private static final Set<String> VOID_ELEMENTS = Set.of(
+            "area", "base", "br", "col", "embed", "hr", "img", "input", "link", "meta", "source", "track", "wbr");
+
+        private static class Frame {
+            final String name;
+            final String path;
+            final Map<String, Integer> childCounts = new HashMap<>();
+            int textCount;
+
+            Frame(String name, String path) {
+                this.name = name;
+                this.path = path;
+            }
+        }
+
+        @Override
+        public boolean parse(byte[] data, int start, int end, LeafVisitor visitor) {
+            List<Frame> stack = new ArrayList<>();
+            stack.add(new Frame("", ""));
+            int pos = start;
+            while (pos < end) {
+                Frame parent = stack.get(stack.size() - 1);
+                if (data[pos] != '<') {
+                    int textEnd = indexOf(data, (byte) '<', pos, end);
+                    if (!visitText(parent, data, pos, textEnd, visitor)) {
+                        return false;
+                    }
+                    pos = textEnd;
+                } else if (startsWith(data, pos, end, "<!--")) {
+                    int commentEnd = indexOf(data, "-->", pos + 4, end);
+                    pos = commentEnd < 0 ? end : commentEnd + 3;
+                } else if (startsWith(data, pos, end, "<!") || startsWith(data, pos, end, "<?")) {
+                    pos = indexOf(data, (byte) '>', pos, end) + 1;
+                } else if (startsWith(data, pos, end, "</")) {
+                    int nameEnd = nameEnd(data, pos + 2, end);
+                    String name = lowerCase(data, pos + 2, nameEnd);
+                    for (int i = stack.size() - 1; i > 0; i--) {
+                        if (stack.get(i).name.equals(name)) {
+                            stack.subList(i, stack.size()).clear();
+                            break;
+                        }
+                    }
+                    pos = indexOf(data, (byte) '>', nameEnd, end) + 1;
+                } else {
+                    int nameEnd = nameEnd(data, pos + 1, end);
+                    if (nameEnd == pos + 1) {
+                        // A stray '<' is plain text
+                        int textEnd = indexOf(data, (byte) '<', pos + 1, end);
+                        if (!visitText(parent, data, pos, textEnd, visitor)) {
+                            return false;
+                        }
+                        pos = textEnd;
+                        continue;
+                    }
+                    String name = lowerCase(data, pos + 1, nameEnd);
+                    int index = parent.childCounts.merge(name, 1, Integer::sum) - 1;
+                    Frame element = new Frame(name, parent.path + "/" + name + "[" + index + "]");
+                    pos = nameEnd;
+
+                    // Attributes
+                    boolean selfClosing = false;
+                    while (pos < end && data[pos] != '>') {
+                        byte c = data[pos];
+                        if (c == '/') {
+                            selfClosing = true;
+                            pos++;
+                        } else if (isWhitespace(c)) {
+                            pos++;
+                        } else {
+                            selfClosing = false;
+                            int attrNameEnd = pos;
+                            while (attrNameEnd < end && data[attrNameEnd] != '=' && data[attrNameEnd] != '>'
+                                   && data[attrNameEnd] != '/' && !isWhitespace(data[attrNameEnd])) {
+                                attrNameEnd++;
+                            }
+                            String attrName = lowerCase(data, pos, attrNameEnd);
+                            pos = attrNameEnd;
+                            while (pos < end && isWhitespace(data[pos])) {
+                                pos++;
+                            }
+                            int valueStart = pos;
+                            int valueEnd = pos;
+                            if (pos < end && data[pos] == '=') {
+                                pos++;
+                                while (pos < end && isWhitespace(data[pos])) {
+                                    pos++;
+                                }
+                                if (pos < end && (data[pos] == '"' || data[pos] == '\'')) {
+                                    byte quote = data[pos];
+                                    valueStart = pos + 1;
+                                    valueEnd = indexOf(data, quote, valueStart, end);
+                                    pos = Math.min(end, valueEnd + 1);
+                                } else {
+                                    valueStart = pos;
+                                    while (pos < end && data[pos] != '>' && !isWhitespace(data[pos])) {
+                                        pos++;
+                                    }
+                                    valueEnd = pos;
+                                }
+                            }
+                            if (!visitor.visit(element.path + "@" + attrName, data, valueStart, valueEnd)) {
+                                return false;
+                            }
+                        }
+                    }
+                    pos = Math.min(end, pos + 1);
+
+                    if (name.equals("script") || name.equals("style")) {
+                        // Raw text elements: everything up to the closing tag is one text node
+                        int closeStart = indexOfIgnoreCase(data, "</" + name, pos, end);
+                        int contentEnd = closeStart < 0 ? end : closeStart;
+                        if (!visitText(element, data, pos, contentEnd, visitor)) {
+                            return false;
+                        }
+                        pos = closeStart < 0 ? end : indexOf(data, (byte) '>', closeStart, end) + 1;
+                    } else if (!selfClosing && !VOID_ELEMENTS.contains(name)) {
+                        stack.add(element);
+                    }
+                }
+            }
+            return true;
+        }
+
+        private static boolean visitText(Frame parent, byte[] data, int start, int end, LeafVisitor visitor) {
+            while (start < end && isWhitespace(data[start])) {
+                start++;
+            }
+            while (end > start && isWhitespace(data[end - 1])) {
+                end--;
+            }
+            if (start == end) {
+                return true;
+            }
+            return visitor.visit(parent.path + "#text[" + parent.textCount++ + "]", data, start, end);
+        }
+
+        private static int nameEnd(byte[] data, int pos, int end) {
+            while (pos < end && (Character.isLetterOrDigit(data[pos]) || data[pos] == '-' || data[pos] == ':' || data[pos] == '_')) {
+                pos++;
+            }
+            return pos;
+        }
+
+        private static String lowerCase(byte[] data, int start, int end) {
+            return new String(data, start, end - start, StandardCharsets.ISO_8859_1).toLowerCase(Locale.ROOT);
+        }
+
+        private static boolean isWhitespace(byte c) {
+            return c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == '\f';
+        }
+
+        private static boolean startsWith(byte[] data, int pos, int end, String prefix) {
+            return end - pos >= prefix.length()
+                && new String(data, pos, prefix.length(), StandardCharsets.ISO_8859_1).equals(prefix);
+        }
+
+        // Returns the offset of b, or end if absent
+        private static int indexOf(byte[] data, byte b, int from, int end) {
+            for (int i = from; i < end; i++) {
+                if (data[i] == b) {
+                    return i;
+                }
+            }
+            return end;
+        }
+
+        private static int indexOf(byte[] data, String needle, int from, int end) {
+            byte[] target = needle.getBytes(StandardCharsets.ISO_8859_1);
+            for (int i = from; i <= end - target.length; i++) {
+                if (Arrays.equals(data, i, i + target.length, target, 0, target.length)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static int indexOfIgnoreCase(byte[] data, String needle, int from, int end) {
+            for (int i = from; i <= end - needle.length(); i++) {
+                if (new String(data, i, needle.length(), StandardCharsets.ISO_8859_1).equalsIgnoreCase(needle)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    // Compares the headers with the line model and the body leaf by leaf, ignoring paths that varied across baselines
+    static class StructuralNormalizer implements ResponseNormalizer {
+        private final byte[] baseline;
+        private final int baselineBodyOffset;
+        private final LineNormalizer headerNormalizer;
+        private final StructureParser parser;
+        private final Map<String, byte[]> stableLeaves;
+        private final Set<String> volatilePaths;
+
+        private StructuralNormalizer(byte[] baseline, LineNormalizer headerNormalizer, StructureParser parser,
+                                     Map<String, byte[]> stableLeaves, Set<String> volatilePaths) {
+            this.baseline = baseline;
+            this.baselineBodyOffset = bodyOffset(baseline);
+            this.headerNormalizer = headerNormalizer;
+            this.parser = parser;
+            this.stableLeaves = stableLeaves;
+            this.volatilePaths = volatilePaths;
+        }
+
+        // Returns null when the baseline body is neither JSON nor HTML/XML, or fails to parse
+        static StructuralNormalizer compile(List<ResponseLines> baselines) {
+            byte[] first = baselines.get(0).data;
+            StructureParser parser = parserFor(first);
+            if (parser == null) {
+                return null;
+            }
+            List<ResponseLines> headerLines = new ArrayList<>();
+            List<Map<String, byte[]>> leaves = new ArrayList<>();
+            try {
+                for (ResponseLines baseline : baselines) {
+                    int bodyOffset = bodyOffset(baseline.data);
+                    headerLines.add(ResponseLines.of(Arrays.copyOfRange(baseline.data, 0, bodyOffset)));
+                    Map<String, byte[]> baselineLeaves = new LinkedHashMap<>();
+                    parser.parse(baseline.data, bodyOffset, baseline.data.length, (path, data, start, end) -> {
+                        baselineLeaves.put(path, Arrays.copyOfRange(data, start, end));
+                        return true;
+                    });
+                    leaves.add(baselineLeaves);
+                }
+            } catch (RuntimeException e) {
+                return null;
+            }
+
+            // A path is volatile if its value differs, or it is missing, in any baseline
+            Set<String> volatilePaths = new HashSet<>();
+            Map<String, byte[]> stableLeaves = new HashMap<>(leaves.get(0));
+            for (Map<String, byte[]> other : leaves.subList(1, leaves.size())) {
+                for (Map.Entry<String, byte[]> entry : other.entrySet()) {
+                    byte[] expected = stableLeaves.get(entry.getKey());
+                    if (expected == null || !Arrays.equals(expected, entry.getValue())) {
+                        volatilePaths.add(entry.getKey());
+                    }
+                }
+                for (String path : leaves.get(0).keySet()) {
+                    if (!other.containsKey(path)) {
+                        volatilePaths.add(path);
+                    }
+                }
+            }
+            stableLeaves.keySet().removeAll(volatilePaths);
+
+            Set<Integer> dynamicHeaderLines = new HashSet<>();
+            Map<Integer, LineTemplate> headerTemplates = new HashMap<>();
+            identifyDynamicLines(headerLines, true, dynamicHeaderLines, headerTemplates);
+            LineNormalizer headerNormalizer = new LineNormalizer(headerLines.get(0).data, dynamicHeaderLines, headerTemplates);
+            return new StructuralNormalizer(first, headerNormalizer, parser, stableLeaves, volatilePaths);
+        }
+
+        // The body format, header model, volatile paths and hashes of the stable leaves, for StoredModel
+        void writeModel(DataOutputStream out) throws IOException {
+            out.writeBoolean(parser instanceof JsonLeafParser);
+            headerNormalizer.writeModel(out);
+            out.writeInt(volatilePaths.size());
+            for (String path : volatilePaths) {
+                out.writeUTF(path);
+            }
+            MessageDigest digest = sha256();
+            out.writeInt(stableLeaves.size());
+            for (Map.Entry<String, byte[]> leaf : stableLeaves.entrySet()) {
+                out.writeUTF(leaf.getKey());
+                out.writeLong(storedHash(digest, leaf.getValue(), 0, leaf.getValue().length));
+            }
+        }
+
+        static StoredStructure readModel(DataInputStream in) throws IOException {
+            boolean json = in.readBoolean();
+            LineNormalizer.StoredLines headers = LineNormalizer.readModel(in);
+            Set<String> volatilePaths = new HashSet<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                volatilePaths.add(in.readUTF());
+            }
+            Map<String, Long> stableLeaves = new HashMap<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                stableLeaves.put(in.readUTF(), in.readLong());
+            }
+            return new StoredStructure(json, headers, volatilePaths, stableLeaves);
+        }
+
+        // A stored structural model: the header line model and a hash of each stable leaf
+        private static final class StoredStructure implements StoredComparison {
+            private final boolean json;
+            private final LineNormalizer.StoredLines headers;
+            private final Set<String> volatilePaths;
+            private final Map<String, Long> stableLeaves;
+
+            StoredStructure(boolean json, LineNormalizer.StoredLines headers, Set<String> volatilePaths, Map<String, Long> stableLeaves) {
+                this.json = json;
+                this.headers = headers;
+                this.volatilePaths = volatilePaths;
+                this.stableLeaves = stableLeaves;
+            }
+
+            @Override
+            public boolean matches(byte[] response) {
+                int bodyOffset = bodyOffset(response);
+                if (!headers.matches(response, 0, bodyOffset)) {
+                    return false;
+                }
+                MessageDigest digest = sha256();
+                int[] matched = {0};
+                try {
+                    boolean completed = parser().parse(response, bodyOffset, response.length, (path, data, start, end) -> {
+                        if (volatilePaths.contains(path)) {
+                            return true;
+                        }
+                        Long expected = stableLeaves.get(path);
+                        if (expected == null || expected != storedHash(digest, data, start, end)) {
+                            return false;
+                        }
+                        matched[0]++;
+                        return true;
+                    });
+                    return completed && matched[0] == stableLeaves.size();
+                } catch (RuntimeException e) {
+                    return false;
+                }
+            }
+
+            // The stable leaves are those of the response, which matched the stored ones
+            @Override
+            public StructuralNormalizer withBaseline(byte[] response) {
+                int bodyOffset = bodyOffset(response);
+                StructureParser parser = parser();
+                Map<String, byte[]> leaves = new HashMap<>();
+                parser.parse(response, bodyOffset, response.length, (path, data, start, end) -> {
+                    if (!volatilePaths.contains(path)) {
+                        leaves.put(path, Arrays.copyOfRange(data, start, end));
+                    }
+                    return true;
+                });
+                LineNormalizer headerNormalizer = headers.withBaseline(Arrays.copyOfRange(response, 0, bodyOffset));
+                return new StructuralNormalizer(response, headerNormalizer, parser, leaves, volatilePaths);
+            }
+
+            private StructureParser parser() {
+                return json ? new JsonLeafParser() : new HtmlLeafParser();
+            }
+        }
+
+        String describe() {
+            return String.format("%s, %d stable / %d volatile paths",
+                parser instanceof JsonLeafParser ? "JSON" : "HTML", stableLeaves.size(), volatilePaths.size());
+        }
+
+        @Override
+        public byte[] digest(byte[] response) {
+            MessageDigest digest = sha256();
+            int bodyOffset = bodyOffset(response);
+            headerNormalizer.digestInto(digest, response, 0, bodyOffset);
+            try {
+                parser.parse(response, bodyOffset, response.length, (path, data, start, end) -> {
+                    if (!volatilePaths.contains(path)) {
+                        digest.update(path.getBytes(StandardCharsets.UTF_8));
+                        digest.update((byte) 0);
+                        digest.update(data, start, end - start);
+                        digest.update((byte) 0);
+                    }
+                    return true;
+                });
+            } catch (RuntimeException e) {
+                digest.reset();
+                digest.update(response);
+            }
+            return digest.digest();
+        }
+
+        @Override
+        public String fingerprint() {
+            MessageDigest digest = sha256();
+            digest.update(headerNormalizer.fingerprint().getBytes(StandardCharsets.US_ASCII));
+            for (String path : new TreeSet<>(volatilePaths)) {
+                digest.update(path.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            for (String path : new TreeSet<>(stableLeaves.keySet())) {
+                digest.update(path.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(stableLeaves.get(path));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        }
+
+        @Override
+        public boolean headDiffers(byte[] response) {
+            return headerNormalizer.headDiffers(response);
+        }
+
+        @Override
+        public boolean matchesBaseline(byte[] response) {
+            int bodyOffset = bodyOffset(response);
+            if (!headerNormalizer.matchesBaseline(response, 0, bodyOffset)) {
+                return false;
+            }
+            // An identical body has identical leaves
+            if (Arrays.equals(response, bodyOffset, response.length, baseline, baselineBodyOffset, baseline.length)) {
+                return true;
+            }
+            int[] matched = {0};
+            try {
+                boolean completed = parser.parse(response, bodyOffset, response.length, (path, data, start, end) -> {
+                    if (volatilePaths.contains(path)) {
+                        return true;
+                    }
+                    byte[] expected = stableLeaves.get(path);
+                    if (expected == null || !Arrays.equals(expected, 0, expected.length, data, start, end)) {
+                        return false;
+                    }
+                    matched[0]++;
+                    return true;
+                });
+                return completed && matched[0] == stableLeaves.size();
+            } catch (RuntimeException e) {
+                // The probe body no longer parses, which is a change in its own right
+                return false;
+            }
+        }
+
+        @Override
+        public Difference difference(byte[] response) {
+            int bodyOffset = bodyOffset(response);
+            Difference headers = headerNormalizer.difference(response, 0, bodyOffset);
+            int lines = headers.lines() + stableLeaves.size();
+            long bytes = Math.max(baseline.length, response.length);
+            int[] changedLines = {headers.changedLines()};
+            long[] changedBytes = {headers.changedBytes()};
+            Set<String> seen = new HashSet<>();
+            try {
+                parser.parse(response, bodyOffset, response.length, (path, data, start, end) -> {
+                    if (volatilePaths.contains(path)) {
+                        return true;
+                    }
+                    byte[] expected = stableLeaves.get(path);
+                    if (expected == null || !seen.add(path)) {
+                        changedLines[0]++;
+                        changedBytes[0] += end - start;
+                    } else if (!Arrays.equals(expected, 0, expected.length, data, start, end)) {
+                        changedLines[0]++;
+                        changedBytes[0] += Math.max(expected.length, end - start);
+                    }
+                    return true;
+                });
+            } catch (RuntimeException e) {
+                return new Difference(lines, lines, bytes, bytes);
+            }
+            for (Map.Entry<String, byte[]> leaf : stableLeaves.entrySet()) {
+                if (!seen.contains(leaf.getKey())) {
+                    changedLines[0]++;
+                    changedBytes[0] += leaf.getValue().length;
+                }
+            }
+            return new Difference(changedLines[0], Math.max(lines, changedLines[0]), changedBytes[0], bytes);
+        }
+
+        private static StructureParser parserFor(byte[] response) {
+            int bodyOffset = bodyOffset(response);
+            String headers = new String(response, 0, bodyOffset, StandardCharsets.ISO_8859_1).toLowerCase(Locale.ROOT);
+            Matcher contentType = Pattern.compile("(?m)^content-type:\\s*([^\\r\\n]*)").matcher(headers);
+            String type = contentType.find() ? contentType.group(1) : "";
+            if (type.contains("json")) {
+                return new JsonLeafParser();
+            }
+            if (type.contains("html") || type.contains("xml")) {
+                return new HtmlLeafParser();
+            }
+            return null;
+        }
+
+    }
+
+    private static class ProbeResult {
+        byte[] response;
+        boolean hasImpact;
+        boolean failed;
+        boolean cached;
+        long responseNanos = -1;
+        int statusCode;
+        // Normalized response digest, when it was computed for the probe cache
+        byte[] digest;
+        // impactScore of the response, 0 without impact
+        double score;
+
+        ProbeResult(byte[] response, boolean hasImpact, boolean failed) {
+            this.response = response;
+            this.hasImpact = hasImpact;
+            this.failed = failed;
+        }
+    }
+
+    // Size-bounded LRU of probe outcomes, keyed by canonical request and comparison model, with a TTL
+    private static class ProbeCache {
+        record Entry(short statusCode, byte[] digest, float score, long createdNanos) {
+        }
+
+        private final int maxEntries;
+        private final long ttlNanos;
+        private final LinkedHashMap<String, Entry> entries;
+
+        ProbeCache(int maxEntries, long ttlNanos) {
+            this.maxEntries = maxEntries;
+            this.ttlNanos = ttlNanos;
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > ProbeCache.this.maxEntries;
+                }
+            };
+        }
+
+        synchronized Entry get(String key) {
+            Entry entry = entries.get(key);
+            if (entry != null && System.nanoTime() - entry.createdNanos() > ttlNanos) {
+                entries.remove(key);
+                return null;
+            }
+            return entry;
+        }
+
+        synchronized void put(String key, short statusCode, byte[] digest, float score) {
+            entries.put(key, new Entry(statusCode, digest, score, System.nanoTime()));
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized void clear() {
+            entries.clear();
+        }
+    }
+
+    // Spaces out requests to a single service (scheme, host and port) so that at most requestsPerSecond are sent
+    private static class HostRateLimiter {
+        private long nextPermitNanos = System.nanoTime();
+
+        void acquire(double requestsPerSecond) throws InterruptedException {
+            if (requestsPerSecond <= 0) {
+                return;
+            }
+            long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long slot = Math.max(now, nextPermitNanos);
+                nextPermitNanos = slot + intervalNanos;
+                waitNanos = slot - now;
+            }
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        }
+    }
+
+    // Runs each probe on its own virtual thread, at most maxConcurrency at a time (in submission order) and
+    // throttled per service. Closing interrupts whatever is still queued or running.
+    private static class ProbeScheduler implements AutoCloseable {
+        // The permit of the probe running on this thread, until the probe ends or a send it abandoned takes it over
+        private static final ThreadLocal<Semaphore[]> heldPermit = new ThreadLocal<>();
+
+        private final ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+        private final Semaphore permits;
+        private final Map<String, HostRateLimiter> rateLimiters;
+        private final double requestsPerSecond;
+
+        ProbeScheduler(int maxConcurrency, double requestsPerSecond, Map<String, HostRateLimiter> rateLimiters) {
+            this.permits = new Semaphore(Math.max(1, maxConcurrency), true);
+            this.requestsPerSecond = requestsPerSecond;
+            this.rateLimiters = rateLimiters;
+        }
+
+        <T> Future<T> submit(String serviceKey, Callable<T> probe) {
+            HostRateLimiter limiter = rateLimiters.computeIfAbsent(serviceKey, k -> new HostRateLimiter());
+            return threads.submit(() -> {
+                permits.acquire();
+                Semaphore[] held = {permits};
+                heldPermit.set(held);
+                try {
+                    limiter.acquire(requestsPerSecond);
+                    return probe.call();
+                } finally {
+                    heldPermit.remove();
+                    if (held[0] != null) {
+                        held[0].release();
+                    }
+                }
+            });
+        }
+
+        // Moves the current probe's permit to the caller, who must run the returned release; a no-op release
+        // when the thread is not running a probe (baselines are not limited by the scheduler)
+        static Runnable takeOverPermit() {
+            Semaphore[] held = heldPermit.get();
+            if (held == null || held[0] == null) {
+                return () -> { };
+            }
+            Semaphore permits = held[0];
+            held[0] = null;
+            return permits::release;
+        }
+
+        @Override
+        public void close() {
+            threads.shutdownNow();
+        }
+    }
+
+    // One request under analysis, with its own baselines and dynamic-content model
+    private class Analysis {
+        final RawRequest originalRequest;
+        final AnalysisConfig config;
+        final Consumer<AnalysisEvent> events;
+        final AnalysisControl control;
+        final Checkpoint checkpoint;
+        final AtomicInteger tasksRemaining = new AtomicInteger(0);
+        // Borderline findings waiting for their re-probes, in the order they were found
+        final List<Reprobe> reprobes = new ArrayList<>();
+        volatile String baselineStatus = "";
+        int baselineStatusCode;
+        long medianBaselineNanos;
+        ResponseNormalizer responseNormalizer;
+        String normalizerFingerprint;
+        byte[] baselineDigest;
+
+        Analysis(RawRequest originalRequest, AnalysisConfig config, Consumer<AnalysisEvent> events,
+                 AnalysisControl control, Checkpoint checkpoint) {
+            this.originalRequest = originalRequest;
+            this.config = config;
+            this.events = events;
+            this.control = control;
+            this.checkpoint = checkpoint;
+        }
+
+        void run() throws IOException, InterruptedException {
+            List<RawRequest.Element> influentialElements = new ArrayList<>();
+            // Enumerate elements in a fixed order so results stay deterministic
+            List<RawRequest.Element> elements = originalRequest.elements(config.filter());
+            List<MutationProbe> mutationProbes = mutationProbes(elements);
+            int totalTasks = elements.size() + mutationProbes.size();
+            tasksRemaining.set(totalTasks);
+
+            if (checkpoint.model == null) {
+                sampleBaselines();
+                checkpoint.model = new BaselineModel(baselineStatus, baselineStatusCode, medianBaselineNanos,
+                    responseNormalizer, normalizerFingerprint, baselineDigest);
+                // The model keeps the one baseline it compares against; a paused analysis need not keep the rest
+                checkpoint.baselines.clear();
+            } else {
+                BaselineModel model = checkpoint.model;
+                baselineStatus = model.status();
+                baselineStatusCode = model.statusCode();
+                medianBaselineNanos = model.medianNanos();
+                responseNormalizer = model.normalizer();
+                normalizerFingerprint = model.fingerprint();
+                baselineDigest = model.digest();
+                events.accept(new AnalysisEvent.Log(String.format("Resuming %s with %d finished probes.",
+                    originalRequest.url(), checkpoint.completedProbes.size())));
+            }
+
+            // Reset progress bar for element analysis
+            updateProgress(totalTasks, totalTasks);
+
+            try (ProbeScheduler scheduler = new ProbeScheduler(config.probeConcurrency(), config.requestsPerSecond(), hostRateLimiters)) {
+                Map<Integer, ProbeResult> removalResults = new HashMap<>();
+                long bodyLeaves = elements.stream().filter(RawRequest.Element::isBodyLeaf).count();
+                boolean bisect = config.bisect() || bodyLeaves > BISECT_BODY_LEAVES;
+                if (bisect && !config.bisect()) {
+                    events.accept(new AnalysisEvent.Log(String.format("Bisecting %s: its body has %d fields.", originalRequest.url(), bodyLeaves)));
+                }
+                if (bisect) {
+                    bisectElements(elements, scheduler, totalTasks, influentialElements, removalResults);
+                } else {
+                    probeEachElement(elements, scheduler, totalTasks, influentialElements, removalResults);
+                }
+                if (!mutationProbes.isEmpty()) {
+                    probeMutations(elements, mutationProbes, removalResults, scheduler, totalTasks);
+                }
+                reprobeBorderlineResults(scheduler);
+                minimize(influentialElements, scheduler);
+            }
+            updateProgress(0, totalTasks);
+        }
+
+        private void sampleBaselines() throws IOException, InterruptedException {
+            int numBaselineRequests = config.baselineCount();
+            int baselineDelay = config.baselineDelay();
+            boolean adaptive = config.adaptiveBaseline();
+            boolean accurate = config.accurate();
+            // Baselines sampled before a pause are kept
+            List<ResponseLines> responseLines = checkpoint.baselines;
+            List<Long> responseTimes = checkpoint.baselineNanos;
+            int stableSamples = 0;
+            String stopReason = null;
+
+            String endpoint = config.reuseModel() && modelStore != null ? modelEndpoint(originalRequest, accurate, config.maxBodyKilobytes()) : null;
+            if (endpoint != null && responseLines.isEmpty() && confirmStoredModel(endpoint)) {
+                return;
+            }
+
+            if (!responseLines.isEmpty()) {
+                events.accept(new AnalysisEvent.Log(String.format("Resuming %s with %d sampled baselines.",
+                    originalRequest.url(), responseLines.size())));
+            }
+
+            // The model is built up as the baselines arrive
+            TemplateBuilder templates = new TemplateBuilder(accurate);
+            responseLines.forEach(templates::add);
+
+            // Baselines go out concurrently, each started baselineDelay (jittered) after the previous one instead
+            // of after its response, and are added to the model in the order they arrive. Once adaptive sampling
+            // has settled, the baselines not yet started are cancelled.
+            int pending = numBaselineRequests - responseLines.size();
+            HostRateLimiter limiter = hostRateLimiters.computeIfAbsent(originalRequest.serviceKey(), k -> new HostRateLimiter());
+            ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+            try {
+                CompletionService<BaselineSample> arrivals = new ExecutorCompletionService<>(senders);
+                long startNanos = System.nanoTime();
+                long offsetMillis = 0;
+                for (int i = responseLines.size(); i < numBaselineRequests; i++) {
+                    int requestIndex = i + 1;
+                    long startAt = startNanos + TimeUnit.MILLISECONDS.toNanos(offsetMillis);
+                    arrivals.submit(() -> {
+                        TimeUnit.NANOSECONDS.sleep(startAt - System.nanoTime());
+                        limiter.acquire(config.requestsPerSecond());
+                        events.accept(new AnalysisEvent.Status(String.format("Sending Baseline Request %d/%d", requestIndex, numBaselineRequests)));
+                        return sendBaseline(requestIndex);
+                    });
+                    if (baselineDelay > 0) {
+                        offsetMillis += jitteredDelay(baselineDelay);
+                    }
+                }
+
+                for (; pending > 0; pending--) {
+                    BaselineSample sample = awaitBaseline(arrivals);
+                    responseTimes.add(sample.nanos());
+                    ResponseLines lines = ResponseLines.of(sample.response());
+                    responseLines.add(lines);
+                    boolean changed = templates.add(lines);
+
+                    // In adaptive mode, stop once the model settles. The first sample only starts the model; a second
+                    // that matches it already counts as stable.
+                    if (adaptive && responseLines.size() >= 2) {
+                        stableSamples = changed ? 0 : stableSamples + 1;
+                        if (stableSamples >= ADAPTIVE_STABLE_SAMPLES) {
+                            stopReason = String.format("stable after %d baselines", responseLines.size());
+                            break;
+                        }
+                    }
+                }
+            } finally {
+                senders.shutdownNow();
+            }
+            if (stopReason == null) {
+                stopReason = adaptive
+                    ? String.format("limit of %d baselines reached", responseLines.size())
+                    : String.format("%d baselines", responseLines.size());
+            }
+            baselineStatus = stopReason;
+            baselineStatusCode = statusCode(responseLines.get(0).data);
+            responseTimes.sort(null);
+            medianBaselineNanos = responseTimes.get(responseTimes.size() / 2);
+            events.accept(new AnalysisEvent.Log("Baseline sampling finished for " + originalRequest.url() + ": " + stopReason));
+
+            // Compile the comparison model
+            long normalizeStart = System.nanoTime();
+            // Accurate mode compares JSON and HTML bodies structurally when the baseline parses
+            StructuralNormalizer structuralNormalizer = accurate ? StructuralNormalizer.compile(responseLines) : null;
+            if (structuralNormalizer != null) {
+                events.accept(new AnalysisEvent.Log("Using structural comparison: " + structuralNormalizer.describe()));
+                responseNormalizer = structuralNormalizer;
+            } else {
+                responseNormalizer = new LineNormalizer(responseLines.get(0).data, templates.dynamicLines(), templates.templates());
+            }
+            if (config.useProbeCache()) {
+                normalizerFingerprint = responseNormalizer.fingerprint();
+                baselineDigest = responseNormalizer.digest(responseLines.get(0).data);
+            }
+            metrics.record(ProbeMetrics.Stage.NORMALIZE, System.nanoTime() - normalizeStart);
+
+            if (endpoint != null) {
+                try {
+                    byte[] model = StoredModel.write(endpoint, baselineStatusCode, responseNormalizer);
+                    if (model.length > StoredModel.MAX_BYTES) {
+                        events.accept(new AnalysisEvent.Log(String.format("Not storing the model for %s: %d KB is over the limit of %d KB",
+                            endpoint, model.length / 1024, StoredModel.MAX_BYTES / 1024)));
+                    } else {
+                        modelStore.save(modelKey(endpoint), model);
+                    }
+                } catch (IOException e) {
+                    events.accept(new AnalysisEvent.Log("Could not store the model for " + endpoint + ": " + e));
+                }
+            }
+        }
+
+        // Sends a single baseline and adopts the stored model if the response still matches it. Otherwise the
+        // baseline counts as the first sample for a new model.
+        private boolean confirmStoredModel(String endpoint) throws IOException, InterruptedException {
+            StoredBaseline stored;
+            try {
+                byte[] data = modelStore.load(modelKey(endpoint));
+                stored = data != null ? StoredModel.read(endpoint, data) : null;
+            } catch (IOException e) {
+                events.accept(new AnalysisEvent.Log("Ignoring the unreadable stored model for " + endpoint + ": " + e));
+                stored = null;
+            }
+            if (stored == null) {
+                return false;
+            }
+
+            events.accept(new AnalysisEvent.Status("Sending Confirming Baseline Request"));
+            BaselineSample sample = sendBaseline(1);
+            byte[] response = sample.response();
+            checkpoint.baselineNanos.add(sample.nanos());
+            checkpoint.baselines.add(ResponseLines.of(response));
+            if (statusCode(response) != stored.statusCode() || !stored.comparison().matches(response)) {
+                events.accept(new AnalysisEvent.Log("Stored model for " + endpoint + " no longer matches; sampling baselines again"));
+                return false;
+            }
+
+            long normalizeStart = System.nanoTime();
+            baselineStatus = "stored model confirmed";
+            baselineStatusCode = stored.statusCode();
+            medianBaselineNanos = checkpoint.baselineNanos.get(0);
+            responseNormalizer = stored.comparison().withBaseline(response);
+            if (config.useProbeCache()) {
+                normalizerFingerprint = responseNormalizer.fingerprint();
+                baselineDigest = responseNormalizer.digest(response);
+            }
+            metrics.record(ProbeMetrics.Stage.NORMALIZE, System.nanoTime() - normalizeStart);
+            events.accept(new AnalysisEvent.Log("Reusing the stored model for " + endpoint + " after 1 baseline"));
+            return true;
+        }
+
+        private BaselineSample sendBaseline(int requestIndex) throws IOException, InterruptedException {
+            long start = System.nanoTime();
+            byte[] response = timedSend(originalRequest, head -> true);
+            long elapsed = System.nanoTime() - start;
+            metrics.recordSend(new ProbeMetrics.Sample(System.currentTimeMillis(), originalRequest.url(), ProbeMetrics.Stage.BASELINE,
+                "Baseline " + requestIndex, statusCode(response), response.length, elapsed, -1));
+            return new BaselineSample(response, elapsed);
+        }
+
+        private BaselineSample awaitBaseline(CompletionService<BaselineSample> arrivals) throws IOException, InterruptedException {
+            try {
+                return arrivals.take().get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException io) {
+                    throw io;
+                }
+                throw new IOException("Baseline request failed", e.getCause());
+            }
+        }
+
+        // The response comes back with its body cut at the size limit, or without a body when bodyNeeded turns
+        // it down and the transport can stop early
+        private byte[] timedSend(RawRequest request, Predicate<byte[]> bodyNeeded) throws IOException, InterruptedException {
+            int maxBodyBytes = config.maxBodyKilobytes() * 1024;
+            // One byte over the limit tells a cut body from one of exactly the limit
+            HttpTransport.ResponseLimit limit = new HttpTransport.ResponseLimit(bodyNeeded, maxBodyBytes > 0 ? maxBodyBytes + 1 : 0);
+            metrics.sendStarted();
+            try {
+                return cutBody(sendInterruptibly(request, limit), maxBodyBytes);
+            } finally {
+                metrics.sendFinished();
+            }
+        }
+
+        // The send runs on its own virtual thread, so a target that never answers, or a transport that ignores
+        // interrupts, cannot hold the caller past the request timeout or a pause/cancel. An abandoned send is
+        // interrupted, but a transport such as Burp's keeps going until it finishes (or times out) on its own;
+        // until then it keeps the probe's permit, so abandoned sends never add to the configured concurrency.
+        private byte[] sendInterruptibly(RawRequest request, HttpTransport.ResponseLimit limit) throws IOException, InterruptedException {
+            int timeoutMillis = config.requestTimeoutMillis();
+            FutureTask<byte[]> send = new FutureTask<>(() -> config.http2()
+                ? transport.sendMultiplexed(request, config.maxConcurrentStreams(), limit)
+                : transport.send(request, limit));
+            CompletableFuture<Void> returned = new CompletableFuture<>();
+            Thread.ofVirtual().name("packetpurifier-send").start(() -> {
+                try {
+                    send.run();
+                } finally {
+                    returned.complete(null);
+                }
+            });
+            try {
+                return timeoutMillis > 0 ? send.get(timeoutMillis, TimeUnit.MILLISECONDS) : send.get();
+            } catch (TimeoutException e) {
+                events.accept(new AnalysisEvent.Log(String.format("Abandoned %s after %d ms without a response; it counts against the "
+                    + "thread limit until the transport returns.", request.url(), timeoutMillis)));
+                throw new IOException("No response within " + timeoutMillis + " ms; send abandoned");
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+            } finally {
+                if (!returned.isDone()) {
+                    returned.thenRun(ProbeScheduler.takeOverPermit());
+                    send.cancel(true);
+                }
+            }
+        }
+
+        // Sends one removal probe per element concurrently, publishing results in enumeration order
+        private void probeEachElement(List<RawRequest.Element> elements, ProbeScheduler scheduler, int totalTasks,
+                                      List<RawRequest.Element> influentialElements, Map<Integer, ProbeResult> removalResults) throws InterruptedException {
+            List<RawRequest> probes = new ArrayList<>();
+            List<Future<ProbeResult>> results = new ArrayList<>();
+            for (RawRequest.Element element : elements) {
+                RawRequest modifiedRequest = originalRequest.withRemovedElements(List.of(element));
+                probes.add(modifiedRequest);
+                results.add(scheduler.submit(originalRequest.serviceKey(), () -> {
+                    try {
+                        return testProbe(modifiedRequest, label(element));
+                    } finally {
+                        updateProgress(tasksRemaining.decrementAndGet(), totalTasks);
+                    }
+                }));
+            }
+            for (int i = 0; i < probes.size(); i++) {
+                ProbeResult result = awaitProbe(results.get(i));
+                removalResults.put(i, result);
+                // Findings published before a pause are not repeated on resume
+                reportRemoval(elements.get(i), probes.get(i), result, i < checkpoint.publishedFindings, influentialElements);
+                checkpoint.publishedFindings = Math.max(checkpoint.publishedFindings, i + 1);
+            }
+        }
+
+        // Group testing: removes whole batches at once and only splits batches that change the response.
+        // Each round of batches is sent concurrently; hits are published in enumeration order at the end.
+        private void bisectElements(List<RawRequest.Element> elements, ProbeScheduler scheduler, int totalTasks,
+                                    List<RawRequest.Element> influentialElements, Map<Integer, ProbeResult> hitResults) throws InterruptedException {
+            Map<Integer, RawRequest> hitProbes = new TreeMap<>();
+            List<List<RawRequest.Element>> batches = new ArrayList<>();
+            if (!elements.isEmpty()) {
+                batches.add(elements);
+            }
+            int requestCount = 0;
+
+            while (!batches.isEmpty()) {
+                if (control.isStopped()) {
+                    throw new InterruptedException();
+                }
+                List<RawRequest> batchRequests = new ArrayList<>();
+                List<Future<ProbeResult>> results = new ArrayList<>();
+                for (List<RawRequest.Element> batch : batches) {
+                    RawRequest modifiedRequest = originalRequest.withRemovedElements(batch);
+                    batchRequests.add(modifiedRequest);
+                    String label = batch.size() == 1 ? label(batch.get(0)) : batch.size() + " elements";
+                    results.add(scheduler.submit(originalRequest.serviceKey(), () -> testProbe(modifiedRequest, label)));
+                }
+                requestCount += batches.size();
+
+                List<List<RawRequest.Element>> nextBatches = new ArrayList<>();
+                for (int i = 0; i < batches.size(); i++) {
+                    List<RawRequest.Element> batch = batches.get(i);
+                    ProbeResult result = awaitProbe(results.get(i));
+                    if (!result.hasImpact && !result.failed) {
+                        // The whole batch is irrelevant
+                        updateProgress(tasksRemaining.addAndGet(-batch.size()), totalTasks);
+                    } else if (batch.size() == 1) {
+                        int index = elements.indexOf(batch.get(0));
+                        hitProbes.put(index, batchRequests.get(i));
+                        hitResults.put(index, result);
+                        updateProgress(tasksRemaining.decrementAndGet(), totalTasks);
+                    } else {
+                        int middle = batch.size() / 2;
+                        nextBatches.add(batch.subList(0, middle));
+                        nextBatches.add(batch.subList(middle, batch.size()));
+                    }
+                }
+                batches = nextBatches;
+            }
+
+            // Finished batches come from the checkpoint on resume, so the hits are the same and those published
+            // before a pause are not repeated
+            int hit = 0;
+            for (Map.Entry<Integer, RawRequest> entry : hitProbes.entrySet()) {
+                reportRemoval(elements.get(entry.getKey()), entry.getValue(), hitResults.get(entry.getKey()),
+                    hit < checkpoint.publishedFindings, influentialElements);
+                checkpoint.publishedFindings = Math.max(checkpoint.publishedFindings, ++hit);
+            }
+            events.accept(new AnalysisEvent.Log(String.format("Bisect resolved %d elements with %d requests.", elements.size(), requestCount)));
+        }
+
+        // Every configured value mutation of every element that it applies to, grouped by element
+        private List<MutationProbe> mutationProbes(List<RawRequest.Element> elements) {
+            List<MutationProbe> probes = new ArrayList<>();
+            for (int i = 0; i < elements.size(); i++) {
+                for (RawRequest.Mutation mutation : RawRequest.Mutation.values()) {
+                    if (mutation == RawRequest.Mutation.REMOVED || !config.mutations().contains(mutation)) {
+                        continue;
+                    }
+                    RawRequest request = originalRequest.withMutatedElement(elements.get(i), mutation);
+                    if (request != null) {
+                        probes.add(new MutationProbe(i, mutation, request));
+                    }
+                }
+            }
+            return probes;
+        }
+
+        // Sends the mutation probes like removal probes. Mutations of one element that change the response the
+        // same way (same status and normalized body) are reported as one finding, and not at all if removing
+        // the element already did exactly that.
+        private void probeMutations(List<RawRequest.Element> elements, List<MutationProbe> probes,
+                                    Map<Integer, ProbeResult> removalResults, ProbeScheduler scheduler, int totalTasks) throws InterruptedException {
+            List<Future<ProbeResult>> results = new ArrayList<>();
+            for (MutationProbe probe : probes) {
+                RawRequest.Element element = elements.get(probe.element());
+                String label = label(element) + " (" + probe.mutation().label() + ")";
+                results.add(scheduler.submit(originalRequest.serviceKey(), () -> {
+                    try {
+                        return testProbe(probe.request(), label);
+                    } finally {
+                        updateProgress(tasksRemaining.decrementAndGet(), totalTasks);
+                    }
+                }));
+            }
+
+            int start = 0;
+            while (start < probes.size()) {
+                int element = probes.get(start).element();
+                ProbeResult removal = removalResults.get(element);
+                String removalOutcome = removal != null && removal.hasImpact ? outcome(removal) : null;
+                // Outcome to the probes that produced it, in mutation order
+                Map<String, List<Integer>> outcomes = new LinkedHashMap<>();
+                Map<Integer, ProbeResult> finished = new HashMap<>();
+                int end = start;
+                for (; end < probes.size() && probes.get(end).element() == element; end++) {
+                    ProbeResult result = awaitProbe(results.get(end));
+                    if (result.hasImpact || result.failed) {
+                        String outcome = outcome(result);
+                        if (!outcome.equals(removalOutcome)) {
+                            outcomes.computeIfAbsent(outcome, k -> new ArrayList<>()).add(end);
+                            finished.put(end, result);
+                        }
+                    }
+                }
+                boolean published = element < checkpoint.publishedMutationElements;
+                for (List<Integer> group : outcomes.values()) {
+                    MutationProbe first = probes.get(group.get(0));
+                    ProbeResult result = finished.get(group.get(0));
+                    List<RawRequest.Mutation> mutations = group.stream().map(i -> probes.get(i).mutation()).toList();
+                    RawRequest.Element mutated = elements.get(element);
+                    whenConfident(first.request(), label(mutated) + " (" + mutations.get(0).label() + ")", result, published,
+                        (confidence, publish) -> {
+                            if (publish) {
+                                events.accept(new AnalysisEvent.Finding(mutated, mutations, first.request(), result.response,
+                                    result.responseNanos, result.hasImpact, false, result.cached, result.failed, confidence));
+                            }
+                        });
+                }
+                checkpoint.publishedMutationElements = Math.max(checkpoint.publishedMutationElements, element + 1);
+                start = end;
+            }
+        }
+
+        // Publishes a removal finding and keeps the element if the removal changed the response with enough confidence
+        private void reportRemoval(RawRequest.Element element, RawRequest modifiedRequest, ProbeResult result, boolean published,
+                                   List<RawRequest.Element> influentialElements) {
+            whenConfident(modifiedRequest, label(element), result, published, (confidence, publish) -> {
+                if (publish) {
+                    publishProbeResult(element, modifiedRequest, result, confidence);
+                }
+                if (result.hasImpact && confidence * 100 >= config.minConfidence()) {
+                    influentialElements.add(element);
+                }
+            });
+        }
+
+        // Reports a clear-cut result right away with full confidence. A borderline one is reported after its
+        // re-probes, unless it was already re-probed before a pause.
+        private void whenConfident(RawRequest modifiedRequest, String label, ProbeResult result, boolean published, FindingReport report) {
+            if (!result.hasImpact || result.score >= 1) {
+                report.report(1, !published);
+                return;
+            }
+            Double confidence = checkpoint.reprobeConfidence.get(canonicalRequestKey(modifiedRequest));
+            if (confidence != null) {
+                report.report(confidence, false);
+            } else {
+                reprobes.add(new Reprobe(modifiedRequest, label, result, report));
+            }
+        }
+
+        // Sends every borderline probe again, all together so they never hold up the first pass, and reports it
+        // with the share of its attempts that reproduced the change. Each attempt goes out at the same moment as
+        // a control, the original request: an attempt only counts if it differs from its control, so a change
+        // that the original request shows as well (e.g. a Date header that happened to be stable across the
+        // baselines) is not credited to the element. While the control still matches the baselines, the attempt
+        // must also have the same outcome as the first probe. Attempts with a failed request are left out.
+        private void reprobeBorderlineResults(ProbeScheduler scheduler) throws InterruptedException {
+            if (reprobes.isEmpty()) {
+                return;
+            }
+            events.accept(new AnalysisEvent.Status(String.format("Re-probing %d borderline results", reprobes.size())));
+            List<List<Future<ReprobeAttempt>>> results = new ArrayList<>();
+            for (Reprobe reprobe : reprobes) {
+                String requestKey = canonicalRequestKey(reprobe.request());
+                List<Future<ReprobeAttempt>> attempts = new ArrayList<>();
+                for (int attempt = 1; attempt <= REPROBE_ATTEMPTS; attempt++) {
+                    String label = reprobe.label() + " (re-probe " + attempt + ")";
+                    String attemptKey = requestKey + "#" + attempt;
+                    attempts.add(scheduler.submit(originalRequest.serviceKey(), () -> {
+                        FutureTask<ProbeResult> control = new FutureTask<>(
+                            () -> testProbe(originalRequest, label + " control", attemptKey + "#control", false));
+                        Thread.ofVirtual().start(control);
+                        try {
+                            ProbeResult result = testProbe(reprobe.request(), label, attemptKey, false);
+                            return new ReprobeAttempt(result, awaitProbe(control));
+                        } finally {
+                            control.cancel(true);
+                        }
+                    }));
+                }
+                results.add(attempts);
+            }
+            int unconfirmed = 0;
+            for (int i = 0; i < reprobes.size(); i++) {
+                Reprobe reprobe = reprobes.get(i);
+                String outcome = outcome(reprobe.first());
+                int attempts = 1;
+                int reproduced = 1;
+                for (Future<ReprobeAttempt> future : results.get(i)) {
+                    ReprobeAttempt attempt = awaitAttempt(future);
+                    if (attempt == null) {
+                        continue;
+                    }
+                    attempts++;
+                    String attemptOutcome = outcome(attempt.probe());
+                    if (attempt.probe().hasImpact && !attemptOutcome.equals(outcome(attempt.control()))
+                            && (attempt.control().hasImpact || attemptOutcome.equals(outcome))) {
+                        reproduced++;
+                    }
+                }
+                double confidence = (double) reproduced / attempts;
+                if (confidence * 100 < config.minConfidence()) {
+                    unconfirmed++;
+                }
+                reprobe.report().report(confidence, true);
+                checkpoint.reprobeConfidence.put(canonicalRequestKey(reprobe.request()), confidence);
+            }
+            events.accept(new AnalysisEvent.Log(String.format("Re-probed %d borderline results of %s; %d did not reproduce reliably.",
+                reprobes.size(), originalRequest.url(), unconfirmed)));
+            reprobes.clear();
+        }
+
+        // Null if the attempt or its control failed
+        private ReprobeAttempt awaitAttempt(Future<ReprobeAttempt> future) throws InterruptedException {
+            try {
+                ReprobeAttempt attempt = future.get();
+                return attempt.probe().failed || attempt.control().failed ? null : attempt;
+            } catch (ExecutionException e) {
+                return null;
+            }
+        }
+
+        // Identifies what a probe did to the response, for telling apart probes with the same effect
+        private String outcome(ProbeResult result) {
+            if (result.failed) {
+                return "failed";
+            }
+            byte[] digest = result.digest != null ? result.digest
+                : result.response != null ? responseNormalizer.digest(result.response) : null;
+            return result.statusCode + ":" + (digest != null ? HexFormat.of().formatHex(digest) : "");
+        }
+
+        private ProbeResult testProbe(RawRequest modifiedRequest, String label) {
+            return testProbe(modifiedRequest, label, canonicalRequestKey(modifiedRequest), true);
+        }
+
+        // Re-probes and their controls bypass the probe cache and are checkpointed under their own key
+        private ProbeResult testProbe(RawRequest modifiedRequest, String label, String checkpointKey, boolean useCache) {
+            ProbeResult finished = checkpoint.completedProbes.get(checkpointKey);
+            if (finished != null) {
+                return finished;
+            }
+            ProbeResult result = probe(modifiedRequest, canonicalRequestKey(modifiedRequest), label, useCache);
+            if (!result.failed) {
+                // Only findings need their response again
+                ProbeResult kept = result;
+                if (!result.hasImpact && !isSlow(result) && result.response != null) {
+                    kept = new ProbeResult(null, false, false);
+                    kept.cached = result.cached;
+                    kept.responseNanos = result.responseNanos;
+                    kept.statusCode = result.statusCode;
+                    kept.digest = result.digest;
+                    kept.score = result.score;
+                }
+                checkpoint.completedProbes.put(checkpointKey, kept);
+            }
+            return result;
+        }
+
+        private ProbeResult probe(RawRequest modifiedRequest, String requestKey, String label, boolean useCache) {
+            String cacheKey = useCache && config.useProbeCache() ? requestKey + ":" + normalizerFingerprint : null;
+            if (cacheKey != null && !config.refreshProbeCache()) {
+                ProbeCache.Entry cached = probeCache.get(cacheKey);
+                if (cached != null) {
+                    boolean hasImpact = cached.statusCode() != baselineStatusCode
+                        || !Arrays.equals(cached.digest(), baselineDigest);
+                    ProbeResult result = new ProbeResult(null, hasImpact, false);
+                    result.cached = true;
+                    result.statusCode = cached.statusCode();
+                    result.digest = cached.digest();
+                    result.score = hasImpact ? cached.score() : 0;
+                    return result;
+                }
+            }
+            try {
+                long start = System.nanoTime();
+                byte[] modifiedResponse = timedSend(modifiedRequest, head -> bodyNeeded(baselineStatusCode, responseNormalizer, head));
+                long sendNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                boolean hasImpact = hasSignificantImpact(baselineStatusCode, responseNormalizer, modifiedResponse);
+                double score = hasImpact ? impactScore(baselineStatusCode, responseNormalizer, modifiedResponse) : 0;
+                byte[] digest = null;
+                if (cacheKey != null) {
+                    digest = responseNormalizer.digest(modifiedResponse);
+                    probeCache.put(cacheKey, (short) statusCode(modifiedResponse), digest, (float) score);
+                }
+                ProbeResult result = new ProbeResult(modifiedResponse, hasImpact, false);
+                long compareNanos = System.nanoTime() - start;
+                result.responseNanos = sendNanos;
+                result.statusCode = statusCode(modifiedResponse);
+                result.digest = digest;
+                result.score = score;
+                metrics.recordSend(new ProbeMetrics.Sample(System.currentTimeMillis(), modifiedRequest.url(), ProbeMetrics.Stage.PROBE,
+                    label, statusCode(modifiedResponse), modifiedResponse.length, sendNanos, compareNanos));
+                return result;
+            } catch (Exception e) {
+                return new ProbeResult(null, false, true);
+            }
+        }
+
+        // Much slower than the baselines: removing the element may change server-side work even if the body is the same
+        private boolean isSlow(ProbeResult result) {
+            return result.responseNanos > medianBaselineNanos * SLOW_PROBE_FACTOR
+                && result.responseNanos - medianBaselineNanos > TimeUnit.MILLISECONDS.toNanos(SLOW_PROBE_MIN_EXTRA_MS);
+        }
+
+        private void publishProbeResult(RawRequest.Element element, RawRequest modifiedRequest, ProbeResult result, double confidence) {
+            boolean slow = isSlow(result);
+            if (result.hasImpact || result.failed || slow) {
+                events.accept(new AnalysisEvent.Finding(element, List.of(RawRequest.Mutation.REMOVED), modifiedRequest, result.response, result.responseNanos,
+                    result.hasImpact, slow, result.cached, result.failed, confidence));
+            }
+        }
+
+        // Keeps the influential elements, matching elements by type and name, and removes everything else, then
+        // checks that the result still matches the baselines. If it does not, some of the removed elements only
+        // matter together (e.g. either of two session cookies): delta debugging restores a minimal set of them,
+        // and a second pass over everything kept drops what the restored elements made redundant.
+        private void minimize(List<RawRequest.Element> influentialElements, ProbeScheduler scheduler) throws InterruptedException {
+            Set<String> influential = new HashSet<>();
+            for (RawRequest.Element element : influentialElements) {
+                influential.add(minimizationKey(element));
+            }
+            List<RawRequest.Element> allElements = originalRequest.elements("All");
+            Map<String, List<RawRequest.Element>> groups = new LinkedHashMap<>();
+            for (RawRequest.Element element : allElements) {
+                groups.computeIfAbsent(minimizationKey(element), k -> new ArrayList<>()).add(element);
+            }
+            List<String> kept = new ArrayList<>();
+            List<String> removed = new ArrayList<>();
+            for (String key : groups.keySet()) {
+                (influential.contains(key) ? kept : removed).add(key);
+            }
+
+            events.accept(new AnalysisEvent.Status("Verifying the minimized request"));
+            Minimizer minimizer = new Minimizer(groups, scheduler);
+            if (minimizer.firstPassing(List.of(kept)) >= 0) {
+                events.accept(new AnalysisEvent.Log("Minimized request of " + originalRequest.url() + " matches the baselines."));
+            } else {
+                List<String> restored = minimizer.ddmin(kept, removed);
+                List<String> candidate = new ArrayList<>(groups.keySet());
+                candidate.removeIf(key -> !kept.contains(key) && !restored.contains(key));
+                // Everything restored is the original request, which the per-element probes already compared
+                List<String> minimal = restored.size() < removed.size() ? minimizer.ddmin(List.of(), candidate) : candidate;
+                kept.clear();
+                kept.addAll(minimal);
+                events.accept(new AnalysisEvent.Log(String.format("Minimized request of %s needed %s together; %d candidate requests.",
+                    originalRequest.url(), restored.stream().filter(kept::contains).map(key -> label(groups.get(key).get(0)))
+                        .collect(Collectors.joining(", ")), minimizer.candidates)));
+            }
+            int keptElements = kept.stream().mapToInt(key -> groups.get(key).size()).sum();
+            events.accept(new AnalysisEvent.Minimized(minimizer.request(kept), keptElements, allElements.size()));
+        }
+
+        // Delta debugging (ddmin) over groups of elements with the same type and name. A candidate keeps some of the
+        // groups and removes the rest; it passes when its response has no impact, or the same impact as a control
+        // (the original request) sent in the same round, as with re-probes. The candidates of a round are sent
+        // together, each distinct request once.
+        private class Minimizer {
+            private final Map<String, List<RawRequest.Element>> groups;
+            private final ProbeScheduler scheduler;
+            private final Map<String, Candidate> results = new HashMap<>();
+            int candidates;
+            private int rounds;
+
+            private record Candidate(Future<ProbeResult> result, Future<ProbeResult> control) {
+            }
+
+            Minimizer(Map<String, List<RawRequest.Element>> groups, ProbeScheduler scheduler) {
+                this.groups = groups;
+                this.scheduler = scheduler;
+            }
+
+            RawRequest request(Collection<String> kept) {
+                List<RawRequest.Element> removed = new ArrayList<>();
+                groups.forEach((key, elements) -> {
+                    if (!kept.contains(key)) {
+                        removed.addAll(elements);
+                    }
+                });
+                return originalRequest.withRemovedElements(removed);
+            }
+
+            // Index of the first candidate that passes, or -1. Later candidates keep running, as the next
+            // round may need them.
+            int firstPassing(List<List<String>> keptGroups) throws InterruptedException {
+                if (control.isStopped()) {
+                    throw new InterruptedException();
+                }
+                List<RawRequest> requests = new ArrayList<>();
+                for (List<String> kept : keptGroups) {
+                    requests.add(request(new HashSet<>(kept)));
+                }
+                Future<ProbeResult> control = null;
+                List<Candidate> round = new ArrayList<>();
+                for (int i = 0; i < requests.size(); i++) {
+                    RawRequest request = requests.get(i);
+                    String key = canonicalRequestKey(request);
+                    Candidate candidate = results.get(key);
+                    if (candidate == null) {
+                        if (control == null) {
+                            String controlKey = "minimize#" + ++rounds;
+                            control = scheduler.submit(originalRequest.serviceKey(),
+                                () -> testProbe(originalRequest, "Minimized control", controlKey, false));
+                        }
+                        String label = "Minimized (" + keptGroups.get(i).size() + " kept)";
+                        candidate = new Candidate(scheduler.submit(originalRequest.serviceKey(), () -> testProbe(request, label)), control);
+                        results.put(key, candidate);
+                        candidates++;
+                    }
+                    round.add(candidate);
+                }
+                for (int i = 0; i < round.size(); i++) {
+                    ProbeResult result = awaitProbe(round.get(i).result());
+                    if (result.failed) {
+                        continue;
+                    }
+                    if (!result.hasImpact) {
+                        return i;
+                    }
+                    ProbeResult controlResult = awaitProbe(round.get(i).control());
+                    if (controlResult.hasImpact && !controlResult.failed && outcome(result).equals(outcome(controlResult))) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+
+            // Shrinks keys, which pass together with fixed, until removing any one of them fails. Splits them into
+            // n chunks and tries each chunk, then each complement; on no pass, n doubles.
+            List<String> ddmin(List<String> fixed, List<String> keys) throws InterruptedException {
+                List<String> current = keys;
+                int n = 2;
+                while (!current.isEmpty()) {
+                    int chunks = Math.min(n, current.size());
+                    List<List<String>> subsets = new ArrayList<>();
+                    // One chunk is current itself, and the complements of two chunks are the chunks
+                    if (chunks > 1) {
+                        for (int i = 0; i < chunks; i++) {
+                            subsets.add(current.subList(current.size() * i / chunks, current.size() * (i + 1) / chunks));
+                        }
+                    }
+                    if (chunks != 2) {
+                        for (int i = 0; i < chunks; i++) {
+                            List<String> complement = new ArrayList<>(current.subList(0, current.size() * i / chunks));
+                            complement.addAll(current.subList(current.size() * (i + 1) / chunks, current.size()));
+                            subsets.add(complement);
+                        }
+                    }
+                    List<List<String>> kept = new ArrayList<>();
+                    for (List<String> subset : subsets) {
+                        List<String> candidate = new ArrayList<>(fixed);
+                        candidate.addAll(subset);
+                        kept.add(candidate);
+                    }
+                    int passing = firstPassing(kept);
+                    if (passing >= 0) {
+                        current = new ArrayList<>(subsets.get(passing));
+                        n = chunks > 1 && passing < chunks ? 2 : Math.max(chunks - 1, 2);
+                    } else if (chunks < current.size()) {
+                        n = Math.min(2 * chunks, current.size());
+                    } else {
+                        break;
+                    }
+                }
+                return current;
+            }
+        }
+
+        private void updateProgress(int remaining, int total) {
+            int progress = total > 0 ? (int) ((double) (total - remaining) / total * 100) : 100;
+            String status = progress < 100 ? "Analyzing: " + progress + "%" : "Complete";
+            events.accept(new AnalysisEvent.Progress(progress, baselineStatus.isEmpty() ? status : status + " (" + baselineStatus + ")"));
+        }
+    }
+
+    // Cheapest evidence first: the status code, the decisive headers, then the body (whole, then line by line)
+    static boolean hasSignificantImpact(int baselineStatusCode, ResponseNormalizer responseNormalizer, byte[] modified) {
+        if (baselineStatusCode != statusCode(modified) || responseNormalizer.headDiffers(modified)) {
+            return true;
+        }
+
+        return !responseNormalizer.matchesBaseline(modified);
+    }
+
+    // Whether a probe response whose status line and headers have arrived needs its body to be compared
+    static boolean bodyNeeded(int baselineStatusCode, ResponseNormalizer responseNormalizer, byte[] head) {
+        return baselineStatusCode == statusCode(head) && !responseNormalizer.headDiffers(head);
+    }
+
+    // Cuts a body longer than maxBodyBytes (0 = no limit) after its last line break within the limit, or at the
+    // limit if there is none, and appends CUT_MARKER as a line of its own
+    static byte[] cutBody(byte[] response, int maxBodyBytes) {
+        int bodyOffset = bodyOffset(response);
+        if (maxBodyBytes <= 0 || response.length - bodyOffset <= maxBodyBytes) {
+            return response;
+        }
+        int end = bodyOffset + maxBodyBytes;
+        for (int i = end - 1; i >= bodyOffset; i--) {
+            if (response[i] == '\n') {
+                end = i + 1;
+                break;
+            }
+        }
+        ByteArrayOutputStream cut = new ByteArrayOutputStream(end + CUT_MARKER.length + 1);
+        cut.write(response, 0, end);
+        if (response[end - 1] != '\n') {
+            cut.write('\n');
+        }
+        cut.writeBytes(CUT_MARKER);
+        return cut.toByteArray();
+    }
+
+    static boolean isCutMarker(byte[] data, int start, int end) {
+        return Arrays.equals(data, start, end, CUT_MARKER, 0, CUT_MARKER.length);
+    }
+
+    static boolean endsWithCutMarker(byte[] data, int start, int end) {
+        int markerStart = end - CUT_MARKER.length;
+        return markerStart >= start && isCutMarker(data, markerStart, end) && (markerStart == start || data[markerStart - 1] == '\n');
+    }
+
+    // How clearly a response with impact differs from the baseline, from 0 to 1; below 1 it is borderline.
+    // Full for a status change, unless the new status is often transient, and for a changed decisive header;
+    // otherwise it grows with the number of changed lines and the share of changed bytes.
+    static double impactScore(int baselineStatusCode, ResponseNormalizer responseNormalizer, byte[] modified) {
+        int statusCode = statusCode(modified);
+        if (statusCode != baselineStatusCode) {
+            return TRANSIENT_STATUS_CODES.contains(statusCode) ? 0.5 : 1;
+        }
+        if (responseNormalizer.headDiffers(modified)) {
+            return 1;
+        }
+        Difference difference = responseNormalizer.difference(modified);
+        double changedShare = difference.bytes() > 0 ? (double) difference.changedBytes() / difference.bytes() : 0;
+        return Math.min(1, Math.max((double) difference.changedLines() / STRONG_IMPACT_LINES, changedShare / STRONG_IMPACT_BYTES));
+    }
+
+    private static ProbeResult awaitProbe(Future<ProbeResult> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            return new ProbeResult(null, false, true);
+        }
+    }
+
+    // Elements with the same type and name are kept or removed together in the minimized request
+    private static String minimizationKey(RawRequest.Element element) {
+        return element.type() + ":" + element.name();
+    }
+
+    // Names the element in metrics and logs
+    private static String label(RawRequest.Element element) {
+        return element.type() + " " + element.name();
+    }
+
+    // Offset just past the blank line that ends the headers, or the response length if there is none
+    static int bodyOffset(byte[] response) {
+        for (int i = 0; i < response.length - 1; i++) {
+            if (response[i] == '\n' && (response[i + 1] == '\n'
+                    || (response[i + 1] == '\r' && i + 2 < response.length && response[i + 2] == '\n'))) {
+                return response[i + 1] == '\n' ? i + 2 : i + 3;
+            }
+        }
+        return response.length;
+    }
+
+    // Status code from the status line of a raw response, or 0 if it cannot be parsed
+    static int statusCode(byte[] response) {
+        int code = 0;
+        int digits = 0;
+        int pos = 0;
+        while (pos < response.length && response[pos] != ' ' && response[pos] != '\n') {
+            pos++;
+        }
+        for (pos++; pos < response.length && digits < 3; pos++, digits++) {
+            byte b = response[pos];
+            if (b < '0' || b > '9') {
+                return 0;
+            }
+            code = code * 10 + (b - '0');
+        }
+        return digits == 3 ? code : 0;
+    }
+
+    // Requests share a stored model when they go to the same service, method and path, with numeric and
+    // hex/UUID path segments treated as ids, under the same normalization mode and body size limit
+    static String modelEndpoint(RawRequest request, boolean accurate, int maxBodyKilobytes) {
+        String[] segments = request.path().split("/", -1);
+        for (int i = 0; i < segments.length; i++) {
+            if (ID_SEGMENT.matcher(segments[i]).matches()) {
+                segments[i] = "{id}";
+            }
+        }
+        return request.serviceKey() + " " + request.method() + " " + String.join("/", segments) + (accurate ? " accurate" : " basic")
+            + (maxBodyKilobytes > 0 ? " cut " + maxBodyKilobytes + "KB" : "");
+    }
+
+    private static String modelKey(String endpoint) {
+        return HexFormat.of().formatHex(sha256().digest(endpoint.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    // Hash of the request that ignores parameter and header order
+    private static String canonicalRequestKey(RawRequest request) {
+        return HexFormat.of().formatHex(sha256().digest(request.canonicalForm()));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static long jitteredDelay(int delayMs) {
+        return (long) (delayMs * ThreadLocalRandom.current().nextDouble(0.75, 1.25));
+    }
+
+    static void identifyDynamicLines(List<ResponseLines> responseLines, boolean accurate,
+                                             Set<Integer> dynamicLines, Map<Integer, LineTemplate> dynamicLinePrefixesPostfixes) {
+        TemplateBuilder builder = new TemplateBuilder(accurate);
+        for (ResponseLines lines : responseLines) {
+            builder.add(lines);
+        }
+        dynamicLines.addAll(builder.dynamicLines());
+        dynamicLinePrefixesPostfixes.putAll(builder.templates());
+    }
+
+    static byte[] normalizeLine(byte[] data, int start, int end, LineTemplate template) {
+        if (template != null && template.matches(data, start, end)) {
+            return template.normalized();
+        }
+        return Arrays.copyOfRange(data, start, end);
+    }
+
+    // Aligns the line across all baselines token by token (LCS) and keeps every run of tokens shared by all
+    // samples as an anchor, so several volatile tokens on one line each get their own wildcard
+    static LineTemplate extractCommonAndVariable(List<ResponseLines> responseLines, int lineIndex) {
+        LineMerge merge = new LineMerge(responseLines.get(0), lineIndex);
+        for (int i = 1; i < responseLines.size(); i++) {
+            merge.merge(responseLines.subList(0, i + 1));
+        }
+        return merge.template();
+    }
+
+    // Splits a line into runs of word bytes (letters, digits, '_' and non-ASCII) and single other bytes
+    private static List<int[]> tokenize(byte[] data, int start, int end) {
+        List<int[]> tokens = new ArrayList<>();
+        int pos = start;
+        while (pos < end) {
+            int tokenEnd = pos + 1;
+            if (isWordByte(data[pos])) {
+                while (tokenEnd < end && isWordByte(data[tokenEnd])) {
+                    tokenEnd++;
+                }
+            }
+            tokens.add(new int[]{pos, tokenEnd});
+            pos = tokenEnd;
+        }
+        return tokens;
+    }
+
+    private static boolean isWordByte(byte b) {
+        return b < 0 || b == '_' || (b >= '0' && b <= '9') || (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+    }
+
+    private static boolean tokenEquals(byte[] a, int[] tokenA, byte[] b, int[] tokenB) {
+        return Arrays.equals(a, tokenA[0], tokenA[1], b, tokenB[0], tokenB[1]);
+    }
+
+    // Fallback for lines too long to align: a single wildcard between the common prefix and postfix
+    private static LineTemplate extractPrefixPostfix(List<ResponseLines> responseLines, int lineIndex) {
+        ResponseLines first = responseLines.get(0);
+        int firstLength = first.length(lineIndex);
+        int prefixLen = firstLength;
+        int postfixLen = firstLength;
+
+        // Find common prefix
+        for (ResponseLines lines : responseLines) {
+            int lineLength = lines.length(lineIndex);
+            int commonPrefix = 0;
+            while (commonPrefix < Math.min(firstLength, lineLength) &&
+                   first.get(lineIndex, commonPrefix) == lines.get(lineIndex, commonPrefix)) {
+                commonPrefix++;
+            }
+            prefixLen = Math.min(prefixLen, commonPrefix);
+        }
+
+        // Find common postfix
+        for (ResponseLines lines : responseLines) {
+            int lineLength = lines.length(lineIndex);
+            int commonPostfix = 0;
+            while (commonPostfix < Math.min(firstLength - prefixLen, lineLength - prefixLen) &&
+                   first.get(lineIndex, firstLength - 1 - commonPostfix) == lines.get(lineIndex, lineLength - 1 - commonPostfix)) {
+                commonPostfix++;
+            }
+            postfixLen = Math.min(postfixLen, commonPostfix);
+        }
+
+        int lineStart = first.starts[lineIndex];
+        int lineEnd = first.ends[lineIndex];
+        byte[] prefix = Arrays.copyOfRange(first.data, lineStart, lineStart + prefixLen);
+        byte[] postfix = Arrays.copyOfRange(first.data, lineEnd - postfixLen, lineEnd);
+        return new LineTemplate(new byte[][]{prefix, postfix});
+    }
+}
@@ -0,0 +1,35 @@
+import java.util.List;
+
+// What an analysis reports while it runs. Progress may arrive from probe threads;
+// findings arrive in element enumeration order (re-probed ones last), followed by a single Minimized event,
+// or by a Stopped event if the analysis was paused or cancelled.
+public sealed interface AnalysisEvent {
+    // e.g. which baseline request is being sent
+    record Status(String message) implements AnalysisEvent {
+    }
+
+    record Progress(int percent, String message) implements AnalysisEvent {
+    }
+
+    record Log(String message) implements AnalysisEvent {
+    }
+
+    // An element whose removal or value mutation changed the response, whose removal made it much slower (slow
+    // only, without impact, is reported but the element is not kept), or whose probe failed. mutations holds the
+    // probes that had this same effect; request is the first of them. The response is null and responseNanos
+    // is -1 when the probe failed or its outcome came from the probe cache. confidence is 1 unless the change
+    // was borderline, in which case it is the share of re-probes that reproduced it; a borderline finding
+    // arrives after all the others.
+    record Finding(RawRequest.Element element, List<RawRequest.Mutation> mutations, RawRequest request, byte[] response, long responseNanos,
+                   boolean hasImpact, boolean slow, boolean cached, boolean failed, double confidence) implements AnalysisEvent {
+    }
+
+    // The original request stripped of every element that did not matter, verified to still match the
+    // baselines; kept and total count elements of every kind, whatever the filter
+    record Minimized(RawRequest request, int kept, int total) implements AnalysisEvent {
+    }
+
+    // The analysis was stopped through its AnalysisControl; completedProbes are kept for a resume when paused
+    record Stopped(boolean paused, int completedProbes) implements AnalysisEvent {
+    }
+}
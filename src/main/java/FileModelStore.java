@@ -0,0 +1,53 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+// One file per model in a directory, for the headless mode
+public class FileModelStore implements ModelStore {
+    private final Path directory;
+
+    public FileModelStore(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public byte[] load(String key) throws IOException {
+        try {
+            return Files.readAllBytes(directory.resolve(key + ".model"));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    // Written to a temporary file first so that a concurrent load never sees half a model
+    @Override
+    public void save(String key, byte[] model) throws IOException {
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, key, ".tmp");
+        try {
+            Files.write(temp, model);
+            Files.move(temp, directory.resolve(key + ".model"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public int clear() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+        int removed = 0;
+        try (DirectoryStream<Path> models = Files.newDirectoryStream(directory, "*.model")) {
+            for (Path model : models) {
+                if (Files.deleteIfExists(model)) {
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+}
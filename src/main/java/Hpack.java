@@ -0,0 +1,300 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+// HPACK header compression (RFC 7541) for Http2Connection. Requests are encoded as literals without indexing
+// or Huffman coding, which keeps the encoder stateless; responses are decoded in full, including the dynamic
+// table and Huffman-coded strings, since servers use both.
+final class Hpack {
+    record Header(String name, String value) {
+    }
+
+    private static final Header[] STATIC_TABLE = {
+        new Header(":authority", ""), new Header(":method", "GET"), new Header(":method", "POST"),
+        new Header(":path", "/"), new Header(":path", "/index.html"), new Header(":scheme", "http"),
+        new Header(":scheme", "https"), new Header(":status", "200"), new Header(":status", "204"),
+        new Header(":status", "206"), new Header(":status", "304"), new Header(":status", "400"),
+        new Header(":status", "404"), new Header(":status", "500"), new Header("accept-charset", ""),
+        new Header("accept-encoding", "gzip, deflate"), new Header("accept-language", ""),
+        new Header("accept-ranges", ""), new Header("accept", ""), new Header("access-control-allow-origin", ""),
+        new Header("age", ""), new Header("allow", ""), new Header("authorization", ""),
+        new Header("cache-control", ""), new Header("content-disposition", ""), new Header("content-encoding", ""),
+        new Header("content-language", ""), new Header("content-length", ""), new Header("content-location", ""),
+        new Header("content-range", ""), new Header("content-type", ""), new Header("cookie", ""),
+        new Header("date", ""), new Header("etag", ""), new Header("expect", ""), new Header("expires", ""),
+        new Header("from", ""), new Header("host", ""), new Header("if-match", ""),
+        new Header("if-modified-since", ""), new Header("if-none-match", ""), new Header("if-range", ""),
+        new Header("if-unmodified-since", ""), new Header("last-modified", ""), new Header("link", ""),
+        new Header("location", ""), new Header("max-forwards", ""), new Header("proxy-authenticate", ""),
+        new Header("proxy-authorization", ""), new Header("range", ""), new Header("referer", ""),
+        new Header("refresh", ""), new Header("retry-after", ""), new Header("server", ""),
+        new Header("set-cookie", ""), new Header("strict-transport-security", ""),
+        new Header("transfer-encoding", ""), new Header("user-agent", ""), new Header("vary", ""),
+        new Header("via", ""), new Header("www-authenticate", "")
+    };
+
+    // Huffman code of each octet (RFC 7541 Appendix B), right-aligned, and its length in bits; EOS is 30 ones
+    private static final int[] HUFFMAN_CODES = {
+        0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+        0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+        0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+        0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+        0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+        0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+        0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+        0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+        0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+        0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+        0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+        0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+        0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+        0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+        0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+        0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+        0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+        0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+        0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+        0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+        0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+        0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+        0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+        0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+        0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+        0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+        0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+        0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+        0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+        0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+        0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+        0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee
+    };
+
+    private static final byte[] HUFFMAN_LENGTHS = {
+        13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+        28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+        6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+        5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+        13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+        7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+        15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+        6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+        20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+        24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+        22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+        21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+        26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+        19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+        20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+        26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26
+    };
+
+    // Decoding tree: the children of node n are at HUFFMAN_TREE[2n] (bit 0) and [2n + 1] (bit 1). A positive
+    // entry is another node, a negative one the octet -1 - entry, and 0 an invalid code (including EOS).
+    private static final int[] HUFFMAN_TREE = huffmanTree();
+
+    private Hpack() {
+    }
+
+    // Literal header field without indexing, new name (6.2.2); names must already be lower case
+    static void encode(ByteArrayOutputStream out, String name, String value) {
+        out.write(0x00);
+        writeString(out, name);
+        writeString(out, value);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        writeInteger(out, 0x00, 7, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    private static void writeInteger(ByteArrayOutputStream out, int flags, int prefixBits, int value) {
+        int prefixMax = (1 << prefixBits) - 1;
+        if (value < prefixMax) {
+            out.write(flags | value);
+            return;
+        }
+        out.write(flags | prefixMax);
+        value -= prefixMax;
+        while (value >= 0x80) {
+            out.write(value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int[] huffmanTree() {
+        int[] tree = new int[2 * 256];
+        int nodes = 1;
+        for (int octet = 0; octet < 256; octet++) {
+            int node = 0;
+            for (int bit = HUFFMAN_LENGTHS[octet] - 1; bit > 0; bit--) {
+                int slot = 2 * node + (HUFFMAN_CODES[octet] >>> bit & 1);
+                if (tree[slot] == 0) {
+                    tree[slot] = nodes++;
+                }
+                node = tree[slot];
+            }
+            tree[2 * node + (HUFFMAN_CODES[octet] & 1)] = -1 - octet;
+        }
+        return tree;
+    }
+
+    // One decoder per connection: the dynamic table carries over from one header block to the next
+    static final class Decoder {
+        // Our SETTINGS_HEADER_TABLE_SIZE is left at its default
+        private static final int MAX_TABLE_SIZE = 4096;
+
+        // Newest entry first, as numbered by the index space
+        private final ArrayDeque<Header> dynamicTable = new ArrayDeque<>();
+        private int tableSize;
+        private int tableCapacity = MAX_TABLE_SIZE;
+
+        private byte[] block;
+        private int position;
+
+        List<Header> decode(byte[] headerBlock) throws IOException {
+            block = headerBlock;
+            position = 0;
+            List<Header> headers = new ArrayList<>();
+            try {
+                while (position < block.length) {
+                    int b = block[position] & 0xff;
+                    if ((b & 0x80) != 0) {
+                        // Indexed header field (6.1)
+                        headers.add(entry(readInteger(7)));
+                    } else if ((b & 0x40) != 0) {
+                        // Literal with incremental indexing (6.2.1)
+                        Header header = readLiteral(6);
+                        add(header);
+                        headers.add(header);
+                    } else if ((b & 0x20) != 0) {
+                        // Dynamic table size update (6.3)
+                        int capacity = readInteger(5);
+                        if (capacity > MAX_TABLE_SIZE) {
+                            throw new IOException("HPACK table size update above the advertised maximum: " + capacity);
+                        }
+                        tableCapacity = capacity;
+                        evict(0);
+                    } else {
+                        // Literal without indexing or never indexed (6.2.2, 6.2.3)
+                        headers.add(readLiteral(4));
+                    }
+                }
+            } catch (ArrayIndexOutOfBoundsException e) {
+                throw new IOException("Truncated HPACK header block");
+            } finally {
+                block = null;
+            }
+            return headers;
+        }
+
+        private Header readLiteral(int prefixBits) throws IOException {
+            int index = readInteger(prefixBits);
+            String name = index == 0 ? readString() : entry(index).name();
+            return new Header(name, readString());
+        }
+
+        private Header entry(int index) throws IOException {
+            if (index >= 1 && index <= STATIC_TABLE.length) {
+                return STATIC_TABLE[index - 1];
+            }
+            int dynamicIndex = index - STATIC_TABLE.length - 1;
+            if (index == 0 || dynamicIndex >= dynamicTable.size()) {
+                throw new IOException("Invalid HPACK index: " + index);
+            }
+            Iterator<Header> entries = dynamicTable.iterator();
+            for (int i = 0; i < dynamicIndex; i++) {
+                entries.next();
+            }
+            return entries.next();
+        }
+
+        private void add(Header header) {
+            int size = entrySize(header);
+            if (size > tableCapacity) {
+                dynamicTable.clear();
+                tableSize = 0;
+                return;
+            }
+            evict(size);
+            dynamicTable.addFirst(header);
+            tableSize += size;
+        }
+
+        // Drops the oldest entries until there is room for one of the given size
+        private void evict(int room) {
+            while (tableSize + room > tableCapacity) {
+                tableSize -= entrySize(dynamicTable.removeLast());
+            }
+        }
+
+        private static int entrySize(Header header) {
+            return header.name().length() + header.value().length() + 32;
+        }
+
+        private int readInteger(int prefixBits) throws IOException {
+            int prefixMax = (1 << prefixBits) - 1;
+            int value = block[position++] & prefixMax;
+            if (value < prefixMax) {
+                return value;
+            }
+            for (int shift = 0; ; shift += 7) {
+                if (shift > 21) {
+                    throw new IOException("HPACK integer too large");
+                }
+                int b = block[position++] & 0xff;
+                value += (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        private String readString() throws IOException {
+            boolean huffman = (block[position] & 0x80) != 0;
+            int length = readInteger(7);
+            int start = position;
+            position += length;
+            if (position > block.length) {
+                throw new IOException("Truncated HPACK header block");
+            }
+            return huffman ? huffmanDecode(block, start, position) : new String(block, start, length, StandardCharsets.ISO_8859_1);
+        }
+
+        private static String huffmanDecode(byte[] data, int start, int end) throws IOException {
+            StringBuilder decoded = new StringBuilder();
+            int node = 0;
+            int depth = 0;
+            boolean onlyOnes = true;
+            for (int i = start; i < end; i++) {
+                for (int shift = 7; shift >= 0; shift--) {
+                    int bit = data[i] >>> shift & 1;
+                    int next = HUFFMAN_TREE[2 * node + bit];
+                    if (next == 0) {
+                        throw new IOException("Invalid Huffman code in HPACK string");
+                    }
+                    if (next < 0) {
+                        decoded.append((char) (-1 - next));
+                        node = 0;
+                        depth = 0;
+                        onlyOnes = true;
+                    } else {
+                        node = next;
+                        depth++;
+                        onlyOnes &= bit == 1;
+                    }
+                }
+            }
+            // Padding is a prefix of EOS shorter than an octet (5.2)
+            if (depth > 7 || !onlyOnes) {
+                throw new IOException("Invalid Huffman padding in HPACK string");
+            }
+            return decoded.toString();
+        }
+    }
+}
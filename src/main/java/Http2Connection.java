@@ -0,0 +1,689 @@
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// One HTTP/2 connection (RFC 9113) to a service, shared by concurrent sends: every request is a stream, and at
+// most maxStreams of them (never more than the server allows) are open at once. A reader thread demultiplexes
+// frames into the waiting streams, and a writer thread writes the frames that senders and the reader queue, so
+// that neither ever blocks on the socket: a reader stuck behind a large request body could not see the
+// WINDOW_UPDATE that lets the body continue. Responses are rebuilt in HTTP/1 form ("HTTP/2 200", header lines, a blank
+// line and the body) so that the engine compares them like any other. A stream whose response the
+// ResponseLimit stops early is completed with what arrived so far and reset, which leaves the connection usable.
+final class Http2Connection {
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PUSH_PROMISE = 0x5;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_ACK = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    private static final int FLAG_PADDED = 0x8;
+    private static final int FLAG_PRIORITY = 0x20;
+
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+    private static final int ERROR_CANCEL = 0x8;
+
+    private static final int DEFAULT_WINDOW = 65_535;
+    // Ours is left at the default; the server's may be larger
+    private static final int MAX_FRAME_SIZE = 16_384;
+    // Advertised for the connection and every stream, so the server never waits on us for a probe response
+    private static final int RECEIVE_WINDOW = 1 << 24;
+
+    // HTTP/1.1 connection headers, which HTTP/2 forbids (8.2.2); Host becomes :authority
+    private static final Set<String> CONNECTION_HEADERS = Set.of("connection", "keep-alive", "proxy-connection",
+        "transfer-encoding", "upgrade", "host");
+
+    // Queued last by closeWhenIdle: the writer closes the connection when it gets there
+    private static final byte[] CLOSE = new byte[0];
+
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    // Encoded frames for the writer thread; a header block is queued as one entry so that its frames stay together
+    private final BlockingQueue<byte[]> outgoing = new LinkedBlockingQueue<>();
+    private Thread writer;
+    private final String scheme;
+    private final int maxStreams;
+    private final int timeoutMillis;
+    private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+
+    // Guarded by this
+    private int openStreams;
+    private int nextStreamId = 1;
+    private long peerMaxStreams = Long.MAX_VALUE;
+    private int peerInitialWindow = DEFAULT_WINDOW;
+    private int peerMaxFrameSize = MAX_FRAME_SIZE;
+    private long sendWindow = DEFAULT_WINDOW;
+    private boolean goingAway;
+    // Set by close(); the socket is closed once the open streams have finished
+    private boolean closing;
+    private boolean closed;
+    private IOException failure;
+
+    // Only used by the reader thread
+    private final Hpack.Decoder decoder = new Hpack.Decoder();
+    private long unacknowledgedBytes;
+    private ByteArrayOutputStream headerBlock; // non-null while CONTINUATION frames are expected
+    private int headerBlockStream;
+    private boolean headerBlockEndsStream;
+
+    private static final class Stream {
+        final int id;
+        final HttpTransport.ResponseLimit limit;
+        final CompletableFuture<byte[]> response = new CompletableFuture<>();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] head; // status line and headers, once the final response headers arrived
+        long sendWindow; // guarded by the connection
+        long unacknowledgedBytes;
+
+        Stream(int id, HttpTransport.ResponseLimit limit, long sendWindow) {
+            this.id = id;
+            this.limit = limit;
+            this.sendWindow = sendWindow;
+        }
+    }
+
+    private Http2Connection(Socket socket, boolean secure, int timeoutMillis, int maxStreams) throws IOException {
+        this.socket = socket;
+        this.in = new BufferedInputStream(socket.getInputStream());
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+        this.scheme = secure ? "https" : "http";
+        this.timeoutMillis = timeoutMillis;
+        this.maxStreams = Math.max(1, maxStreams);
+    }
+
+    // Connects and exchanges settings. Returns null when the server does not speak HTTP/2: TLS negotiated
+    // another protocol through ALPN, or a cleartext server did not answer the prior-knowledge preface.
+    static Http2Connection open(String host, int port, boolean secure, int timeoutMillis, int maxStreams) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            if (secure) {
+                SSLSocket sslSocket = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                    .createSocket(socket, host, port, true);
+                SSLParameters parameters = sslSocket.getSSLParameters();
+                parameters.setApplicationProtocols(new String[] {"h2", "http/1.1"});
+                sslSocket.setSSLParameters(parameters);
+                socket = sslSocket;
+                sslSocket.startHandshake();
+                if (!"h2".equals(sslSocket.getApplicationProtocol())) {
+                    socket.close();
+                    return null;
+                }
+            }
+            Http2Connection connection = new Http2Connection(socket, secure, timeoutMillis, maxStreams);
+            if (!connection.exchangeSettings()) {
+                socket.close();
+                return null;
+            }
+            // Idle between bursts; send() enforces the request timeout
+            socket.setSoTimeout(0);
+            synchronized (connection) {
+                connection.writer = Thread.ofVirtual().name("packetpurifier-h2-writer").start(connection::writeFrames);
+            }
+            Thread.ofVirtual().name("packetpurifier-h2-reader").start(connection::readFrames);
+            return connection;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    int maxStreams() {
+        return maxStreams;
+    }
+
+    // False once the connection failed, was closed or the server sent GOAWAY; in-flight streams may still complete
+    synchronized boolean isUsable() {
+        return failure == null && !goingAway && !closing && nextStreamId > 0;
+    }
+
+    // Takes no new streams and, once the open ones have finished, says GOAWAY and closes the socket, which
+    // ends the reader and writer threads
+    void close() {
+        synchronized (this) {
+            closing = true;
+            notifyAll();
+        }
+        closeWhenIdle();
+    }
+
+    byte[] send(RawRequest request, HttpTransport.ResponseLimit limit) throws IOException, InterruptedException {
+        byte[] headers = encodeHeaders(request);
+        byte[] body = request.body();
+        synchronized (this) {
+            while (failure == null && !goingAway && !closing && openStreams >= Math.min(maxStreams, peerMaxStreams)) {
+                wait();
+            }
+            checkUsable();
+            openStreams++;
+        }
+        Stream stream = null;
+        try {
+            // Stream ids must increase in the order their HEADERS frames are written
+            synchronized (this) {
+                checkUsable();
+                stream = new Stream(nextStreamId, limit, peerInitialWindow);
+                nextStreamId += 2;
+                streams.put(stream.id, stream);
+                outgoing.add(headerFrames(stream.id, headers, body.length == 0, peerMaxFrameSize));
+            }
+            if (body.length > 0) {
+                writeBody(stream, body);
+            }
+            return timeoutMillis > 0 ? stream.response.get(timeoutMillis, TimeUnit.MILLISECONDS) : stream.response.get();
+        } catch (TimeoutException e) {
+            cancel(stream);
+            throw new IOException("No response within " + timeoutMillis + " ms");
+        } catch (InterruptedException e) {
+            cancel(stream);
+            throw e;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        } finally {
+            if (stream != null) {
+                streams.remove(stream.id);
+            }
+            boolean shuttingDown;
+            synchronized (this) {
+                openStreams--;
+                notifyAll();
+                shuttingDown = closing || goingAway;
+            }
+            if (shuttingDown) {
+                closeWhenIdle();
+            }
+        }
+    }
+
+    // The writer sends GOAWAY and closes the socket after the frames queued so far
+    private void closeWhenIdle() {
+        synchronized (this) {
+            if (openStreams > 0 || closed) {
+                return;
+            }
+            closed = true;
+        }
+        // Last peer-initiated stream 0, NO_ERROR
+        outgoing.add(frame(GOAWAY, 0, 0, new byte[8], 0, 8));
+        outgoing.add(CLOSE);
+    }
+
+    private void checkUsable() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (goingAway || closing || nextStreamId < 0) {
+            throw new IOException("HTTP/2 connection is shutting down");
+        }
+    }
+
+    private byte[] encodeHeaders(RawRequest request) {
+        String target = request.target();
+        // Absolute-form targets (as sent to proxies) carry the path after the authority
+        if (target.startsWith("http://") || target.startsWith("https://")) {
+            int pathStart = target.indexOf('/', target.indexOf("//") + 2);
+            target = pathStart < 0 ? "/" : target.substring(pathStart);
+        }
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        Hpack.encode(block, ":method", request.method());
+        Hpack.encode(block, ":scheme", scheme);
+        // Removing Host removes the authority as well
+        String authority = request.headerValue("Host");
+        if (authority != null) {
+            Hpack.encode(block, ":authority", authority);
+        }
+        Hpack.encode(block, ":path", target.isEmpty() ? "/" : target);
+        for (RawRequest.Header header : request.headers()) {
+            String name = header.name().strip().toLowerCase(Locale.ROOT);
+            if (name.isEmpty() || CONNECTION_HEADERS.contains(name)
+                || name.equals("te") && !header.value().equalsIgnoreCase("trailers")) {
+                continue;
+            }
+            Hpack.encode(block, name, header.value());
+        }
+        return block.toByteArray();
+    }
+
+    // A HEADERS frame followed by as many CONTINUATION frames as the block needs
+    static byte[] headerFrames(int streamId, byte[] block, boolean endStream, int maxFrameSize) {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        int offset = 0;
+        do {
+            int length = Math.min(maxFrameSize, block.length - offset);
+            boolean last = offset + length == block.length;
+            int flags = (last ? FLAG_END_HEADERS : 0) | (offset == 0 && endStream ? FLAG_END_STREAM : 0);
+            frames.writeBytes(frame(offset == 0 ? HEADERS : CONTINUATION, flags, streamId, block, offset, length));
+            offset += length;
+        } while (offset < block.length);
+        return frames.toByteArray();
+    }
+
+    private void writeBody(Stream stream, byte[] body) throws IOException, InterruptedException {
+        int offset = 0;
+        while (offset < body.length) {
+            int length;
+            synchronized (this) {
+                while (failure == null && !stream.response.isDone() && (sendWindow <= 0 || stream.sendWindow <= 0)) {
+                    wait();
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                if (stream.response.isDone()) {
+                    // Reset, or answered before the body was complete
+                    return;
+                }
+                length = (int) Math.min(Math.min(sendWindow, stream.sendWindow), Math.min(peerMaxFrameSize, body.length - offset));
+                sendWindow -= length;
+                stream.sendWindow -= length;
+            }
+            outgoing.add(frame(DATA, offset + length == body.length ? FLAG_END_STREAM : 0, stream.id, body, offset, length));
+            offset += length;
+        }
+    }
+
+    // Tells the server to stop working on an abandoned stream
+    private void cancel(Stream stream) {
+        if (stream == null) {
+            return;
+        }
+        outgoing.add(frame(RST_STREAM, 0, stream.id, int32(ERROR_CANCEL), 0, 4));
+    }
+
+    private boolean exchangeSettings() throws IOException {
+        byte[] settings = new byte[12];
+        putSetting(settings, 0, SETTINGS_ENABLE_PUSH, 0);
+        putSetting(settings, 6, SETTINGS_INITIAL_WINDOW_SIZE, RECEIVE_WINDOW);
+        // Written before the writer thread starts
+        out.write(PREFACE);
+        out.write(frame(SETTINGS, 0, 0, settings, 0, settings.length));
+        out.write(frame(WINDOW_UPDATE, 0, 0, int32(RECEIVE_WINDOW - DEFAULT_WINDOW), 0, 4));
+        out.flush();
+        // The server's connection preface is a SETTINGS frame; an HTTP/1.1 server answers with a status line
+        // or closes the connection instead
+        byte[] header;
+        try {
+            header = in.readNBytes(9);
+        } catch (IOException e) {
+            return false;
+        }
+        int length = frameLength(header);
+        if (header.length < 9 || header[3] != SETTINGS || (header[4] & FLAG_ACK) != 0 || length % 6 != 0 || length > MAX_FRAME_SIZE) {
+            return false;
+        }
+        applySettings(readPayload(length));
+        return true;
+    }
+
+    private void readFrames() {
+        try {
+            while (true) {
+                byte[] header = in.readNBytes(9);
+                if (header.length < 9) {
+                    throw new EOFException("HTTP/2 connection closed by the server");
+                }
+                int length = frameLength(header);
+                int type = header[3] & 0xff;
+                int flags = header[4] & 0xff;
+                int streamId = int31(header, 5);
+                if (length > MAX_FRAME_SIZE) {
+                    throw new IOException("HTTP/2 frame larger than the advertised maximum: " + length);
+                }
+                byte[] payload = readPayload(length);
+                if (headerBlock != null && (type != CONTINUATION || streamId != headerBlockStream)) {
+                    throw new IOException("HTTP/2 header block interrupted by another frame");
+                }
+                switch (type) {
+                    case DATA -> onData(streamId, flags, payload);
+                    case HEADERS -> onHeaders(streamId, flags, payload);
+                    case CONTINUATION -> {
+                        if (headerBlock == null) {
+                            throw new IOException("Unexpected HTTP/2 CONTINUATION frame");
+                        }
+                        headerBlock.writeBytes(payload);
+                        if ((flags & FLAG_END_HEADERS) != 0) {
+                            byte[] block = headerBlock.toByteArray();
+                            headerBlock = null;
+                            onHeaderBlock(headerBlockStream, headerBlockEndsStream, block);
+                        }
+                    }
+                    case RST_STREAM -> fail(streams.get(streamId),
+                        new IOException("Stream reset by the server (error code " + int32(payload, 0) + ")"));
+                    case SETTINGS -> {
+                        if ((flags & FLAG_ACK) == 0) {
+                            applySettings(payload);
+                        }
+                    }
+                    case PING -> {
+                        if ((flags & FLAG_ACK) == 0) {
+                            outgoing.add(frame(PING, FLAG_ACK, 0, payload, 0, payload.length));
+                        }
+                    }
+                    case GOAWAY -> onGoAway(payload);
+                    case WINDOW_UPDATE -> onWindowUpdate(streamId, payload);
+                    case PUSH_PROMISE -> throw new IOException("HTTP/2 server push although it was disabled");
+                    default -> {
+                        // PRIORITY and unknown frame types carry nothing a client needs
+                    }
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void onData(int streamId, int flags, byte[] payload) throws IOException {
+        int start = 0;
+        int end = payload.length;
+        if ((flags & FLAG_PADDED) != 0) {
+            start = 1;
+            end -= payload.length > 0 ? payload[0] & 0xff : 0;
+            if (payload.length == 0 || end < start) {
+                throw new IOException("Malformed HTTP/2 DATA frame");
+            }
+        }
+        // Flow control counts the whole payload, padding included, even for streams that were abandoned
+        unacknowledgedBytes += payload.length;
+        if (unacknowledgedBytes >= RECEIVE_WINDOW / 2) {
+            windowUpdate(0, unacknowledgedBytes);
+            unacknowledgedBytes = 0;
+        }
+        Stream stream = streams.get(streamId);
+        if (stream == null) {
+            return;
+        }
+        int maxBodyBytes = stream.limit.maxBodyBytes();
+        int length = maxBodyBytes > 0 ? Math.min(end - start, maxBodyBytes - stream.body.size()) : end - start;
+        stream.body.write(payload, start, length);
+        if ((flags & FLAG_END_STREAM) != 0) {
+            complete(stream);
+            return;
+        }
+        if (maxBodyBytes > 0 && stream.body.size() >= maxBodyBytes) {
+            complete(stream);
+            cancel(stream);
+            return;
+        }
+        stream.unacknowledgedBytes += payload.length;
+        if (stream.unacknowledgedBytes >= RECEIVE_WINDOW / 2) {
+            windowUpdate(streamId, stream.unacknowledgedBytes);
+            stream.unacknowledgedBytes = 0;
+        }
+    }
+
+    private void onHeaders(int streamId, int flags, byte[] payload) throws IOException {
+        int start = 0;
+        int end = payload.length;
+        if ((flags & FLAG_PADDED) != 0) {
+            start = 1;
+            end -= payload.length > 0 ? payload[0] & 0xff : 0;
+        }
+        if ((flags & FLAG_PRIORITY) != 0) {
+            start += 5;
+        }
+        if (end < start) {
+            throw new IOException("Malformed HTTP/2 HEADERS frame");
+        }
+        byte[] fragment = Arrays.copyOfRange(payload, start, end);
+        boolean endStream = (flags & FLAG_END_STREAM) != 0;
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            onHeaderBlock(streamId, endStream, fragment);
+        } else {
+            headerBlock = new ByteArrayOutputStream();
+            headerBlock.writeBytes(fragment);
+            headerBlockStream = streamId;
+            headerBlockEndsStream = endStream;
+        }
+    }
+
+    private void onHeaderBlock(int streamId, boolean endStream, byte[] block) throws IOException {
+        // Decoded even for abandoned streams, to keep the dynamic table in step with the server
+        List<Hpack.Header> headers = decoder.decode(block);
+        Stream stream = streams.get(streamId);
+        if (stream == null) {
+            return;
+        }
+        // A second header block holds trailers, which are dropped
+        if (stream.head == null) {
+            String status = null;
+            StringBuilder head = new StringBuilder();
+            for (Hpack.Header header : headers) {
+                if (header.name().equals(":status")) {
+                    status = header.value();
+                } else if (!header.name().startsWith(":")) {
+                    head.append(header.name()).append(": ").append(header.value()).append("\r\n");
+                }
+            }
+            if (status == null) {
+                cancel(stream);
+                fail(stream, new IOException("HTTP/2 response without a :status"));
+                return;
+            }
+            if (status.startsWith("1") && !endStream) {
+                // Interim response such as 100 Continue
+                return;
+            }
+            stream.head = ("HTTP/2 " + status + "\r\n" + head + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            if (!endStream && !stream.limit.bodyNeeded().test(stream.head)) {
+                complete(stream);
+                cancel(stream);
+                return;
+            }
+        }
+        if (endStream) {
+            complete(stream);
+        }
+    }
+
+    private void onGoAway(byte[] payload) {
+        int lastStreamId = int31(payload, 0);
+        synchronized (this) {
+            goingAway = true;
+            notifyAll();
+        }
+        // Streams above the last one were not processed and can be sent again on a new connection
+        IOException refused = new IOException("HTTP/2 connection shut down by the server (error code "
+            + (payload.length >= 8 ? int32(payload, 4) : 0) + ")");
+        for (Stream stream : streams.values()) {
+            if (stream.id > lastStreamId) {
+                fail(stream, refused);
+            }
+        }
+        // The server may keep the socket open; it is closed once the processed streams have finished
+        closeWhenIdle();
+    }
+
+    private void onWindowUpdate(int streamId, byte[] payload) {
+        int increment = int31(payload, 0);
+        synchronized (this) {
+            if (streamId == 0) {
+                sendWindow += increment;
+            } else {
+                Stream stream = streams.get(streamId);
+                if (stream != null) {
+                    stream.sendWindow += increment;
+                }
+            }
+            notifyAll();
+        }
+    }
+
+    private void applySettings(byte[] payload) throws IOException {
+        synchronized (this) {
+            for (int i = 0; i + 6 <= payload.length; i += 6) {
+                int id = (payload[i] & 0xff) << 8 | payload[i + 1] & 0xff;
+                long value = int32(payload, i + 2) & 0xffffffffL;
+                switch (id) {
+                    case SETTINGS_MAX_CONCURRENT_STREAMS -> peerMaxStreams = value;
+                    case SETTINGS_INITIAL_WINDOW_SIZE -> {
+                        // Applies retroactively to the windows of open streams (6.9.2)
+                        long delta = value - peerInitialWindow;
+                        peerInitialWindow = (int) value;
+                        for (Stream stream : streams.values()) {
+                            stream.sendWindow += delta;
+                        }
+                    }
+                    case SETTINGS_MAX_FRAME_SIZE -> peerMaxFrameSize = (int) value;
+                    default -> {
+                        // The header table size does not matter to an encoder that never indexes
+                    }
+                }
+            }
+            notifyAll();
+        }
+        outgoing.add(frame(SETTINGS, FLAG_ACK, 0, new byte[0], 0, 0));
+    }
+
+    private void windowUpdate(int streamId, long increment) {
+        outgoing.add(frame(WINDOW_UPDATE, 0, streamId, int32((int) increment), 0, 4));
+    }
+
+    // Writes queued frames in order, flushing whenever the queue runs empty
+    private void writeFrames() {
+        try {
+            while (true) {
+                byte[] frames = outgoing.take();
+                do {
+                    if (frames == CLOSE) {
+                        out.flush();
+                        fail(new IOException("HTTP/2 connection closed"));
+                        return;
+                    }
+                    out.write(frames);
+                } while ((frames = outgoing.poll()) != null);
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            // The connection failed
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void complete(Stream stream) {
+        if (stream.head == null) {
+            fail(stream, new IOException("HTTP/2 stream ended without response headers"));
+            return;
+        }
+        byte[] response = Arrays.copyOf(stream.head, stream.head.length + stream.body.size());
+        System.arraycopy(stream.body.toByteArray(), 0, response, stream.head.length, stream.body.size());
+        streams.remove(stream.id);
+        stream.response.complete(response);
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    private void fail(Stream stream, IOException e) {
+        if (stream == null) {
+            return;
+        }
+        streams.remove(stream.id);
+        stream.response.completeExceptionally(e);
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    // Fails every open stream and closes the connection
+    private void fail(IOException e) {
+        synchronized (this) {
+            if (failure == null) {
+                failure = e;
+            }
+            notifyAll();
+            if (writer != null) {
+                writer.interrupt();
+            }
+        }
+        for (Stream stream : streams.values()) {
+            stream.response.completeExceptionally(e);
+        }
+        try {
+            socket.close();
+        } catch (IOException closeFailure) {
+            e.addSuppressed(closeFailure);
+        }
+    }
+
+    private byte[] readPayload(int length) throws IOException {
+        byte[] payload = in.readNBytes(length);
+        if (payload.length < length) {
+            throw new EOFException("HTTP/2 connection closed inside a frame");
+        }
+        return payload;
+    }
+
+    static byte[] frame(int type, int flags, int streamId, byte[] payload, int offset, int length) {
+        byte[] frame = new byte[9 + length];
+        frame[0] = (byte) (length >>> 16);
+        frame[1] = (byte) (length >>> 8);
+        frame[2] = (byte) length;
+        frame[3] = (byte) type;
+        frame[4] = (byte) flags;
+        System.arraycopy(int32(streamId), 0, frame, 5, 4);
+        System.arraycopy(payload, offset, frame, 9, length);
+        return frame;
+    }
+
+    private static void putSetting(byte[] settings, int offset, int id, int value) {
+        settings[offset] = (byte) (id >>> 8);
+        settings[offset + 1] = (byte) id;
+        System.arraycopy(int32(value), 0, settings, offset + 2, 4);
+    }
+
+    private static int frameLength(byte[] header) {
+        return header.length < 3 ? 0 : (header[0] & 0xff) << 16 | (header[1] & 0xff) << 8 | header[2] & 0xff;
+    }
+
+    private static byte[] int32(int value) {
+        return new byte[] {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+
+    private static int int32(byte[] bytes, int offset) {
+        if (bytes.length < offset + 4) {
+            return 0;
+        }
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16 | (bytes[offset + 2] & 0xff) << 8 | bytes[offset + 3] & 0xff;
+    }
+
+    private static int int31(byte[] bytes, int offset) {
+        return int32(bytes, offset) & 0x7fffffff;
+    }
+}
@@ -0,0 +1,22 @@
+import java.io.IOException;
+import java.util.function.Predicate;
+
+// Sends a request for the analysis engine and returns the complete raw response (status line, headers and body)
+public interface HttpTransport {
+    // How much of a response the engine needs. A transport that reads responses itself shows the head (status
+    // line and headers) to bodyNeeded and skips the body when it returns false, and stops reading a body after
+    // maxBodyBytes (0 = no limit); the connection is then not reused. A transport that cannot stop early
+    // returns the whole response, which the engine cuts to the same size.
+    record ResponseLimit(Predicate<byte[]> bodyNeeded, int maxBodyBytes) {
+        static final ResponseLimit NONE = new ResponseLimit(head -> true, 0);
+    }
+
+    byte[] send(RawRequest request, ResponseLimit limit) throws IOException, InterruptedException;
+
+    // Like send, but concurrent requests to the same service may share one HTTP/2 connection with at most
+    // maxStreams streams in flight, or pooled keep-alive HTTP/1.1 connections when the server lacks HTTP/2.
+    // Transports that cannot multiplex send normally.
+    default byte[] sendMultiplexed(RawRequest request, int maxStreams, ResponseLimit limit) throws IOException, InterruptedException {
+        return send(request, limit);
+    }
+}
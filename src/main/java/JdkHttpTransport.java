@@ -0,0 +1,351 @@
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+// Plain-JDK transport for running the engine outside Burp. The request bytes are written to the socket
+// unchanged (java.net.http.HttpClient would add its own User-Agent and rewrite Host, Connection and
+// Content-Length, hiding the effect of removing them). send uses one connection per request; sendMultiplexed
+// shares one HTTP/2 connection per service (ALPN on TLS, prior knowledge on cleartext) and falls back to a
+// pool of keep-alive HTTP/1.1 connections when the server does not speak HTTP/2. A connection whose response
+// was stopped early by the ResponseLimit is closed rather than pooled, since the rest of the body is still unread.
+// Chunked bodies are decoded, with a Content-Length in place of the chunked coding, so that the engine sees the
+// same body it would over HTTP/2 and can parse it. close() releases the pooled and HTTP/2 connections.
+public class JdkHttpTransport implements HttpTransport, AutoCloseable {
+    private final int timeoutMillis;
+    private final Map<String, Service> services = new ConcurrentHashMap<>();
+
+    // Connections of one service for multiplexed sends
+    private static class Service {
+        private final Deque<Connection> idle = new ConcurrentLinkedDeque<>();
+        // Guarded by this
+        private Http2Connection http2;
+        private boolean http1Only;
+    }
+
+    // Keeps its buffered stream, since a response read may have buffered ahead
+    private record Connection(Socket socket, InputStream in) {
+    }
+
+    private record Exchange(byte[] response, boolean reusable) {
+    }
+
+    public JdkHttpTransport(Duration timeout) {
+        this.timeoutMillis = (int) timeout.toMillis();
+    }
+
+    @Override
+    public byte[] send(RawRequest request, ResponseLimit limit) throws IOException {
+        try (Socket socket = connect(request)) {
+            return exchange(new Connection(socket, new BufferedInputStream(socket.getInputStream())), request, limit).response();
+        }
+    }
+
+    @Override
+    public byte[] sendMultiplexed(RawRequest request, int maxStreams, ResponseLimit limit) throws IOException, InterruptedException {
+        Service service = services.computeIfAbsent(request.serviceKey(), key -> new Service());
+        Http2Connection connection = http2Connection(service, request, maxStreams);
+        return connection != null ? connection.send(request, limit) : sendPooled(service, request, maxStreams, limit);
+    }
+
+    // The service's HTTP/2 connection, (re)opened when there is none yet, the previous one failed or was shut
+    // down by the server, ran out of stream ids, or the stream limit changed; null once the service turned out
+    // not to speak HTTP/2. A replaced connection closes when its in-flight streams have finished.
+    private Http2Connection http2Connection(Service service, RawRequest request, int maxStreams) throws IOException {
+        synchronized (service) {
+            if (service.http1Only) {
+                return null;
+            }
+            if (service.http2 == null || !service.http2.isUsable() || service.http2.maxStreams() != maxStreams) {
+                if (service.http2 != null) {
+                    service.http2.close();
+                }
+                service.http2 = Http2Connection.open(request.host(), request.port(), request.secure(), timeoutMillis, maxStreams);
+                service.http1Only = service.http2 == null;
+            }
+            return service.http2;
+        }
+    }
+
+    // Closes the idle keep-alive connections and every HTTP/2 connection, the latter after their in-flight
+    // streams. The transport stays usable and opens new connections as needed.
+    @Override
+    public void close() {
+        for (Service service : services.values()) {
+            synchronized (service) {
+                if (service.http2 != null) {
+                    service.http2.close();
+                    service.http2 = null;
+                }
+            }
+            Connection idle;
+            while ((idle = service.idle.pollFirst()) != null) {
+                try {
+                    idle.socket().close();
+                } catch (IOException e) {
+                    // Nothing left to release
+                }
+            }
+        }
+    }
+
+    // Reuses an idle keep-alive connection when there is one. A pooled connection the server has closed in
+    // the meantime fails before any response byte arrives, and the request moves on to the next idle or a new one.
+    private byte[] sendPooled(Service service, RawRequest request, int maxIdle, ResponseLimit limit) throws IOException {
+        Connection pooled;
+        while ((pooled = service.idle.pollFirst()) != null) {
+            try {
+                return keepOrClose(service, pooled, exchange(pooled, request, limit), maxIdle);
+            } catch (IOException e) {
+                pooled.socket().close();
+                if (!(e instanceof StaleConnectionException)) {
+                    throw e;
+                }
+            }
+        }
+        Socket socket = connect(request);
+        Connection connection = new Connection(socket, new BufferedInputStream(socket.getInputStream()));
+        try {
+            return keepOrClose(service, connection, exchange(connection, request, limit), maxIdle);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private static byte[] keepOrClose(Service service, Connection connection, Exchange exchange, int maxIdle) throws IOException {
+        if (exchange.reusable() && service.idle.size() < maxIdle) {
+            service.idle.addFirst(connection);
+        } else {
+            connection.socket().close();
+        }
+        return exchange.response();
+    }
+
+    // Writes the request and reads one response. The connection can be reused when both sides keep it open
+    // and the response length is known from its headers, and the body was read to its end.
+    private static Exchange exchange(Connection connection, RawRequest request, ResponseLimit limit) throws IOException {
+        OutputStream out = connection.socket().getOutputStream();
+        InputStream in = connection.in();
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        String head;
+        int status;
+        try {
+            out.write(request.bytes());
+            out.flush();
+            in.mark(1);
+            if (in.read() < 0) {
+                throw new StaleConnectionException(null);
+            }
+            in.reset();
+        } catch (SocketException e) {
+            throw new StaleConnectionException(e);
+        }
+        // Skip interim responses such as 100 Continue
+        while (true) {
+            head = readHead(in, response);
+            status = statusCode(head);
+            if (status < 100 || status >= 200 || status == 101) {
+                break;
+            }
+            response.reset();
+        }
+
+        boolean reusable = head.startsWith("HTTP/1.1") && !"close".equalsIgnoreCase(headerValue(head, "Connection"))
+            && !"close".equalsIgnoreCase(request.headerValue("Connection")) && status != 101;
+        if (!request.method().equalsIgnoreCase("HEAD") && status != 204 && status != 304) {
+            if (limit.bodyNeeded().test(response.toByteArray())) {
+                int bodyStart = response.size();
+                reusable &= readBody(in, response, head, limit.maxBodyBytes());
+                if (isChunked(head)) {
+                    return new Exchange(withContentLength(head, response.toByteArray(), bodyStart), reusable);
+                }
+            } else {
+                reusable = false;
+            }
+        }
+        return new Exchange(response.toByteArray(), reusable);
+    }
+
+    private Socket connect(RawRequest request) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(request.host(), request.port()), timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            if (!request.secure()) {
+                return socket;
+            }
+            SSLSocket sslSocket = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                .createSocket(socket, request.host(), request.port(), true);
+            sslSocket.startHandshake();
+            return sslSocket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    // Copies the status line and headers, including the blank line, and returns them as text
+    private static String readHead(InputStream in, ByteArrayOutputStream out) throws IOException {
+        int start = out.size();
+        int newlines = 0;
+        while (newlines < 2) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Connection closed before the response headers were complete");
+            }
+            out.write(b);
+            if (b == '\n') {
+                newlines++;
+            } else if (b != '\r') {
+                newlines = 0;
+            }
+        }
+        byte[] bytes = out.toByteArray();
+        return new String(bytes, start, bytes.length - start, StandardCharsets.ISO_8859_1);
+    }
+
+    // Returns false when the body is delimited by the end of the connection or reading stopped at maxBodyBytes
+    // (0 = no limit). A chunked body is copied without its framing and trailer fields.
+    private static boolean readBody(InputStream in, ByteArrayOutputStream out, String head, int maxBodyBytes) throws IOException {
+        long capAt = maxBodyBytes > 0 ? out.size() + (long) maxBodyBytes : Long.MAX_VALUE;
+        String contentLength = headerValue(head, "Content-Length");
+        if (isChunked(head)) {
+            while (true) {
+                String sizeLine = readLine(in);
+                int extension = sizeLine.indexOf(';');
+                int size;
+                try {
+                    size = Integer.parseInt((extension < 0 ? sizeLine : sizeLine.substring(0, extension)).strip(), 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed chunk size: " + sizeLine);
+                }
+                if (size == 0) {
+                    while (!readLine(in).isEmpty()) {
+                        // Trailer fields
+                    }
+                    return true;
+                }
+                if (!copy(in, out, size, capAt)) {
+                    return false;
+                }
+                readLine(in);
+            }
+        } else if (contentLength != null) {
+            return copy(in, out, Long.parseLong(contentLength.strip()), capAt);
+        }
+        byte[] buffer = new byte[8192];
+        int read;
+        while (out.size() < capAt && (read = in.read(buffer, 0, (int) Math.min(buffer.length, capAt - out.size()))) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return false;
+    }
+
+    // The server closed a pooled connection before answering
+    private static class StaleConnectionException extends IOException {
+        StaleConnectionException(SocketException cause) {
+            super("Connection closed by the server before the response", cause);
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException("Connection closed inside a chunked body");
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+
+    private static boolean isChunked(String head) {
+        String transferEncoding = headerValue(head, "Transfer-Encoding");
+        return transferEncoding != null && transferEncoding.toLowerCase(Locale.ROOT).contains("chunked");
+    }
+
+    // The response with the decoded body from bodyStart on, and a head in which the Transfer-Encoding line has
+    // lost its chunked coding (and goes when none is left) and is followed by the Content-Length of the body.
+    // The header stays in place, so the head keeps the layout of the other responses line by line.
+    private static byte[] withContentLength(String head, byte[] response, int bodyStart) {
+        StringBuilder rewritten = new StringBuilder();
+        for (String line : head.split("(?<=\n)")) {
+            int colon = line.indexOf(':');
+            if (colon < 0 || !line.substring(0, colon).strip().equalsIgnoreCase("Transfer-Encoding")) {
+                rewritten.append(line);
+                continue;
+            }
+            String newline = line.endsWith("\r\n") ? "\r\n" : "\n";
+            List<String> codings = new ArrayList<>();
+            for (String coding : line.substring(colon + 1).split(",")) {
+                if (!coding.isBlank() && !coding.strip().equalsIgnoreCase("chunked")) {
+                    codings.add(coding.strip());
+                }
+            }
+            if (!codings.isEmpty()) {
+                rewritten.append(line, 0, colon + 1).append(' ').append(String.join(", ", codings)).append(newline);
+            }
+            rewritten.append("Content-Length: ").append(response.length - bodyStart).append(newline);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(response.length);
+        out.writeBytes(rewritten.toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.write(response, bodyStart, response.length - bodyStart);
+        return out.toByteArray();
+    }
+
+    // Returns false when the output reached capAt before length bytes were copied
+    private static boolean copy(InputStream in, ByteArrayOutputStream out, long length, long capAt) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (length > 0) {
+            if (out.size() >= capAt) {
+                return false;
+            }
+            int read = in.read(buffer, 0, (int) Math.min(Math.min(buffer.length, length), capAt - out.size()));
+            if (read < 0) {
+                throw new EOFException("Connection closed before the response body was complete");
+            }
+            out.write(buffer, 0, read);
+            length -= read;
+        }
+        return true;
+    }
+
+    private static int statusCode(String head) throws IOException {
+        String[] statusLine = head.split("\r?\n", 2)[0].split(" ", 3);
+        try {
+            return Integer.parseInt(statusLine[1]);
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed status line: " + head.split("\r?\n", 2)[0]);
+        }
+    }
+
+    private static String headerValue(String head, String name) {
+        for (String line : head.split("\r?\n")) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).strip().equalsIgnoreCase(name)) {
+                return line.substring(colon + 1).strip();
+            }
+        }
+        return null;
+    }
+}
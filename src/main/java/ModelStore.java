@@ -0,0 +1,13 @@
+import java.io.IOException;
+
+// Keeps the comparison models learned from baselines so that later analyses of the same endpoint, possibly in
+// another session, can reuse them. Keys are hex strings; models are opaque, versioned bytes.
+public interface ModelStore {
+    // Null if nothing is stored under the key
+    byte[] load(String key) throws IOException;
+
+    void save(String key, byte[] model) throws IOException;
+
+    // Removes every stored model; returns how many there were
+    int clear() throws IOException;
+}
@@ -1,89 +1,528 @@
 import burp.api.montoya.BurpExtension;
 import burp.api.montoya.extension.ExtensionUnloadingHandler;
 import burp.api.montoya.MontoyaApi;
-import burp.api.montoya.http.message.HttpHeader;
-import burp.api.montoya.http.message.params.HttpParameter;
-import burp.api.montoya.http.message.params.HttpParameterType;
+import burp.api.montoya.core.ByteArray;
 import burp.api.montoya.http.message.requests.HttpRequest;
 import burp.api.montoya.http.message.responses.HttpResponse;
+import burp.api.montoya.http.HttpMode;
 import burp.api.montoya.http.HttpService;
 import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.persistence.PersistedObject;
 import burp.api.montoya.ui.editor.EditorOptions;
 import burp.api.montoya.ui.editor.HttpRequestEditor;
 import burp.api.montoya.ui.editor.HttpResponseEditor;
 import burp.api.montoya.ui.contextmenu.ContextMenuEvent;
 import burp.api.montoya.ui.contextmenu.ContextMenuItemsProvider;
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableRowSorter;
 import javax.swing.text.*;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 
 public class PacketPurifier implements BurpExtension, ContextMenuItemsProvider, ExtensionUnloadingHandler {
+    // Result details kept in memory; older ones are read back from the spill file when their row is clicked
+    private static final int RECENT_DETAIL_ENTRIES = 16;
+    // Result rows are added to the table at most this often, in one batch
+    private static final int ROW_FLUSH_INTERVAL_MS = 50;
+
     private MontoyaApi api;
-    private DefaultTableModel tableModel;
+    private ResultTableModel tableModel;
+    // Rows published by analysis threads, appended to the table in batches on the EDT
+    private final Queue<ResultRow> pendingRows = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private Timer rowFlushTimer;
     private JProgressBar progressBar;
     private JComboBox<String> filterComboBox;
     private JRadioButton basicMethod;
     private JRadioButton accurateMethod;
     private JSpinner baselineSpinner;
+    private JCheckBox adaptiveBaseline;
+    private JCheckBox reuseModelCheckBox;
+    private JSpinner baselineDelaySpinner;
+    private JSpinner concurrencySpinner;
+    private JSpinner rateLimitSpinner;
+    private JSpinner timeoutSpinner;
+    private JCheckBox http2CheckBox;
+    private JSpinner maxStreamsSpinner;
+    private JSpinner maxBodySpinner;
+    private JSpinner minConfidenceSpinner;
+    private JComboBox<String> strategyComboBox;
+    private final Map<RawRequest.Mutation, JCheckBoxMenuItem> mutationItems = new EnumMap<>(RawRequest.Mutation.class);
     private HttpRequestEditor requestEditor;
+    private JSpinner jobsSpinner;
+    private JSpinner jobsPerHostSpinner;
     private HttpRequest currentRequest;
-    private List<HttpResponse> baselineResponses;
-    private AtomicInteger tasksRemaining;
     private ExecutorService executor;
-    private Map<Integer, HttpRequestResponse> requestResponseMap;
+    private JobQueue jobQueue;
+    private ResponseStore responseStore;
     private HttpRequestEditor detailRequestEditor;
     private HttpResponseEditor detailResponseEditor;
     private JLabel notificationLabel;
     private JButton analyzeButton;
     private JButton clearButton;
-    private Map<Integer, PrefixPostfixPair> dynamicLinePrefixesPostfixes;
-    private Set<Integer> dynamicLines;
+    private JButton pauseButton;
+    private JButton cancelButton;
+    private AnalysisEngine engine;
+    private ModelStore modelStore;
+    private Timer metricsTimer;
+    private JCheckBox probeCacheCheckBox;
+    private JCheckBox refreshCacheCheckBox;
+
+    // One queued request; runs it through the engine and shows the engine's events in the tab
+    private class Analysis {
+        final HttpRequest originalRequest;
+        final AnalysisConfig config;
+        final boolean sendToRepeater;
+        // Kept across a pause so the resumed run skips what is already done
+        final AnalysisControl control = new AnalysisControl();
+
+        Analysis(HttpRequest originalRequest, AnalysisConfig config, boolean sendToRepeater) {
+            this.originalRequest = originalRequest;
+            this.config = config;
+            this.sendToRepeater = sendToRepeater;
+        }
+
+        void run() {
+            try {
+                HttpService service = originalRequest.httpService();
+                RawRequest request = new RawRequest(service.host(), service.port(), service.secure(), originalRequest.toByteArray().getBytes());
+                engine.analyze(request, config, this::handle, control);
+            } catch (Exception e) {
+                api.logging().logToError("Error analyzing " + originalRequest.url() + ": " + e);
+                publishRow(new ResultRow(originalRequest.url(), "Error", "N/A", "", null, null, null));
+                SwingUtilities.invokeLater(() -> {
+                    notificationLabel.setText("Error during analysis.");
+                    new Timer(2000, e1 -> notificationLabel.setText("")).start();
+                });
+            }
+        }
+
+        private void handle(AnalysisEvent event) {
+            switch (event) {
+                case AnalysisEvent.Status status -> jobQueue.showStatus(this, status.message());
+                case AnalysisEvent.Progress progress -> jobQueue.showProgress(this, progress.percent(), progress.message());
+                case AnalysisEvent.Log log -> api.logging().logToOutput(log.message());
+                case AnalysisEvent.Finding finding -> publishFinding(finding);
+                case AnalysisEvent.Minimized minimized -> publishMinimized(minimized);
+                case AnalysisEvent.Stopped stopped -> api.logging().logToOutput(String.format("%s %s after %d probes.",
+                    stopped.paused() ? "Paused" : "Cancelled", originalRequest.url(), stopped.completedProbes()));
+            }
+        }
+
+        private void publishFinding(AnalysisEvent.Finding finding) {
+            StoredRow stored = storeRow(originalRequest.httpService(), finding.request().bytes(), finding.response());
+            String name = finding.element().name();
+            if (finding.cached()) {
+                name += " (cached)";
+            } else if (finding.slow() && !finding.hasImpact()) {
+                name += " (slow)";
+            }
+            Long time = finding.responseNanos() >= 0 ? TimeUnit.NANOSECONDS.toMillis(finding.responseNanos()) : null;
+            String probe = finding.mutations().stream().map(RawRequest.Mutation::label).collect(Collectors.joining(", "));
+            Integer confidence = finding.hasImpact() ? (int) Math.round(finding.confidence() * 100) : null;
+            publishRow(new ResultRow(originalRequest.url(), finding.element().type(), name, probe, confidence, time, stored));
+        }
+
+        private void publishMinimized(AnalysisEvent.Minimized minimized) {
+            HttpRequest minimizedRequest = toHttpRequest(minimized.request());
+            if (sendToRepeater) {
+                api.repeater().sendToRepeater(minimizedRequest);
+                return;
+            }
+            // Batch jobs list the minimized request instead of opening a Repeater tab each
+            StoredRow stored = storeRow(originalRequest.httpService(), minimized.request().bytes(), null);
+            String summary = minimized.kept() + " of " + minimized.total() + " elements kept";
+            publishRow(new ResultRow(originalRequest.url(), "Minimized", summary, "", null, null, stored));
+        }
+
+        private HttpRequest toHttpRequest(RawRequest request) {
+            return HttpRequest.httpRequest(originalRequest.httpService(), ByteArray.byteArray(request.bytes()));
+        }
+    }
+
+    private record StoredRow(HttpService service, int entry) {
+    }
+
+    // One line of the Results table; probe names the removal or mutations that caused it, confidence is a
+    // percentage for findings with impact, stored is null when there are no details to show
+    private record ResultRow(String url, String type, String name, String probe, Integer confidence, Long timeMillis, StoredRow stored) {
+    }
+
+    // Append-only rows, only ever touched on the EDT
+    private static class ResultTableModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {"URL", "Element Type", "Element Name", "Probe", "Confidence (%)", "Time (ms)"};
+
+        private final List<ResultRow> rows = new ArrayList<>();
+
+        void addAll(List<ResultRow> newRows) {
+            if (newRows.isEmpty()) {
+                return;
+            }
+            int first = rows.size();
+            rows.addAll(newRows);
+            fireTableRowsInserted(first, rows.size() - 1);
+        }
+
+        void clear() {
+            rows.clear();
+            fireTableDataChanged();
+        }
+
+        ResultRow row(int index) {
+            return rows.get(index);
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return switch (column) {
+                case 4 -> Integer.class;
+                case 5 -> Long.class;
+                default -> String.class;
+            };
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int column) {
+            ResultRow row = rows.get(rowIndex);
+            return switch (column) {
+                case 0 -> row.url();
+                case 1 -> row.type();
+                case 2 -> row.name();
+                case 3 -> row.probe();
+                case 4 -> row.confidence();
+                default -> row.timeMillis();
+            };
+        }
+    }
+
+    // Sends engine requests through Burp, so they honor the project's network settings
+    private static class MontoyaTransport implements HttpTransport {
+        private final MontoyaApi api;
+        // Services that answered an HTTP/2 attempt over HTTP/1, so later sends skip the attempt
+        private final Set<String> http1Services = ConcurrentHashMap.newKeySet();
+        private final Map<String, Semaphore> streamLimits = new ConcurrentHashMap<>();
+
+        MontoyaTransport(MontoyaApi api) {
+            this.api = api;
+        }
+
+        // Burp always reads the whole response, so the limit is left to the engine, which cuts the body
+        @Override
+        public byte[] send(RawRequest request, ResponseLimit limit) throws IOException {
+            return responseBytes(request, api.http().sendRequest(httpRequest(request)).response());
+        }
+
+        // Burp multiplexes concurrent HTTP/2 requests to a service over its connection and negotiates the
+        // protocol through ALPN; the semaphore caps the streams this extension has in flight per service
+        @Override
+        public byte[] sendMultiplexed(RawRequest request, int maxStreams, ResponseLimit limit) throws IOException, InterruptedException {
+            if (http1Services.contains(request.serviceKey())) {
+                return send(request, limit);
+            }
+            Semaphore streams = streamLimits.computeIfAbsent(request.serviceKey() + " " + maxStreams, key -> new Semaphore(maxStreams));
+            streams.acquire();
+            try {
+                HttpResponse response = api.http().sendRequest(httpRequest(request), HttpMode.HTTP_2).response();
+                if (response != null && !response.httpVersion().startsWith("HTTP/2")) {
+                    http1Services.add(request.serviceKey());
+                }
+                return responseBytes(request, response);
+            } finally {
+                streams.release();
+            }
+        }
+
+        private static HttpRequest httpRequest(RawRequest request) {
+            HttpService service = HttpService.httpService(request.host(), request.port(), request.secure());
+            return HttpRequest.httpRequest(service, ByteArray.byteArray(request.bytes()));
+        }
+
+        private static byte[] responseBytes(RawRequest request, HttpResponse response) throws IOException {
+            if (response == null) {
+                throw new IOException("No response from " + request.url());
+            }
+            return response.toByteArray().getBytes();
+        }
+    }
+
+    // Keeps learned comparison models in the project file, so they survive reloads and restarts
+    private static class ExtensionDataModelStore implements ModelStore {
+        private static final String KEY_PREFIX = "model-";
 
-    private static class PrefixPostfixPair {
-        String prefix;
-        String postfix;
+        private final PersistedObject data;
 
-        PrefixPostfixPair(String prefix, String postfix) {
-            this.prefix = prefix;
-            this.postfix = postfix;
+        ExtensionDataModelStore(PersistedObject data) {
+            this.data = data;
+        }
+
+        @Override
+        public synchronized byte[] load(String key) {
+            ByteArray model = data.getByteArray(KEY_PREFIX + key);
+            return model != null ? model.getBytes() : null;
+        }
+
+        @Override
+        public synchronized void save(String key, byte[] model) {
+            data.setByteArray(KEY_PREFIX + key, ByteArray.byteArray(model));
+        }
+
+        @Override
+        public synchronized int clear() {
+            int removed = 0;
+            for (String key : new ArrayList<>(data.byteArrayKeys())) {
+                if (key.startsWith(KEY_PREFIX)) {
+                    data.deleteByteArray(key);
+                    removed++;
+                }
+            }
+            return removed;
         }
     }
 
+    // Runs queued analyses on the shared executor, bounded globally and per HttpService. Pausing stops the
+    // running analyses at their next request and holds them, with their checkpoints, until resumed.
+    private class JobQueue {
+        private final Deque<Analysis> pending = new ArrayDeque<>();
+        private final Set<Analysis> active = new HashSet<>();
+        private final List<Analysis> suspended = new ArrayList<>();
+        private final Map<String, Integer> runningPerHost = new HashMap<>();
+        private int running;
+        private int completed;
+        private int queued;
+        private boolean paused;
+        private boolean cancelled;
+        // Copies of the Jobs and Per Host spinners, as dispatch runs on the threads that finish jobs
+        private int maxJobs = 1;
+        private int maxJobsPerHost = 1;
+
+        // Called on the EDT when either spinner changes; a higher cap starts waiting jobs right away
+        synchronized void setLimits(int maxJobs, int maxJobsPerHost) {
+            this.maxJobs = maxJobs;
+            this.maxJobsPerHost = maxJobsPerHost;
+            dispatch();
+            showQueueProgress();
+        }
+
+        synchronized void enqueue(List<Analysis> analyses) {
+            pending.addAll(analyses);
+            queued += analyses.size();
+            boolean wasPaused = paused;
+            SwingUtilities.invokeLater(() -> {
+                analyzeButton.setEnabled(false);
+                clearButton.setEnabled(false);
+                pauseButton.setText(wasPaused ? "Resume" : "Pause");
+                pauseButton.setEnabled(true);
+                cancelButton.setEnabled(true);
+            });
+            dispatch();
+            showQueueProgress();
+        }
+
+        synchronized boolean isIdle() {
+            return running == 0 && pending.isEmpty() && suspended.isEmpty();
+        }
+
+        // Returns whether the queue is paused afterwards
+        synchronized boolean togglePause() {
+            if (!paused) {
+                paused = true;
+                for (Analysis analysis : active) {
+                    analysis.control.pause();
+                }
+                showPaused();
+            } else {
+                paused = false;
+                for (int i = suspended.size() - 1; i >= 0; i--) {
+                    suspended.get(i).control.resume();
+                    pending.addFirst(suspended.get(i));
+                }
+                suspended.clear();
+                dispatch();
+                showQueueProgress();
+            }
+            return paused;
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            paused = false;
+            pending.clear();
+            for (Analysis analysis : active) {
+                analysis.control.cancel();
+            }
+            for (Analysis analysis : suspended) {
+                analysis.control.cancel();
+            }
+            suspended.clear();
+            if (isIdle()) {
+                notifyIdle(null);
+            }
+        }
+
+        private synchronized void dispatch() {
+            if (paused) {
+                return;
+            }
+            Iterator<Analysis> iterator = pending.iterator();
+            while (running < maxJobs && iterator.hasNext()) {
+                Analysis analysis = iterator.next();
+                String host = serviceKey(analysis.originalRequest.httpService());
+                if (runningPerHost.getOrDefault(host, 0) >= maxJobsPerHost) {
+                    continue;
+                }
+                iterator.remove();
+                active.add(analysis);
+                running++;
+                runningPerHost.merge(host, 1, Integer::sum);
+                executor.submit(() -> {
+                    try {
+                        analysis.run();
+                    } finally {
+                        finished(analysis, host);
+                    }
+                });
+            }
+        }
+
+        private synchronized void finished(Analysis analysis, String host) {
+            running--;
+            active.remove(analysis);
+            runningPerHost.merge(host, -1, Integer::sum);
+            switch (analysis.control.state()) {
+                case PAUSED -> suspended.add(analysis);
+                case RUNNING -> completed++;
+                case CANCELLED -> {
+                    // Not counted as analyzed
+                }
+            }
+            dispatch();
+            if (paused) {
+                showPaused();
+            } else {
+                showQueueProgress();
+            }
+            if (isIdle()) {
+                notifyIdle(analysis);
+            }
+        }
 
+        private void notifyIdle(Analysis last) {
+            boolean single = queued == 1;
+            boolean sentToRepeater = last != null && last.sendToRepeater;
+            boolean wasCancelled = cancelled;
+            int analyzed = completed;
+            int total = queued;
+            queued = 0;
+            completed = 0;
+            cancelled = false;
+            SwingUtilities.invokeLater(() -> {
+                if (wasCancelled) {
+                    progressBar.setString("Cancelled");
+                    notificationLabel.setText("Cancelled: " + analyzed + " of " + total + " requests analyzed.");
+                } else {
+                    progressBar.setValue(100);
+                    notificationLabel.setText(single && sentToRepeater
+                        ? "Analysis complete. Minimized packet sent to Repeater."
+                        : "Batch complete: " + analyzed + " requests analyzed.");
+                }
+                new Timer(2000, e -> notificationLabel.setText("")).start();
+                analyzeButton.setEnabled(true);
+                clearButton.setEnabled(true);
+                pauseButton.setText("Pause");
+                pauseButton.setEnabled(false);
+                cancelButton.setEnabled(false);
+            });
+        }
 
-    private static class InfluentialElement {
-        String type;
-        String name;
+        private void showPaused() {
+            String status = running > 0 ? "Pausing: " + running + " running" : "Paused";
+            SwingUtilities.invokeLater(() -> progressBar.setString(status));
+        }
+
+        // A lone analysis reports its own progress; several report the job count instead
+        synchronized void showProgress(Analysis analysis, int progress, String status) {
+            if (queued == 1 && !paused) {
+                SwingUtilities.invokeLater(() -> {
+                    progressBar.setValue(progress);
+                    progressBar.setString(status);
+                });
+            }
+        }
+
+        synchronized void showStatus(Analysis analysis, String status) {
+            if (queued == 1 && !paused) {
+                SwingUtilities.invokeLater(() -> progressBar.setString(status));
+            }
+        }
 
-        InfluentialElement(String type, String name) {
-            this.type = type;
-            this.name = name;
+        private synchronized void showQueueProgress() {
+            if (queued > 1) {
+                int progress = (int) ((double) completed / queued * 100);
+                String status = String.format("Jobs: %d/%d done, %d running", completed, queued, running);
+                SwingUtilities.invokeLater(() -> {
+                    progressBar.setValue(progress);
+                    progressBar.setString(status);
+                });
+            }
         }
     }
 
     @Override
     public void initialize(MontoyaApi montoyaApi) {
         this.api = montoyaApi;
-        this.executor = Executors.newFixedThreadPool(5);
-        this.tasksRemaining = new AtomicInteger(0);
-        this.requestResponseMap = new HashMap<>();
-        this.dynamicLinePrefixesPostfixes = new HashMap<>();
-        this.dynamicLines = new HashSet<>();
-        this.baselineResponses = new ArrayList<>();
+        // Analyses mostly wait on the network; the job queue bounds how many run at once
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.jobQueue = new JobQueue();
+        try {
+            this.responseStore = new ResponseStore(RECENT_DETAIL_ENTRIES);
+        } catch (IOException e) {
+            api.logging().logToError("Cannot create the response store, details will not be shown: " + e);
+        }
+        this.modelStore = new ExtensionDataModelStore(montoyaApi.persistence().extensionData());
+        this.engine = new AnalysisEngine(new MontoyaTransport(montoyaApi), modelStore);
 
         api.extension().setName("PacketPurifier");
         api.userInterface().registerContextMenuItemsProvider(this);
@@ -95,8 +534,31 @@ public class PacketPurifier implements BurpExtension, ContextMenuItemsProvider,
 
     @Override
     public void extensionUnloaded() {
+        if (jobQueue != null) {
+            jobQueue.cancel();
+        }
         if (executor != null && !executor.isShutdown()) {
-            executor.shutdown();
+            executor.shutdownNow();
+        }
+        if (metricsTimer != null) {
+            metricsTimer.stop();
+        }
+        if (rowFlushTimer != null) {
+            rowFlushTimer.stop();
+        }
+        if (responseStore != null) {
+            try {
+                responseStore.close();
+            } catch (IOException e) {
+                api.logging().logToError("Error deleting the response store: " + e);
+            }
+        }
+        if (engine != null) {
+            try {
+                engine.close();
+            } catch (IOException e) {
+                api.logging().logToError("Error deleting the paused baselines: " + e);
+            }
         }
     }
 
@@ -128,6 +590,107 @@ public class PacketPurifier implements BurpExtension, ContextMenuItemsProvider,
         baselineSpinner = new JSpinner(spinnerModel);
         baselineSpinner.setPreferredSize(new Dimension(50, 20));
 
+        // Adaptive baselines treat the spinner value as an upper bound: checking the box raises it so that there
+        // is room to stop early, and clearing it restores the fixed count
+        adaptiveBaseline = new JCheckBox("Adaptive", false);
+        adaptiveBaseline.setToolTipText("Stop sending baselines once 2 in a row after the first leave the dynamic content unchanged "
+            + "(after 3 at the earliest); Baseline Requests becomes the upper bound");
+        int[] fixedBaselines = {(Integer) spinnerModel.getValue()};
+        adaptiveBaseline.addActionListener(e -> {
+            if (adaptiveBaseline.isSelected()) {
+                fixedBaselines[0] = (Integer) spinnerModel.getValue();
+                spinnerModel.setMinimum(AnalysisEngine.ADAPTIVE_MIN_BASELINES);
+                spinnerModel.setValue(Math.max(fixedBaselines[0], AnalysisEngine.ADAPTIVE_DEFAULT_BASELINES));
+            } else {
+                spinnerModel.setMinimum(2);
+                spinnerModel.setValue(fixedBaselines[0]);
+            }
+        });
+
+        // Models are stored per host, method and path pattern in the project file
+        reuseModelCheckBox = new JCheckBox("Reuse Model", true);
+        reuseModelCheckBox.setToolTipText("Reuse the dynamic-content model learned for the same endpoint if one baseline confirms it");
+        JButton clearModelsButton = new JButton("Clear Models");
+        clearModelsButton.setToolTipText("Remove every stored model from the project file");
+        clearModelsButton.addActionListener(e -> clearModels());
+
+        // Time between the starts of consecutive baseline requests, jittered by +/-25%
+        JLabel baselineDelayLabel = new JLabel("Delay (ms):");
+        baselineDelaySpinner = new JSpinner(new SpinnerNumberModel(1500, 0, 10000, 100)); // Default 1500, min 0, max 10000
+        baselineDelaySpinner.setPreferredSize(new Dimension(65, 20));
+
+        // Probe strategy dropdown
+        JLabel strategyLabel = new JLabel("Strategy:");
+        String[] strategyOptions = {"Per Element", "Bisect"};
+        strategyComboBox = new JComboBox<>(strategyOptions);
+        strategyComboBox.setToolTipText("Bisect removes elements in batches and only splits batches that change the response");
+
+        // Value mutations probed after removal, picked from a popup
+        JButton mutationsButton = new JButton("Mutations");
+        mutationsButton.setToolTipText("Also probe each element with an altered value");
+        JPopupMenu mutationsMenu = new JPopupMenu();
+        for (RawRequest.Mutation mutation : RawRequest.Mutation.values()) {
+            if (mutation != RawRequest.Mutation.REMOVED) {
+                JCheckBoxMenuItem item = new JCheckBoxMenuItem(mutation.label(), false);
+                mutationItems.put(mutation, item);
+                mutationsMenu.add(item);
+            }
+        }
+        mutationsButton.addActionListener(e -> mutationsMenu.show(mutationsButton, 0, mutationsButton.getHeight()));
+
+        // Borderline findings are re-probed; the element is kept only if enough of the attempts agree
+        JLabel minConfidenceLabel = new JLabel("Min Confidence (%):");
+        minConfidenceSpinner = new JSpinner(new SpinnerNumberModel(50, 0, 100, 5)); // Default 50, 0 = keep all
+        minConfidenceSpinner.setPreferredSize(new Dimension(50, 20));
+        minConfidenceSpinner.setToolTipText("Share of attempts that must reproduce a borderline change for its element to stay in the minimized request");
+
+        // Probe concurrency and per-host rate limit spinners
+        JLabel concurrencyLabel = new JLabel("Threads:");
+        concurrencySpinner = new JSpinner(new SpinnerNumberModel(5, 1, 20, 1)); // Default 5, min 1, max 20
+        concurrencySpinner.setPreferredSize(new Dimension(50, 20));
+
+        JLabel rateLimitLabel = new JLabel("Req/s:");
+        rateLimitSpinner = new JSpinner(new SpinnerNumberModel(10, 0, 100, 1)); // Default 10, 0 = unlimited
+        rateLimitSpinner.setPreferredSize(new Dimension(50, 20));
+
+        // Upper bound on each baseline and probe request; a probe that runs out is reported as failed
+        JLabel timeoutLabel = new JLabel("Timeout (ms):");
+        timeoutSpinner = new JSpinner(new SpinnerNumberModel(30000, 0, 300000, 1000)); // Default 30000, 0 = none
+        timeoutSpinner.setPreferredSize(new Dimension(70, 20));
+
+        // Multiplexed sending: one HTTP/2 connection per host, or pooled keep-alive HTTP/1.1 without HTTP/2
+        http2CheckBox = new JCheckBox("HTTP/2", false);
+        http2CheckBox.setToolTipText("Multiplex baselines and probes to a host over one HTTP/2 connection; hosts without HTTP/2 get HTTP/1.1");
+        JLabel maxStreamsLabel = new JLabel("Streams:");
+        maxStreamsSpinner = new JSpinner(new SpinnerNumberModel(20, 1, 100, 1)); // Default 20, min 1, max 100
+        maxStreamsSpinner.setPreferredSize(new Dimension(50, 20));
+        maxStreamsSpinner.setToolTipText("Maximum concurrent streams per HTTP/2 connection");
+
+        // Response body limit
+        JLabel maxBodyLabel = new JLabel("Max Body (KB):");
+        maxBodySpinner = new JSpinner(new SpinnerNumberModel(0, 0, 102400, 64)); // Default 0 = no limit
+        maxBodySpinner.setPreferredSize(new Dimension(60, 20));
+        maxBodySpinner.setToolTipText("Compare only the first KB of each response body; 0 compares whole bodies");
+
+        // Probe result cache
+        probeCacheCheckBox = new JCheckBox("Cache", true);
+        probeCacheCheckBox.setToolTipText("Reuse probe results for identical requests analyzed in the last " + AnalysisEngine.PROBE_CACHE_TTL_MINUTES + " minutes");
+        refreshCacheCheckBox = new JCheckBox("Refresh", false);
+        refreshCacheCheckBox.setToolTipText("Resend every probe and overwrite cached results");
+
+        // Concurrent analyses, overall and per host
+        JLabel jobsLabel = new JLabel("Jobs:");
+        jobsSpinner = new JSpinner(new SpinnerNumberModel(2, 1, 5, 1)); // Default 2, min 1, max 5
+        jobsSpinner.setPreferredSize(new Dimension(50, 20));
+
+        JLabel jobsPerHostLabel = new JLabel("Per Host:");
+        jobsPerHostSpinner = new JSpinner(new SpinnerNumberModel(1, 1, 5, 1)); // Default 1, min 1, max 5
+        jobsPerHostSpinner.setPreferredSize(new Dimension(50, 20));
+        Runnable jobLimits = () -> jobQueue.setLimits((Integer) jobsSpinner.getValue(), (Integer) jobsPerHostSpinner.getValue());
+        jobsSpinner.addChangeListener(e -> jobLimits.run());
+        jobsPerHostSpinner.addChangeListener(e -> jobLimits.run());
+        jobLimits.run();
+
         // Buttons
         analyzeButton = new JButton("Analyze Request");
         analyzeButton.addActionListener(e -> analyzeRequestFromEditor());
@@ -135,6 +698,14 @@ public class PacketPurifier implements BurpExtension, ContextMenuItemsProvider,
         clearButton = new JButton("Clear");
         clearButton.addActionListener(e -> clearResults());
 
+        pauseButton = new JButton("Pause");
+        pauseButton.setEnabled(false);
+        pauseButton.addActionListener(e -> pauseButton.setText(jobQueue.togglePause() ? "Resume" : "Pause"));
+
+        cancelButton = new JButton("Cancel");
+        cancelButton.setEnabled(false);
+        cancelButton.addActionListener(e -> jobQueue.cancel());
+
         // Progress bar
         progressBar = new JProgressBar(0, 100);
         progressBar.setStringPainted(true);
@@ -144,19 +715,31 @@ public class PacketPurifier implements BurpExtension, ContextMenuItemsProvider,
         notificationLabel = new JLabel("");
         notificationLabel.setHorizontalAlignment(SwingConstants.RIGHT);
 
+        // The options live in a settings panel under the toolbar, grouped and hidden until "Settings" is pressed
+        JPanel settingsPanel = new JPanel();
+        settingsPanel.setLayout(new BoxLayout(settingsPanel, BoxLayout.Y_AXIS));
+        settingsPanel.add(settingsGroup("Probing", filterLabel, filterComboBox, normalizationLabel, basicMethod, accurateMethod,
+            strategyLabel, strategyComboBox, mutationsButton, minConfidenceLabel, minConfidenceSpinner, probeCacheCheckBox, refreshCacheCheckBox));
+        settingsPanel.add(settingsGroup("Baselines", baselineLabel, baselineSpinner, adaptiveBaseline, baselineDelayLabel, baselineDelaySpinner,
+            reuseModelCheckBox, clearModelsButton));
+        settingsPanel.add(settingsGroup("Transport", concurrencyLabel, concurrencySpinner, rateLimitLabel, rateLimitSpinner, timeoutLabel, timeoutSpinner,
+            http2CheckBox, maxStreamsLabel, maxStreamsSpinner, maxBodyLabel, maxBodySpinner, jobsLabel, jobsSpinner, jobsPerHostLabel, jobsPerHostSpinner));
+        settingsPanel.setVisible(false);
+
+        JToggleButton settingsButton = new JToggleButton("Settings");
+        settingsButton.setToolTipText("Show the probing, baseline and transport options");
+        settingsButton.addActionListener(e -> {
+            settingsPanel.setVisible(settingsButton.isSelected());
+            mainPanel.revalidate();
+        });
+
         // Add components to toolbar
         toolbar.add(analyzeButton);
         toolbar.add(clearButton);
+        toolbar.add(pauseButton);
+        toolbar.add(cancelButton);
         toolbar.add(Box.createHorizontalStrut(10));
-        toolbar.add(filterLabel);
-        toolbar.add(filterComboBox);
-        toolbar.add(Box.createHorizontalStrut(10));
-        toolbar.add(normalizationLabel);
-        toolbar.add(basicMethod);
-        toolbar.add(accurateMethod);
-        toolbar.add(Box.createHorizontalStrut(10));
-        toolbar.add(baselineLabel);
-        toolbar.add(baselineSpinner);
+        toolbar.add(settingsButton);
         toolbar.add(Box.createHorizontalStrut(10));
         toolbar.add(progressBar);
         toolbar.add(Box.createHorizontalGlue());
@@ -174,14 +757,15 @@ public class PacketPurifier implements BurpExtension, ContextMenuItemsProvider,
         JPanel resultsPanel = new JPanel(new BorderLayout());
         resultsPanel.setBorder(BorderFactory.createTitledBorder("Results"));
 
-        String[] columns = {"URL", "Element Type", "Element Name"};
-        tableModel = new DefaultTableModel(columns, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        tableModel = new ResultTableModel();
+        rowFlushTimer = new Timer(ROW_FLUSH_INTERVAL_MS, e -> flushRows());
+        rowFlushTimer.setRepeats(false);
         JTable resultTable = new JTable(tableModel);
+        // Group rows by URL; ties keep insertion order, so each request's rows stay in enumeration order
+        TableRowSorter<ResultTableModel> sorter = new TableRowSorter<>(tableModel);
+        sorter.setSortKeys(List.of(new RowSorter.SortKey(0, SortOrder.ASCENDING)));
+        sorter.setSortsOnUpdates(true);
+        resultTable.setRowSorter(sorter);
         resultTable.setFillsViewportHeight(true);
         resultTable.setRowHeight(25);
 
@@ -191,7 +775,7 @@ public class PacketPurifier implements BurpExtension, ContextMenuItemsProvider,
             public void mouseClicked(MouseEvent e) {
                 int row = resultTable.getSelectedRow();
                 if (row >= 0) {
-                    HttpRequestResponse pair = requestResponseMap.get(row);
+                    HttpRequestResponse pair = loadRow(tableModel.row(resultTable.convertRowIndexToModel(row)).stored());
                     if (pair != null) {
                         detailRequestEditor.setRequest(pair.request());
                         detailResponseEditor.setResponse(pair.response());
@@ -231,12 +815,91 @@ public class PacketPurifier implements BurpExtension, ContextMenuItemsProvider,
         JSplitPane mainSplit = new JSplitPane(JSplitPane.VERTICAL_SPLIT, requestPanel, resultsAndDetailsSplit);
         mainSplit.setDividerLocation(200);
 
-        mainPanel.add(toolbar, BorderLayout.NORTH);
+        JPanel northPanel = new JPanel();
+        northPanel.setLayout(new BoxLayout(northPanel, BoxLayout.Y_AXIS));
+        northPanel.add(toolbar);
+        northPanel.add(settingsPanel);
+        northPanel.add(createMetricsBar());
+        mainPanel.add(northPanel, BorderLayout.NORTH);
         mainPanel.add(mainSplit, BorderLayout.CENTER);
 
         api.userInterface().registerSuiteTab("PacketPurifier", mainPanel);
     }
 
+    // Live request rate, volume and latency percentiles, refreshed every second
+    // One titled row of the settings panel
+    private static JPanel settingsGroup(String title, JComponent... components) {
+        JPanel group = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        group.setBorder(BorderFactory.createTitledBorder(title));
+        for (JComponent component : components) {
+            group.add(component);
+        }
+        return group;
+    }
+
+    private JPanel createMetricsBar() {
+        JPanel metricsBar = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 2));
+        JLabel metricsLabel = new JLabel();
+        JButton exportButton = new JButton("Export Metrics");
+        exportButton.setToolTipText("Save every request's timing as CSV or JSON (by file extension)");
+        exportButton.addActionListener(e -> exportMetrics());
+        metricsBar.add(exportButton);
+        metricsBar.add(metricsLabel);
+
+        long[] last = {System.nanoTime(), 0};
+        metricsTimer = new Timer(1000, e -> {
+            ProbeMetrics.Snapshot snapshot = engine.metrics().snapshot();
+            long now = System.nanoTime();
+            double rate = (snapshot.requests() - last[1]) / ((now - last[0]) / 1e9);
+            last[0] = now;
+            last[1] = snapshot.requests();
+            metricsLabel.setText(String.format(Locale.ROOT,
+                "%.1f req/s | %d requests | %.1f MB received | %d in flight | Probe p50/p95/p99: %s | Baseline: %s | Compare: %s",
+                Math.max(0, rate), snapshot.requests(), snapshot.bytesReceived() / 1048576.0, snapshot.inFlight(),
+                formatPercentiles(snapshot.probe()), formatPercentiles(snapshot.baseline()), formatPercentiles(snapshot.compare())));
+        });
+        metricsTimer.start();
+        return metricsBar;
+    }
+
+    private static String formatPercentiles(ProbeMetrics.Percentiles percentiles) {
+        return percentiles.count() == 0
+            ? "-"
+            : String.format(Locale.ROOT, "%.1f/%.1f/%.1f ms", percentiles.p50Millis(), percentiles.p95Millis(), percentiles.p99Millis());
+    }
+
+    private void exportMetrics() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("packetpurifier-metrics.csv"));
+        if (chooser.showSaveDialog(null) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = chooser.getSelectedFile();
+        try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            if (file.getName().toLowerCase(Locale.ROOT).endsWith(".json")) {
+                engine.metrics().writeJson(out);
+            } else {
+                engine.metrics().writeCsv(out);
+            }
+            notificationLabel.setText("Metrics exported.");
+        } catch (IOException e) {
+            api.logging().logToError("Error exporting metrics: " + e);
+            notificationLabel.setText("Error exporting metrics.");
+        }
+        new Timer(2000, e -> notificationLabel.setText("")).start();
+    }
+
+    private void clearModels() {
+        try {
+            int removed = modelStore.clear();
+            notificationLabel.setText("Cleared " + removed + " stored model" + (removed == 1 ? "." : "s."));
+        } catch (IOException e) {
+            api.logging().logToError("Error clearing stored models: " + e);
+            notificationLabel.setText("Error clearing stored models.");
+        }
+        new Timer(2000, e -> notificationLabel.setText("")).start();
+    }
+
     private void analyzeRequestFromEditor() {
         try {
             HttpRequest modifiedRequest = requestEditor.getRequest();
@@ -259,7 +922,9 @@ public class PacketPurifier implements BurpExtension, ContextMenuItemsProvider,
                 return;
             }
             
-            clearResults(); // Clear results before analyzing
+            if (jobQueue.isIdle()) {
+                clearResults(); // Clear results before analyzing
+            }
             analyzeRequest(modifiedRequest);
         } catch (Exception e) {
             SwingUtilities.invokeLater(() -> {
@@ -272,20 +937,75 @@ public class PacketPurifier implements BurpExtension, ContextMenuItemsProvider,
 
 
     private void clearResults() {
-        tableModel.setRowCount(0);
+        clearRows();
+        engine.metrics().reset();
         progressBar.setValue(0);
         progressBar.setString("Ready");
         detailRequestEditor.setRequest(null);
         detailResponseEditor.setResponse(null);
-        baselineResponses.clear();
-        dynamicLinePrefixesPostfixes.clear();
-        dynamicLines.clear();
-        requestResponseMap.clear();
         notificationLabel.setText("");
         analyzeButton.setEnabled(true);
         clearButton.setEnabled(true);
     }
 
+    // Safe to call from any thread; rows reach the table within ROW_FLUSH_INTERVAL_MS
+    private void publishRow(ResultRow row) {
+        pendingRows.add(row);
+        if (flushScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(rowFlushTimer::restart);
+        }
+    }
+
+    private void flushRows() {
+        flushScheduled.set(false);
+        List<ResultRow> batch = new ArrayList<>();
+        for (ResultRow row; (row = pendingRows.poll()) != null; ) {
+            batch.add(row);
+        }
+        tableModel.addAll(batch);
+    }
+
+    // Called on the EDT once no analysis is running
+    private void clearRows() {
+        pendingRows.clear();
+        tableModel.clear();
+        if (responseStore != null) {
+            try {
+                responseStore.clear();
+            } catch (IOException e) {
+                api.logging().logToError("Error clearing the response store: " + e);
+            }
+        }
+    }
+
+    // Spills a result row's request and response to disk; null if there is nowhere to keep them
+    private StoredRow storeRow(HttpService service, byte[] request, byte[] response) {
+        if (responseStore == null) {
+            return null;
+        }
+        try {
+            return new StoredRow(service, responseStore.add(request, response));
+        } catch (IOException e) {
+            api.logging().logToError("Error storing a result: " + e);
+            return null;
+        }
+    }
+
+    private HttpRequestResponse loadRow(StoredRow stored) {
+        if (stored == null) {
+            return null;
+        }
+        try {
+            ResponseStore.Entry entry = responseStore.get(stored.entry());
+            return HttpRequestResponse.httpRequestResponse(
+                HttpRequest.httpRequest(stored.service(), ByteArray.byteArray(entry.request())),
+                entry.response() != null ? HttpResponse.httpResponse(ByteArray.byteArray(entry.response())) : null);
+        } catch (IOException e) {
+            api.logging().logToError("Error loading a result: " + e);
+            return null;
+        }
+    }
+
     @Override
     public List<Component> provideMenuItems(ContextMenuEvent event) {
         List<Component> menuItems = new ArrayList<>();
@@ -294,6 +1014,12 @@ public class PacketPurifier implements BurpExtension, ContextMenuItemsProvider,
             analyzeItem.addActionListener(e -> loadRequest(event.messageEditorRequestResponse().get().requestResponse().request()));
             menuItems.add(analyzeItem);
         }
+        List<HttpRequestResponse> selected = event.selectedRequestResponses();
+        if (!selected.isEmpty()) {
+            JMenuItem batchItem = new JMenuItem("Send selected to PacketPurifier (" + selected.size() + ")");
+            batchItem.addActionListener(e -> analyzeBatch(selected));
+            menuItems.add(batchItem);
+        }
         return menuItems;
     }
 
@@ -305,15 +1031,15 @@ public class PacketPurifier implements BurpExtension, ContextMenuItemsProvider,
             } catch (Exception e) {
                 api.logging().logToError("Error setting request in editor: " + e.getMessage());
             }
-            tableModel.setRowCount(0);
+            // Keep the results of queued analyses that are still running
+            if (!jobQueue.isIdle()) {
+                return;
+            }
+            clearRows();
             progressBar.setValue(0);
             progressBar.setString("Ready");
             detailRequestEditor.setRequest(null);
             detailResponseEditor.setResponse(null);
-            baselineResponses.clear();
-            dynamicLinePrefixesPostfixes.clear();
-            dynamicLines.clear();
-            requestResponseMap.clear();
             notificationLabel.setText("");
             analyzeButton.setEnabled(true);
             clearButton.setEnabled(true);
@@ -321,280 +1047,55 @@ public class PacketPurifier implements BurpExtension, ContextMenuItemsProvider,
     }
 
     private void analyzeRequest(HttpRequest originalRequest) {
-        SwingUtilities.invokeLater(() -> {
-            analyzeButton.setEnabled(false);
-            clearButton.setEnabled(false);
-        });
-
-        executor.submit(() -> {
-            try {
-                List<InfluentialElement> influentialElements = new ArrayList<>();
-                int totalTasks = 0;
-                String filter = (String) filterComboBox.getSelectedItem();
-                if (filter.equals("All") || filter.equals("Parameters")) {
-                    totalTasks += originalRequest.parameters().stream()
-                        .filter(p -> p.type() != HttpParameterType.COOKIE)
-                        .count();
-                }
-                if (filter.equals("All") || filter.equals("Cookies")) {
-                    totalTasks += originalRequest.parameters(HttpParameterType.COOKIE).size();
-                }
-                if (filter.equals("All") || filter.equals("Headers")) {
-                    totalTasks += originalRequest.headers().stream()
-                        .filter(h -> !h.name().equalsIgnoreCase("Host"))
-                        .count();
-                }
-                tasksRemaining.set(totalTasks);
-
-                // Get number of baseline requests from spinner
-                int numBaselineRequests = (Integer) baselineSpinner.getValue();
-                baselineResponses.clear();
-                List<String[]> responseLines = new ArrayList<>();
-
-                // Send baseline requests dynamically
-                for (int i = 0; i < numBaselineRequests; i++) {
-                    final int requestIndex = i + 1;
-                    SwingUtilities.invokeLater(() -> progressBar.setString(String.format("Sending Baseline Request %d/%d", requestIndex, numBaselineRequests)));
-                    HttpResponse response = api.http().sendRequest(originalRequest).response();
-                    baselineResponses.add(response);
-                    responseLines.add(response.toString().split("\n"));
-                    Thread.sleep(1500);
-                }
-
-                // Reset progress bar for element analysis
-                updateProgress(0, totalTasks);
-
-                // Identify dynamic lines
-                dynamicLinePrefixesPostfixes.clear();
-                dynamicLines.clear();
-                int minLines = responseLines.stream().mapToInt(lines -> lines.length).min().orElse(0);
-                for (int i = 0; i < minLines; i++) {
-                    boolean allEqual = true;
-                    String firstLine = responseLines.get(0)[i];
-                    for (int j = 1; j < responseLines.size(); j++) {
-                        if (!firstLine.equals(responseLines.get(j)[i])) {
-                            allEqual = false;
-                            break;
-                        }
-                    }
-                    if (!allEqual) {
-                        if (accurateMethod.isSelected()) {
-                            PrefixPostfixPair pair = extractCommonAndVariable(responseLines, i);
-                            dynamicLinePrefixesPostfixes.put(i, pair);
-                        } else {
-                            dynamicLines.add(i);
-                        }
-                    }
-                }
-
-                if (filter.equals("All") || filter.equals("Parameters")) {
-                    for (HttpParameter param : originalRequest.parameters()) {
-                        if (param.type() != HttpParameterType.COOKIE) {
-                            HttpRequest modifiedRequest = originalRequest.withRemovedParameters(param);
-                            boolean hasImpact = testElementRemoval(originalRequest, modifiedRequest, baselineResponses.get(0), "Parameter", param.name(), totalTasks);
-                            if (hasImpact) {
-                                influentialElements.add(new InfluentialElement("Parameter", param.name()));
-                            }
-                        }
-                    }
-                }
-
-                if (filter.equals("All") || filter.equals("Cookies")) {
-                    for (HttpParameter cookie : originalRequest.parameters(HttpParameterType.COOKIE)) {
-                        HttpRequest modifiedRequest = originalRequest.withRemovedParameters(cookie);
-                        boolean hasImpact = testElementRemoval(originalRequest, modifiedRequest, baselineResponses.get(0), "Cookie", cookie.name(), totalTasks);
-                        if (hasImpact) {
-                            influentialElements.add(new InfluentialElement("Cookie", cookie.name()));
-                        }
-                    }
-                }
-
-                if (filter.equals("All") || filter.equals("Headers")) {
-                    for (HttpHeader header : originalRequest.headers()) {
-                        if (!header.name().equalsIgnoreCase("Host")) {
-                            HttpRequest modifiedRequest = originalRequest.withRemovedHeader(header.name());
-                            boolean hasImpact = testElementRemoval(originalRequest, modifiedRequest, baselineResponses.get(0), "Header", header.name(), totalTasks);
-                            if (hasImpact) {
-                                influentialElements.add(new InfluentialElement("Header", header.name()));
-                            }
-                        }
-                    }
-                }
-
-                // Create and send minimized packet to Repeater
-                HttpRequest minimizedRequest = createMinimizedRequest(originalRequest, influentialElements);
-                api.repeater().sendToRepeater(minimizedRequest);
-
-                // Notify user and re-enable buttons
-                final int finalTotalTasks = totalTasks;
-                SwingUtilities.invokeLater(() -> {
-                    updateProgress(finalTotalTasks, finalTotalTasks);
-                    notificationLabel.setText("Analysis complete. Minimized packet sent to Repeater.");
-                    new Timer(2000, e -> notificationLabel.setText("")).start();
-                    analyzeButton.setEnabled(true);
-                    clearButton.setEnabled(true);
-                });
-            } catch (Exception e) {
-                final int finalTotalTasks = tasksRemaining.get();
-                SwingUtilities.invokeLater(() -> {
-                    tableModel.addRow(new Object[]{
-                        originalRequest.url(), "Error", "N/A"
-                    });
-                    updateProgress(finalTotalTasks, finalTotalTasks);
-                    notificationLabel.setText("Error during analysis.");
-                    new Timer(2000, e1 -> notificationLabel.setText("")).start();
-                    analyzeButton.setEnabled(true);
-                    clearButton.setEnabled(true);
-                });
-            }
-        });
+        jobQueue.enqueue(List.of(new Analysis(originalRequest, currentConfig(), true)));
     }
 
-    private boolean testElementRemoval(HttpRequest originalRequest, HttpRequest modifiedRequest, HttpResponse originalResponse, String elementType, String elementName, int totalTasks) {
-        try {
-            HttpResponse modifiedResponse = api.http().sendRequest(modifiedRequest).response();
-            boolean hasImpact = hasSignificantImpact(originalResponse, modifiedResponse);
-
-            if (hasImpact) {
-                int rowIndex = tableModel.getRowCount();
-                SwingUtilities.invokeLater(() -> {
-                    tableModel.addRow(new Object[]{
-                        originalRequest.url(), elementType, elementName
-                    });
-                    requestResponseMap.put(rowIndex, HttpRequestResponse.httpRequestResponse(modifiedRequest, modifiedResponse));
-                });
+    private void analyzeBatch(List<HttpRequestResponse> requestResponses) {
+        AnalysisConfig config = currentConfig();
+        List<Analysis> analyses = new ArrayList<>();
+        for (HttpRequestResponse requestResponse : requestResponses) {
+            HttpRequest request = requestResponse.request();
+            if (request != null && request.httpService() != null) {
+                analyses.add(new Analysis(request, config, false));
             }
-            return hasImpact;
-        } catch (Exception e) {
-            SwingUtilities.invokeLater(() -> {
-                tableModel.addRow(new Object[]{
-                    originalRequest.url(), elementType, elementName
-                });
-                requestResponseMap.put(tableModel.getRowCount() - 1, HttpRequestResponse.httpRequestResponse(modifiedRequest, null));
-            });
-            return false;
-        } finally {
-            updateProgress(tasksRemaining.decrementAndGet(), totalTasks);
         }
-    }
-
-    private HttpRequest createMinimizedRequest(HttpRequest originalRequest, List<InfluentialElement> influentialElements) {
-        HttpRequest minimizedRequest = originalRequest;
-
-        List<String> keepParameters = new ArrayList<>();
-        List<String> keepCookies = new ArrayList<>();
-        List<String> keepHeaders = new ArrayList<>();
-
-        for (InfluentialElement element : influentialElements) {
-            if (element.type.equals("Parameter")) {
-                keepParameters.add(element.name);
-            } else if (element.type.equals("Cookie")) {
-                keepCookies.add(element.name);
-            } else if (element.type.equals("Header")) {
-                keepHeaders.add(element.name);
-            }
+        if (!analyses.isEmpty()) {
+            jobQueue.enqueue(analyses);
         }
-
-        for (HttpParameter param : originalRequest.parameters()) {
-            if (param.type() != HttpParameterType.COOKIE && !keepParameters.contains(param.name())) {
-                minimizedRequest = minimizedRequest.withRemovedParameters(param);
-            }
-        }
-
-        for (HttpParameter cookie : originalRequest.parameters(HttpParameterType.COOKIE)) {
-            if (!keepCookies.contains(cookie.name())) {
-                minimizedRequest = minimizedRequest.withRemovedParameters(cookie);
-            }
-        }
-
-        for (HttpHeader header : originalRequest.headers()) {
-            if (!header.name().equalsIgnoreCase("Host") && !keepHeaders.contains(header.name())) {
-                minimizedRequest = minimizedRequest.withRemovedHeader(header.name());
-            }
-        }
-
-        return minimizedRequest;
     }
 
-
-
-    private void updateProgress(int remaining, int total) {
-        SwingUtilities.invokeLater(() -> {
-            int progress = total > 0 ? (int) ((double) (total - remaining) / total * 100) : 100;
-            progressBar.setValue(progress);
-            progressBar.setString(progress < 100 ? "Analyzing: " + progress + "%" : "Complete");
-        });
-    }
-
-    private boolean hasSignificantImpact(HttpResponse original, HttpResponse modified) {
-        if (original.statusCode() != modified.statusCode()) {
-            return true;
-        }
-
-        String normalizedOriginal = normalizeResponse(original.toString());
-        String normalizedModified = normalizeResponse(modified.toString());
-        return !normalizedOriginal.equals(normalizedModified);
+    private AnalysisConfig currentConfig() {
+        return new AnalysisConfig(
+            (String) filterComboBox.getSelectedItem(),
+            accurateMethod.isSelected(),
+            (Integer) baselineSpinner.getValue(),
+            adaptiveBaseline.isSelected(),
+            (Integer) baselineDelaySpinner.getValue(),
+            reuseModelCheckBox.isSelected(),
+            "Bisect".equals(strategyComboBox.getSelectedItem()),
+            selectedMutations(),
+            (Integer) minConfidenceSpinner.getValue(),
+            (Integer) concurrencySpinner.getValue(),
+            (Integer) rateLimitSpinner.getValue(),
+            (Integer) timeoutSpinner.getValue(),
+            http2CheckBox.isSelected(),
+            (Integer) maxStreamsSpinner.getValue(),
+            (Integer) maxBodySpinner.getValue(),
+            probeCacheCheckBox.isSelected(),
+            refreshCacheCheckBox.isSelected());
     }
 
-    private String normalizeLine(String line, PrefixPostfixPair pair) {
-        if (pair != null && line.startsWith(pair.prefix) && line.endsWith(pair.postfix)) {
-            int start = pair.prefix.length();
-            int end = line.length() - pair.postfix.length();
-            if (start <= end) {
-                return pair.prefix + "<__DYNAMIC_CONTENTS__>" + pair.postfix;
+    private Set<RawRequest.Mutation> selectedMutations() {
+        Set<RawRequest.Mutation> mutations = EnumSet.noneOf(RawRequest.Mutation.class);
+        mutationItems.forEach((mutation, item) -> {
+            if (item.isSelected()) {
+                mutations.add(mutation);
             }
-        }
-        return line;
-    }
-
-    private String normalizeResponse(String responseStr) {
-        String[] lines = responseStr.split("\n");
-        if (accurateMethod.isSelected()) {
-            for (Map.Entry<Integer, PrefixPostfixPair> entry : dynamicLinePrefixesPostfixes.entrySet()) {
-                int lineIndex = entry.getKey();
-                if (lineIndex < lines.length) {
-                    lines[lineIndex] = normalizeLine(lines[lineIndex], entry.getValue());
-                }
-            }
-        } else {
-            for (Integer lineIndex : dynamicLines) {
-                if (lineIndex < lines.length) {
-                    lines[lineIndex] = "<__DYNAMIC_CONTENTS__>";
-                }
-            }
-        }
-        return String.join("\n", lines);
+        });
+        return mutations;
     }
 
-    private PrefixPostfixPair extractCommonAndVariable(List<String[]> responseLines, int lineIndex) {
-        String firstLine = responseLines.get(0)[lineIndex];
-        int prefixLen = firstLine.length();
-        int postfixLen = firstLine.length();
-
-        // Find common prefix
-        for (String[] lines : responseLines) {
-            String line = lines[lineIndex];
-            int commonPrefix = 0;
-            while (commonPrefix < Math.min(firstLine.length(), line.length()) &&
-                   firstLine.charAt(commonPrefix) == line.charAt(commonPrefix)) {
-                commonPrefix++;
-            }
-            prefixLen = Math.min(prefixLen, commonPrefix);
-        }
-
-        // Find common postfix
-        for (String[] lines : responseLines) {
-            String line = lines[lineIndex];
-            int commonPostfix = 0;
-            while (commonPostfix < Math.min(firstLine.length() - prefixLen, line.length() - prefixLen) &&
-                   firstLine.charAt(firstLine.length() - 1 - commonPostfix) == line.charAt(line.length() - 1 - commonPostfix)) {
-                commonPostfix++;
-            }
-            postfixLen = Math.min(postfixLen, commonPostfix);
-        }
-
-        String prefix = firstLine.substring(0, prefixLen);
-        String postfix = firstLine.substring(firstLine.length() - postfixLen);
-        return new PrefixPostfixPair(prefix, postfix);
+    private static String serviceKey(HttpService service) {
+        return (service.secure() ? "https://" : "http://") + service.host() + ":" + service.port();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,192 @@
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// Runs an analysis without Burp, e.g. against the servers in test-servers/:
+//   java -cp build/classes/java/main PacketPurifierCli -H "User-Agent: cli" -b "cookie2=b" "http://127.0.0.1:5000/test?id=1&track=2"
+// Influential elements go to stdout, followed by the minimized request; progress and timing go to stderr.
+public class PacketPurifierCli {
+    private static final String USAGE = """
+        Usage: PacketPurifierCli [options] <url>
+          -X <method>          request method (default GET, or POST with -d)
+          -H <header>          request header line, repeatable
+          -b <cookies>         Cookie header value
+          -d <body>            request body (form-encoded unless -H sets Content-Type)
+          --filter <filter>    All, Parameters, Cookies or Headers (default All)
+          --accurate           accurate normalization
+          --baselines <n>      number of baselines, 2 to 10 (default 3); with --adaptive the upper bound, 3 to 10 (default 10)
+          --adaptive           stop sampling baselines once 2 in a row after the first leave the dynamic content unchanged
+          --delay <ms>         time between baseline starts, 0 = all at once (default 1500)
+          --models <dir>       reuse comparison models stored in dir, confirmed by one baseline
+          --clear-models       remove the models stored in the --models dir before analyzing
+          --bisect             bisect strategy instead of one probe per element
+          --mutations <list>   also probe altered values: comma-separated empty, random, type_changed, duplicated
+          --min-confidence <p> percentage of attempts that must reproduce a borderline change (default 50)
+          --threads <n>        concurrent probes (default 5)
+          --rps <n>            requests per second per host, 0 = unlimited (default 10)
+          --timeout <ms>       connect, read and whole-request timeout (default 10000)
+          --http2              share one HTTP/2 connection per host (keep-alive HTTP/1.1 without HTTP/2)
+          --max-streams <n>    concurrent streams per HTTP/2 connection (default 20)
+          --max-body <KB>      cut response bodies to this size before comparing, 0 = no limit (default 0)
+          --no-cache           do not reuse cached probe results
+          --metrics <file>     write per-request timings to a .csv or .json file
+        """;
+
+    public static void main(String[] args) throws Exception {
+        String method = null;
+        List<String> headers = new ArrayList<>();
+        byte[] body = new byte[0];
+        String filter = "All";
+        boolean accurate = false;
+        int baselines = 0;
+        boolean adaptive = false;
+        int delay = 1500;
+        String modelDirectory = null;
+        boolean clearModels = false;
+        boolean bisect = false;
+        Set<RawRequest.Mutation> mutations = EnumSet.noneOf(RawRequest.Mutation.class);
+        int minConfidence = 50;
+        int threads = 5;
+        int rps = 10;
+        int timeout = 10_000;
+        boolean http2 = false;
+        int maxStreams = 20;
+        int maxBodyKilobytes = 0;
+        boolean cache = true;
+        String metricsFile = null;
+        String url = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-X" -> method = args[++i];
+                    case "-H" -> headers.add(args[++i]);
+                    case "-b" -> headers.add("Cookie: " + args[++i]);
+                    case "-d" -> body = args[++i].getBytes(StandardCharsets.UTF_8);
+                    case "--filter" -> filter = args[++i];
+                    case "--accurate" -> accurate = true;
+                    case "--baselines" -> baselines = Integer.parseInt(args[++i]);
+                    case "--adaptive" -> adaptive = true;
+                    case "--delay" -> delay = Integer.parseInt(args[++i]);
+                    case "--models" -> modelDirectory = args[++i];
+                    case "--clear-models" -> clearModels = true;
+                    case "--bisect" -> bisect = true;
+                    case "--mutations" -> {
+                        for (String mutation : args[++i].split(",")) {
+                            mutations.add(RawRequest.Mutation.valueOf(mutation.strip().toUpperCase(Locale.ROOT)));
+                        }
+                    }
+                    case "--min-confidence" -> minConfidence = Integer.parseInt(args[++i]);
+                    case "--threads" -> threads = Integer.parseInt(args[++i]);
+                    case "--rps" -> rps = Integer.parseInt(args[++i]);
+                    case "--timeout" -> timeout = Integer.parseInt(args[++i]);
+                    case "--http2" -> http2 = true;
+                    case "--max-streams" -> maxStreams = Integer.parseInt(args[++i]);
+                    case "--max-body" -> maxBodyKilobytes = Integer.parseInt(args[++i]);
+                    case "--no-cache" -> cache = false;
+                    case "--metrics" -> metricsFile = args[++i];
+                    default -> {
+                        if (args[i].startsWith("-") || url != null) {
+                            throw new IllegalArgumentException("Unknown option: " + args[i]);
+                        }
+                        url = args[i];
+                    }
+                }
+            }
+            if (url == null) {
+                throw new IllegalArgumentException("Missing URL");
+            }
+            if (baselines == 0) {
+                baselines = adaptive ? AnalysisEngine.ADAPTIVE_DEFAULT_BASELINES : 3;
+            }
+            if (!List.of("All", "Parameters", "Cookies", "Headers").contains(filter) || baselines < 2 || baselines > 10) {
+                throw new IllegalArgumentException("Invalid --filter or --baselines");
+            }
+            if (adaptive && baselines < AnalysisEngine.ADAPTIVE_MIN_BASELINES) {
+                throw new IllegalArgumentException("--adaptive needs --baselines of at least " + AnalysisEngine.ADAPTIVE_MIN_BASELINES);
+            }
+            if (clearModels && modelDirectory == null) {
+                throw new IllegalArgumentException("--clear-models needs --models");
+            }
+            if (maxStreams < 1) {
+                throw new IllegalArgumentException("Invalid --max-streams");
+            }
+            if (maxBodyKilobytes < 0 || maxBodyKilobytes > 1024 * 1024) {
+                throw new IllegalArgumentException("Invalid --max-body");
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        RawRequest request = RawRequest.fromUrl(method != null ? method : body.length > 0 ? "POST" : "GET", url, headers, body);
+        AnalysisConfig config = new AnalysisConfig(filter, accurate, baselines, adaptive, delay, modelDirectory != null, bisect, mutations, minConfidence, threads, rps, timeout, http2, maxStreams, maxBodyKilobytes, cache, false);
+
+        ModelStore modelStore = modelDirectory != null ? new FileModelStore(Path.of(modelDirectory)) : null;
+        if (clearModels) {
+            System.err.println("Cleared " + modelStore.clear() + " stored models");
+        }
+        JdkHttpTransport transport = new JdkHttpTransport(Duration.ofMillis(timeout));
+        AnalysisEngine engine = new AnalysisEngine(transport, modelStore);
+        long start = System.nanoTime();
+        try {
+            engine.analyze(request, config, event -> {
+                switch (event) {
+                    case AnalysisEvent.Status status -> System.err.println(status.message());
+                    case AnalysisEvent.Progress progress -> {
+                        // Per-probe progress is too noisy for a terminal
+                    }
+                    case AnalysisEvent.Log log -> System.err.println(log.message());
+                    case AnalysisEvent.Finding finding -> System.out.println(finding.element().type() + "\t" + finding.element().name()
+                        + "\t" + finding.mutations().stream().map(RawRequest.Mutation::label).collect(Collectors.joining(", "))
+                        + (finding.hasImpact() ? "\t" + Math.round(finding.confidence() * 100) + "%" : "")
+                        + (finding.responseNanos() >= 0 ? "\t" + finding.responseNanos() / 1_000_000 + " ms" : "")
+                        + (finding.failed() ? "\t(failed)" : finding.cached() ? "\t(cached)" : finding.slow() && !finding.hasImpact() ? "\t(slow)" : ""));
+                    case AnalysisEvent.Minimized minimized -> {
+                        System.out.println();
+                        System.out.println("Minimized request (" + minimized.kept() + " of " + minimized.total() + " elements kept):");
+                        System.out.println(new String(minimized.request().bytes(), StandardCharsets.ISO_8859_1));
+                    }
+                    case AnalysisEvent.Stopped stopped -> System.err.println("Stopped after " + stopped.completedProbes() + " probes");
+                }
+            });
+        } finally {
+            transport.close();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        ProbeMetrics.Snapshot metrics = engine.metrics().snapshot();
+        System.err.printf(Locale.ROOT, "Sent %d requests in %.2f s (%.1f req/s), received %d bytes%n",
+            metrics.requests(), seconds, metrics.requests() / seconds, metrics.bytesReceived());
+        printPercentiles("Baseline", metrics.baseline());
+        printPercentiles("Probe", metrics.probe());
+        printPercentiles("Normalize", metrics.normalize());
+        printPercentiles("Compare", metrics.compare());
+
+        if (metricsFile != null) {
+            try (Writer out = Files.newBufferedWriter(Path.of(metricsFile), StandardCharsets.UTF_8)) {
+                if (metricsFile.toLowerCase(Locale.ROOT).endsWith(".json")) {
+                    engine.metrics().writeJson(out);
+                } else {
+                    engine.metrics().writeCsv(out);
+                }
+            }
+        }
+    }
+
+    private static void printPercentiles(String stage, ProbeMetrics.Percentiles percentiles) {
+        if (percentiles.count() > 0) {
+            System.err.printf(Locale.ROOT, "%-10s n=%-5d p50 %.2f ms  p95 %.2f ms  p99 %.2f ms%n",
+                stage, percentiles.count(), percentiles.p50Millis(), percentiles.p95Millis(), percentiles.p99Millis());
+        }
+    }
+}
@@ -0,0 +1,228 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Timing of baseline sends, probe sends, model building and response comparison, shared by all analyses of
+// an engine. Everything is lock-free so that probe threads never wait on each other to record.
+public class ProbeMetrics {
+    public enum Stage { BASELINE, PROBE, NORMALIZE, COMPARE }
+
+    // One request that went over the wire
+    public record Sample(long timestampMillis, String url, Stage stage, String element, int statusCode,
+                         int bytes, long sendNanos, long compareNanos) {
+    }
+
+    public record Percentiles(long count, double p50Millis, double p95Millis, double p99Millis) {
+    }
+
+    public record Snapshot(long requests, long bytesReceived, int inFlight, Percentiles baseline, Percentiles probe,
+                           Percentiles normalize, Percentiles compare) {
+    }
+
+    private static final int SAMPLE_CAPACITY = 100_000;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // Ring of the most recent samples
+    private final AtomicReferenceArray<Sample> samples = new AtomicReferenceArray<>(SAMPLE_CAPACITY);
+    private final AtomicLong nextSample = new AtomicLong();
+
+    public ProbeMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    void sendStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    void sendFinished() {
+        inFlight.decrementAndGet();
+    }
+
+    void recordSend(Sample sample) {
+        histograms[sample.stage().ordinal()].record(sample.sendNanos());
+        if (sample.compareNanos() >= 0) {
+            histograms[Stage.COMPARE.ordinal()].record(sample.compareNanos());
+        }
+        requests.increment();
+        bytesReceived.add(sample.bytes());
+        long index = nextSample.getAndIncrement();
+        samples.set((int) (index % SAMPLE_CAPACITY), sample);
+    }
+
+    void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(requests.sum(), bytesReceived.sum(), inFlight.get(),
+            histograms[Stage.BASELINE.ordinal()].percentiles(),
+            histograms[Stage.PROBE.ordinal()].percentiles(),
+            histograms[Stage.NORMALIZE.ordinal()].percentiles(),
+            histograms[Stage.COMPARE.ordinal()].percentiles());
+    }
+
+    // Not atomic with respect to concurrent recording; meant for an idle engine
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        requests.reset();
+        bytesReceived.reset();
+        for (int i = 0; i < SAMPLE_CAPACITY; i++) {
+            samples.set(i, null);
+        }
+        nextSample.set(0);
+    }
+
+    public void writeCsv(Writer out) throws IOException {
+        out.write("timestamp_ms,url,stage,element,status,bytes,send_ms,compare_ms\n");
+        for (Sample sample : recentSamples()) {
+            out.write(String.format(Locale.ROOT, "%d,%s,%s,%s,%d,%d,%.3f,%s\n",
+                sample.timestampMillis(), csv(sample.url()), sample.stage(), csv(sample.element()), sample.statusCode(),
+                sample.bytes(), sample.sendNanos() / 1e6,
+                sample.compareNanos() >= 0 ? String.format(Locale.ROOT, "%.3f", sample.compareNanos() / 1e6) : ""));
+        }
+    }
+
+    public void writeJson(Writer out) throws IOException {
+        Snapshot snapshot = snapshot();
+        out.write("{\n  \"requests\": " + snapshot.requests() + ",\n  \"bytesReceived\": " + snapshot.bytesReceived() + ",\n");
+        out.write("  \"stages\": {\n");
+        Stage[] stages = Stage.values();
+        for (int i = 0; i < stages.length; i++) {
+            Percentiles p = histograms[i].percentiles();
+            out.write(String.format(Locale.ROOT, "    \"%s\": {\"count\": %d, \"p50_ms\": %.3f, \"p95_ms\": %.3f, \"p99_ms\": %.3f}%s\n",
+                stages[i].name().toLowerCase(Locale.ROOT), p.count(), p.p50Millis(), p.p95Millis(), p.p99Millis(),
+                i < stages.length - 1 ? "," : ""));
+        }
+        out.write("  },\n  \"samples\": [");
+        boolean first = true;
+        for (Sample sample : recentSamples()) {
+            out.write(first ? "\n" : ",\n");
+            first = false;
+            out.write(String.format(Locale.ROOT,
+                "    {\"timestamp_ms\": %d, \"url\": %s, \"stage\": \"%s\", \"element\": %s, \"status\": %d, \"bytes\": %d, \"send_ms\": %.3f, \"compare_ms\": %s}",
+                sample.timestampMillis(), json(sample.url()), sample.stage(), json(sample.element()), sample.statusCode(),
+                sample.bytes(), sample.sendNanos() / 1e6,
+                sample.compareNanos() >= 0 ? String.format(Locale.ROOT, "%.3f", sample.compareNanos() / 1e6) : "null"));
+        }
+        out.write("\n  ]\n}\n");
+    }
+
+    // Oldest first
+    private Sample[] recentSamples() {
+        long end = nextSample.get();
+        long start = Math.max(0, end - SAMPLE_CAPACITY);
+        Sample[] recent = new Sample[(int) (end - start)];
+        int count = 0;
+        for (long i = start; i < end; i++) {
+            Sample sample = samples.get((int) (i % SAMPLE_CAPACITY));
+            if (sample != null) {
+                recent[count++] = sample;
+            }
+        }
+        return Arrays.copyOf(recent, count);
+    }
+
+    private static String csv(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.contains(",") || value.contains("\"") || value.contains("\n")
+            ? "\"" + value.replace("\"", "\"\"") + "\""
+            : value;
+    }
+
+    private static String json(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder escaped = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> escaped.append("\\\"");
+                case '\\' -> escaped.append("\\\\");
+                default -> {
+                    if (c < 0x20) {
+                        escaped.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        escaped.append(c);
+                    }
+                }
+            }
+        }
+        return escaped.append('"').toString();
+    }
+
+    // Log-linear buckets over microseconds: 8 sub-buckets per power of two, so percentiles are within 12.5%
+    static class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+
+        void record(long nanos) {
+            counts.incrementAndGet(index(Math.max(0, nanos / 1000)));
+        }
+
+        void reset() {
+            for (int i = 0; i < counts.length(); i++) {
+                counts.set(i, 0);
+            }
+        }
+
+        Percentiles percentiles() {
+            long[] snapshot = new long[counts.length()];
+            long total = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = counts.get(i);
+                total += snapshot[i];
+            }
+            return new Percentiles(total, percentile(snapshot, total, 0.50), percentile(snapshot, total, 0.95),
+                percentile(snapshot, total, 0.99));
+        }
+
+        // Midpoint of the bucket holding the given rank, in milliseconds
+        private static double percentile(long[] snapshot, long total, double quantile) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return (lowerBound(i) + lowerBound(i + 1) - 1) / 2.0 / 1000.0;
+                }
+            }
+            return 0;
+        }
+
+        static int index(long micros) {
+            if (micros < SUB_BUCKETS) {
+                return (int) micros;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+            return (shift + 1) * SUB_BUCKETS + (int) ((micros >>> shift) & (SUB_BUCKETS - 1));
+        }
+
+        static long lowerBound(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int shift = index / SUB_BUCKETS - 1;
+            return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        }
+    }
+}
@@ -0,0 +1,477 @@
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+// An HTTP/1.x request kept as bytes, together with the parameters, body fields, cookies and headers that can
+// be removed from it. Independent of Burp so that the analysis engine also runs headless.
+public final class RawRequest {
+    // BODY is a form parameter; JSON, XML and MULTIPART are leaves of a structured body
+    public enum Kind { URL, BODY, JSON, XML, MULTIPART, COOKIE, HEADER }
+
+    // A removable element; index is its position among the elements of the same kind
+    public record Element(Kind kind, String name, int index) {
+        public String type() {
+            return switch (kind) {
+                case URL, BODY -> "Parameter";
+                case JSON -> "JSON";
+                case XML -> "XML";
+                case MULTIPART -> "Multipart";
+                case COOKIE -> "Cookie";
+                case HEADER -> "Header";
+            };
+        }
+
+        public boolean isBodyLeaf() {
+            return kind == Kind.JSON || kind == Kind.XML || kind == Kind.MULTIPART;
+        }
+    }
+
+    public record Header(String name, String value) {
+    }
+
+    // What a probe does to an element: remove it, or keep it with an altered value
+    public enum Mutation {
+        REMOVED, EMPTY, RANDOM, TYPE_CHANGED, DUPLICATED;
+
+        public String label() {
+            return name().toLowerCase(Locale.ROOT).replace('_', ' ');
+        }
+    }
+
+    // name=value pair as written in the query, body or Cookie header
+    private record Pair(String name, String value, String raw, int headerIndex) {
+    }
+
+    private static final byte[] CRLF_CRLF = {'\r', '\n', '\r', '\n'};
+    private static final byte[] LF_LF = {'\n', '\n'};
+
+    private final String host;
+    private final int port;
+    private final boolean secure;
+    private final byte[] bytes;
+
+    private final String method;
+    private final String path;
+    private final String query; // null when the target has no '?'
+    private final String version;
+    private final List<Header> headers = new ArrayList<>();
+    private final List<Pair> queryParameters = new ArrayList<>();
+    private final List<Pair> cookies = new ArrayList<>();
+    private final List<Pair> bodyParameters; // null unless the body is form-encoded
+    private final byte[] body;
+    // Leaves of a JSON, XML or multipart body, parsed on first use; probes never need them
+    private List<StructuredBody.Leaf> bodyLeaves;
+
+    public RawRequest(String host, int port, boolean secure, byte[] bytes) {
+        this.host = host;
+        this.port = port;
+        this.secure = secure;
+        this.bytes = bytes;
+
+        int headEnd = indexOf(bytes, CRLF_CRLF);
+        int bodyStart = headEnd + CRLF_CRLF.length;
+        if (headEnd < 0) {
+            headEnd = indexOf(bytes, LF_LF);
+            bodyStart = headEnd + LF_LF.length;
+        }
+        if (headEnd < 0) {
+            headEnd = bytes.length;
+            bodyStart = bytes.length;
+        }
+        String head = new String(bytes, 0, headEnd, StandardCharsets.ISO_8859_1);
+        String[] lines = head.split("\r?\n");
+        String[] requestLine = lines[0].split(" ", 3);
+        if (requestLine.length < 2) {
+            throw new IllegalArgumentException("Malformed request line: " + lines[0]);
+        }
+        this.method = requestLine[0];
+        this.version = requestLine.length > 2 ? requestLine[2] : "HTTP/1.1";
+        String target = requestLine[1];
+        int queryStart = target.indexOf('?');
+        this.path = queryStart < 0 ? target : target.substring(0, queryStart);
+        this.query = queryStart < 0 ? null : target.substring(queryStart + 1);
+        if (query != null) {
+            parsePairs(query, "&", -1, queryParameters);
+        }
+
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i];
+            int colon = line.indexOf(':');
+            Header header = colon < 0 ? new Header(line, "") : new Header(line.substring(0, colon), line.substring(colon + 1).strip());
+            if (header.name().equalsIgnoreCase("Cookie")) {
+                parsePairs(header.value(), ";", headers.size(), cookies);
+            }
+            headers.add(header);
+        }
+
+        this.body = bodyStart < bytes.length ? Arrays.copyOfRange(bytes, bodyStart, bytes.length) : new byte[0];
+        String contentType = headerValue("Content-Type");
+        if (contentType != null && contentType.toLowerCase(Locale.ROOT).startsWith("application/x-www-form-urlencoded")) {
+            this.bodyParameters = new ArrayList<>();
+            parsePairs(new String(body, StandardCharsets.ISO_8859_1), "&", -1, bodyParameters);
+        } else {
+            this.bodyParameters = null;
+        }
+    }
+
+    // Builds a request the way curl would from a URL, extra header lines and an optional body
+    public static RawRequest fromUrl(String method, String url, List<String> headerLines, byte[] body) {
+        URI uri = URI.create(url);
+        boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+        int port = uri.getPort() >= 0 ? uri.getPort() : secure ? 443 : 80;
+        String target = (uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath())
+            + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "");
+
+        StringBuilder head = new StringBuilder();
+        head.append(method).append(' ').append(target).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(uri.getHost()).append(uri.getPort() >= 0 ? ":" + uri.getPort() : "").append("\r\n");
+        boolean hasContentType = false;
+        for (String line : headerLines) {
+            head.append(line).append("\r\n");
+            hasContentType |= line.regionMatches(true, 0, "Content-Type:", 0, 13);
+        }
+        if (body.length > 0) {
+            if (!hasContentType) {
+                head.append("Content-Type: application/x-www-form-urlencoded\r\n");
+            }
+            head.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        head.append("\r\n");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.writeBytes(body);
+        return new RawRequest(uri.getHost(), port, secure, out.toByteArray());
+    }
+
+    public String host() {
+        return host;
+    }
+
+    public int port() {
+        return port;
+    }
+
+    public boolean secure() {
+        return secure;
+    }
+
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    public String method() {
+        return method;
+    }
+
+    public String path() {
+        return path;
+    }
+
+    public String target() {
+        return query == null ? path : path + "?" + query;
+    }
+
+    public List<Header> headers() {
+        return headers;
+    }
+
+    public byte[] body() {
+        return body;
+    }
+
+    public String headerValue(String name) {
+        for (Header header : headers) {
+            if (header.name().equalsIgnoreCase(name)) {
+                return header.value();
+            }
+        }
+        return null;
+    }
+
+    public String serviceKey() {
+        return (secure ? "https://" : "http://") + host + ":" + port;
+    }
+
+    public String url() {
+        boolean defaultPort = port == (secure ? 443 : 80);
+        return (secure ? "https://" : "http://") + host + (defaultPort ? "" : ":" + port) + target();
+    }
+
+    // Removable elements in a fixed order: parameters and body leaves, then cookies, then headers (except Host)
+    public List<Element> elements(String filter) {
+        List<Element> elements = new ArrayList<>();
+        if (filter.equals("All") || filter.equals("Parameters")) {
+            for (int i = 0; i < queryParameters.size(); i++) {
+                elements.add(new Element(Kind.URL, queryParameters.get(i).name(), i));
+            }
+            if (bodyParameters != null) {
+                for (int i = 0; i < bodyParameters.size(); i++) {
+                    elements.add(new Element(Kind.BODY, bodyParameters.get(i).name(), i));
+                }
+            }
+            List<StructuredBody.Leaf> leaves = bodyLeaves();
+            Kind kind = structuredKind();
+            for (int i = 0; i < leaves.size(); i++) {
+                elements.add(new Element(kind, leaves.get(i).path(), i));
+            }
+        }
+
+        if (filter.equals("All") || filter.equals("Cookies")) {
+            for (int i = 0; i < cookies.size(); i++) {
+                elements.add(new Element(Kind.COOKIE, cookies.get(i).name(), i));
+            }
+        }
+
+        if (filter.equals("All") || filter.equals("Headers")) {
+            for (int i = 0; i < headers.size(); i++) {
+                if (!headers.get(i).name().equalsIgnoreCase("Host")) {
+                    elements.add(new Element(Kind.HEADER, headers.get(i).name(), i));
+                }
+            }
+        }
+        return elements;
+    }
+
+    // Rebuilds the request without the given elements; Content-Length follows the new body
+    public RawRequest withRemovedElements(Collection<Element> elements) {
+        Map<Element, List<String>> values = new HashMap<>();
+        for (Element element : elements) {
+            values.put(element, List.of());
+        }
+        return rebuild(values);
+    }
+
+    // Rebuilds the request with one element mutated, or returns null if the mutation does not apply: the value is
+    // already empty, randomizing cannot change it, or the header frames the body. Random values are seeded by the
+    // element and its value, so the same request always gets the same probe.
+    public RawRequest withMutatedElement(Element element, Mutation mutation) {
+        if (mutation != Mutation.REMOVED && element.kind() == Kind.HEADER
+                && (element.name().equalsIgnoreCase("Content-Length") || element.name().equalsIgnoreCase("Transfer-Encoding"))) {
+            return null;
+        }
+        String value = value(element);
+        String mutated = switch (mutation) {
+            case REMOVED, DUPLICATED -> value;
+            case EMPTY -> "";
+            case RANDOM -> randomize(value, new Random((element + "=" + value).hashCode()));
+            case TYPE_CHANGED -> changeType(value);
+        };
+        if (mutation != Mutation.REMOVED && mutation != Mutation.DUPLICATED && mutated.equals(value)) {
+            return null;
+        }
+        return rebuild(Map.of(element, switch (mutation) {
+            case REMOVED -> List.<String>of();
+            case DUPLICATED -> List.of(value, value);
+            default -> List.of(mutated);
+        }));
+    }
+
+    // Writes each element in values with the values given (none = removed), and every other element as it was
+    private RawRequest rebuild(Map<Element, List<String>> values) {
+        StringBuilder head = new StringBuilder();
+        head.append(method).append(' ').append(path);
+        if (query != null) {
+            String remaining = joinPairs(queryParameters, Kind.URL, values, "&", -1);
+            if (!remaining.isEmpty() || queryParameters.isEmpty()) {
+                head.append('?').append(remaining);
+            }
+        }
+        head.append(' ').append(version).append("\r\n");
+
+        byte[] newBody = body;
+        if (bodyParameters != null && values.keySet().stream().anyMatch(e -> e.kind() == Kind.BODY)) {
+            newBody = joinPairs(bodyParameters, Kind.BODY, values, "&", -1).getBytes(StandardCharsets.ISO_8859_1);
+        }
+        Kind leafKind = structuredKind();
+        if (leafKind != null && values.keySet().stream().anyMatch(e -> e.kind() == leafKind)) {
+            Map<Integer, List<String>> leafValues = new HashMap<>();
+            values.forEach((element, replaced) -> {
+                if (element.kind() == leafKind) {
+                    leafValues.put(element.index(), replaced);
+                }
+            });
+            newBody = StructuredBody.rewrite(StructuredBody.detect(headerValue("Content-Type")), body, bodyLeaves(), leafValues);
+        }
+
+        for (int i = 0; i < headers.size(); i++) {
+            Header header = headers.get(i);
+            List<String> replaced = values.get(new Element(Kind.HEADER, header.name(), i));
+            if (replaced != null) {
+                for (String value : replaced) {
+                    head.append(header.name()).append(": ").append(value).append("\r\n");
+                }
+                continue;
+            }
+            String value = header.value();
+            if (header.name().equalsIgnoreCase("Cookie")) {
+                String remaining = joinPairs(cookies, Kind.COOKIE, values, "; ", i);
+                if (remaining.isEmpty() && !value.isEmpty()) {
+                    continue;
+                }
+                value = remaining;
+            } else if (header.name().equalsIgnoreCase("Content-Length") && newBody != body) {
+                value = Integer.toString(newBody.length);
+            }
+            head.append(header.name()).append(": ").append(value).append("\r\n");
+        }
+        head.append("\r\n");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.writeBytes(newBody);
+        return new RawRequest(host, port, secure, out.toByteArray());
+    }
+
+    // Order-insensitive form of the request: service, method, path, sorted parameters and headers, and the
+    // body unless it is made of form parameters. Cookie and Content-Length are covered by the parameters and body.
+    public byte[] canonicalForm() {
+        List<String> parts = new ArrayList<>();
+        for (Pair parameter : queryParameters) {
+            parts.add("P:URL:" + parameter.name() + "=" + parameter.value());
+        }
+        if (bodyParameters != null) {
+            for (Pair parameter : bodyParameters) {
+                parts.add("P:BODY:" + parameter.name() + "=" + parameter.value());
+            }
+        }
+        for (Pair cookie : cookies) {
+            parts.add("P:COOKIE:" + cookie.name() + "=" + cookie.value());
+        }
+        for (Header header : headers) {
+            if (!header.name().equalsIgnoreCase("Cookie") && !header.name().equalsIgnoreCase("Content-Length")) {
+                parts.add("H:" + header.name().toLowerCase(Locale.ROOT) + "=" + header.value());
+            }
+        }
+        parts.sort(null);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes((serviceKey() + " " + method + " " + path).getBytes(StandardCharsets.ISO_8859_1));
+        for (String part : parts) {
+            out.write('\n');
+            out.writeBytes(part.getBytes(StandardCharsets.ISO_8859_1));
+        }
+        if (bodyParameters == null) {
+            out.write('\n');
+            out.writeBytes(body);
+        }
+        return out.toByteArray();
+    }
+
+    private static void parsePairs(String text, String separator, int headerIndex, List<Pair> pairs) {
+        for (String part : text.split(separator)) {
+            String pair = part.strip();
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int equals = pair.indexOf('=');
+            pairs.add(equals < 0
+                ? new Pair(pair, "", pair, headerIndex)
+                : new Pair(pair.substring(0, equals), pair.substring(equals + 1), pair, headerIndex));
+        }
+    }
+
+    // Empty when the body is not structured or does not parse
+    private synchronized List<StructuredBody.Leaf> bodyLeaves() {
+        if (bodyLeaves == null) {
+            bodyLeaves = List.of();
+            StructuredBody.Format format = StructuredBody.detect(headerValue("Content-Type"));
+            if (format != null && body.length > 0) {
+                try {
+                    bodyLeaves = StructuredBody.leaves(format, headerValue("Content-Type"), body);
+                } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                    // Malformed: the body is only ever sent as it is
+                }
+            }
+        }
+        return bodyLeaves;
+    }
+
+    private Kind structuredKind() {
+        StructuredBody.Format format = StructuredBody.detect(headerValue("Content-Type"));
+        if (format == null || bodyLeaves().isEmpty()) {
+            return null;
+        }
+        return switch (format) {
+            case JSON -> Kind.JSON;
+            case XML -> Kind.XML;
+            case MULTIPART -> Kind.MULTIPART;
+        };
+    }
+
+    private String value(Element element) {
+        return switch (element.kind()) {
+            case URL -> queryParameters.get(element.index()).value();
+            case BODY -> bodyParameters.get(element.index()).value();
+            case JSON, XML, MULTIPART -> bodyLeaves().get(element.index()).value();
+            case COOKIE -> cookies.get(element.index()).value();
+            case HEADER -> headers.get(element.index()).value();
+        };
+    }
+
+    private static String joinPairs(List<Pair> pairs, Kind kind, Map<Element, List<String>> values, String separator, int headerIndex) {
+        List<String> parts = new ArrayList<>();
+        for (int i = 0; i < pairs.size(); i++) {
+            Pair pair = pairs.get(i);
+            if (pair.headerIndex() != headerIndex) {
+                continue;
+            }
+            List<String> replaced = values.get(new Element(kind, pair.name(), i));
+            if (replaced == null) {
+                parts.add(pair.raw());
+            } else {
+                for (String value : replaced) {
+                    parts.add(pair.name() + "=" + value);
+                }
+            }
+        }
+        return String.join(separator, parts);
+    }
+
+    // Same length and shape: digits stay digits and letters stay letters of the same case; other characters
+    // and percent-escapes are kept so the value still decodes
+    private static String randomize(String value, Random random) {
+        StringBuilder randomized = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '%' && i + 2 < value.length()) {
+                randomized.append(value, i, i + 3);
+                i += 2;
+            } else if (c >= '0' && c <= '9') {
+                randomized.append((char) ('0' + random.nextInt(10)));
+            } else if (c >= 'a' && c <= 'z') {
+                randomized.append((char) ('a' + random.nextInt(26)));
+            } else if (c >= 'A' && c <= 'Z') {
+                randomized.append((char) ('A' + random.nextInt(26)));
+            } else {
+                randomized.append(c);
+            }
+        }
+        return randomized.toString();
+    }
+
+    // Numbers become text, booleans and text become numbers
+    private static String changeType(String value) {
+        if (value.matches("-?\\d+(\\.\\d+)?")) {
+            return "abc";
+        }
+        return value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false") ? "1" : "0";
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        for (int i = 0; i + pattern.length <= data.length; i++) {
+            if (Arrays.equals(data, i, i + pattern.length, pattern, 0, pattern.length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
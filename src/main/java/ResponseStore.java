@@ -0,0 +1,97 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Append-only temp file of request/response pairs. Only the offsets stay on the heap; entries are read back
+// on demand, and the most recently read ones are kept in a small LRU.
+public class ResponseStore implements AutoCloseable {
+    public record Entry(byte[] request, byte[] response) {
+    }
+
+    // responseLength is -1 when there is no response
+    private record Location(long offset, int requestLength, int responseLength) {
+    }
+
+    private final Path file;
+    private final FileChannel channel;
+    private final List<Location> index = new ArrayList<>();
+    private final LinkedHashMap<Integer, Entry> recent;
+    private long size;
+
+    public ResponseStore(int recentEntries) throws IOException {
+        this.file = Files.createTempFile("packetpurifier-", ".bin");
+        file.toFile().deleteOnExit();
+        this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.recent = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                return size() > recentEntries;
+            }
+        };
+    }
+
+    // Returns the id to read the entry back with
+    public synchronized int add(byte[] request, byte[] response) throws IOException {
+        Location location = new Location(size, request.length, response != null ? response.length : -1);
+        write(request);
+        if (response != null) {
+            write(response);
+        }
+        index.add(location);
+        return index.size() - 1;
+    }
+
+    public synchronized Entry get(int id) throws IOException {
+        Entry entry = recent.get(id);
+        if (entry == null) {
+            Location location = index.get(id);
+            byte[] request = read(location.offset(), location.requestLength());
+            byte[] response = location.responseLength() >= 0
+                ? read(location.offset() + location.requestLength(), location.responseLength())
+                : null;
+            entry = new Entry(request, response);
+            recent.put(id, entry);
+        }
+        return entry;
+    }
+
+    public synchronized void clear() throws IOException {
+        index.clear();
+        recent.clear();
+        channel.truncate(0);
+        size = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        index.clear();
+        recent.clear();
+        channel.close();
+        Files.deleteIfExists(file);
+    }
+
+    private void write(byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            size += channel.write(buffer, size);
+        }
+    }
+
+    private byte[] read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Response store truncated");
+            }
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,445 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// JSON, XML and multipart request bodies broken down into removable leaves: JSON object members and array
+// items holding a scalar (paths like /user/roles/0), XML elements without child elements (/order/item[1]/sku)
+// and multipart parts (by field name). Both enumerating and rewriting are a single streaming pass over the
+// original bytes, so no tree is built for a probe, and everything that is not rewritten is copied verbatim.
+final class StructuredBody {
+    enum Format { JSON, XML, MULTIPART }
+
+    // start/end span the whole leaf and valueStart/valueEnd its value (-1 for a self-closing XML element).
+    // The spans are only used for XML and multipart; JSON is rewritten by a parser that also fixes the commas.
+    record Leaf(String path, String value, int start, int end, int valueStart, int valueEnd) {
+    }
+
+    private static final byte[] CRLF_CRLF = {'\r', '\n', '\r', '\n'};
+
+    private StructuredBody() {
+    }
+
+    // The format the body can be decomposed as, or null
+    static Format detect(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        if (type.startsWith("multipart/")) {
+            return boundary(contentType) != null ? Format.MULTIPART : null;
+        }
+        if (type.contains("json")) {
+            return Format.JSON;
+        }
+        return type.contains("xml") ? Format.XML : null;
+    }
+
+    // Leaves in document order; throws IllegalArgumentException if the body is malformed
+    static List<Leaf> leaves(Format format, String contentType, byte[] body) {
+        return switch (format) {
+            case JSON -> {
+                JsonRewriter parser = new JsonRewriter(body, Map.of(), null);
+                parser.document();
+                yield parser.leaves;
+            }
+            case XML -> xmlLeaves(body);
+            case MULTIPART -> multipartLeaves(body, boundary(contentType));
+        };
+    }
+
+    // Writes the leaves in values (by index in leaves) with the values given, none meaning removed. JSON values
+    // that are not a literal (number, true, false, null or a quoted string) are written as strings.
+    static byte[] rewrite(Format format, byte[] body, List<Leaf> leaves, Map<Integer, List<String>> values) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length);
+        if (format == Format.JSON) {
+            new JsonRewriter(body, values, out).document();
+            return out.toByteArray();
+        }
+        int copied = 0;
+        for (int i = 0; i < leaves.size(); i++) {
+            List<String> replaced = values.get(i);
+            if (replaced == null) {
+                continue;
+            }
+            Leaf leaf = leaves.get(i);
+            out.write(body, copied, leaf.start() - copied);
+            for (String value : replaced) {
+                byte[] encoded = (format == Format.XML ? escapeXml(value) : value).getBytes(StandardCharsets.ISO_8859_1);
+                if (leaf.valueStart() < 0) {
+                    // Self-closing element: <name/> when empty, <name>value</name> otherwise
+                    String name = leaf.path().substring(leaf.path().lastIndexOf('/') + 1).replaceAll("\\[\\d+]$", "");
+                    if (encoded.length == 0) {
+                        out.write(body, leaf.start(), leaf.end() - leaf.start());
+                    } else {
+                        out.writeBytes(("<" + name + ">").getBytes(StandardCharsets.ISO_8859_1));
+                        out.writeBytes(encoded);
+                        out.writeBytes(("</" + name + ">").getBytes(StandardCharsets.ISO_8859_1));
+                    }
+                    continue;
+                }
+                out.write(body, leaf.start(), leaf.valueStart() - leaf.start());
+                out.writeBytes(encoded);
+                out.write(body, leaf.valueEnd(), leaf.end() - leaf.valueEnd());
+            }
+            copied = leaf.end();
+        }
+        out.write(body, copied, body.length - copied);
+        return out.toByteArray();
+    }
+
+    // Copies a JSON document to out (if any) member by member. Each member or item is a chunk running from
+    // just after the preceding '{', '[' or ',' to just before the next ',' or closing bracket, whitespace
+    // included, so an unchanged document is reproduced byte for byte and dropping a chunk only needs the
+    // commas between the remaining ones to be written again.
+    private static final class JsonRewriter {
+        final byte[] data;
+        final Map<Integer, List<String>> values;
+        final ByteArrayOutputStream out;
+        final List<Leaf> leaves = new ArrayList<>();
+        int pos;
+
+        JsonRewriter(byte[] data, Map<Integer, List<String>> values, ByteArrayOutputStream out) {
+            this.data = data;
+            this.values = values;
+            this.out = out;
+        }
+
+        void document() {
+            skipWhitespace();
+            copy(0, pos);
+            int valueStart = pos;
+            if (peek() == '{' || peek() == '[') {
+                container("");
+            } else {
+                skipScalar();
+                copy(valueStart, pos);
+            }
+            int trailing = pos;
+            skipWhitespace();
+            if (pos != data.length) {
+                throw new IllegalArgumentException("Trailing data after JSON value at offset " + pos);
+            }
+            copy(trailing, pos);
+        }
+
+        private void container(String path) {
+            boolean object = data[pos] == '{';
+            byte close = (byte) (object ? '}' : ']');
+            copy(pos, ++pos);
+            int chunkStart = pos;
+            skipWhitespace();
+            if (peek() == close) {
+                copy(chunkStart, ++pos);
+                return;
+            }
+            boolean written = false;
+            for (int index = 0; ; index++) {
+                String memberPath = path + "/" + index;
+                if (object) {
+                    skipWhitespace();
+                    int keyStart = pos;
+                    skipString();
+                    String key = new String(data, keyStart + 1, pos - keyStart - 2, StandardCharsets.ISO_8859_1);
+                    memberPath = path + "/" + key.replace("~", "~0").replace("/", "~1");
+                    skipWhitespace();
+                    expect((byte) ':');
+                }
+                skipWhitespace();
+                int valueStart = pos;
+                if (peek() == '{' || peek() == '[') {
+                    // Containers stay; only their leaves can go
+                    if (written) {
+                        write(',');
+                    }
+                    written = true;
+                    copy(chunkStart, valueStart);
+                    container(memberPath);
+                    int valueEnd = pos;
+                    skipWhitespace();
+                    copy(valueEnd, pos);
+                } else {
+                    skipScalar();
+                    int valueEnd = pos;
+                    skipWhitespace();
+                    int leafIndex = leaves.size();
+                    leaves.add(new Leaf(memberPath, new String(data, valueStart, valueEnd - valueStart, StandardCharsets.ISO_8859_1),
+                        chunkStart, pos, valueStart, valueEnd));
+                    List<String> replaced = values.get(leafIndex);
+                    if (replaced == null) {
+                        if (written) {
+                            write(',');
+                        }
+                        written = true;
+                        copy(chunkStart, pos);
+                    } else {
+                        for (String value : replaced) {
+                            if (written) {
+                                write(',');
+                            }
+                            written = true;
+                            copy(chunkStart, valueStart);
+                            if (out != null) {
+                                out.writeBytes(jsonLiteral(value).getBytes(StandardCharsets.ISO_8859_1));
+                            }
+                            copy(valueEnd, pos);
+                        }
+                    }
+                }
+                if (peek() == ',') {
+                    pos++;
+                    chunkStart = pos;
+                    continue;
+                }
+                expect(close);
+                write(close);
+                return;
+            }
+        }
+
+        private void skipScalar() {
+            if (peek() == '"') {
+                skipString();
+                return;
+            }
+            int start = pos;
+            while (pos < data.length && data[pos] != ',' && data[pos] != '}' && data[pos] != ']'
+                    && data[pos] != ' ' && data[pos] != '\t' && data[pos] != '\r' && data[pos] != '\n') {
+                pos++;
+            }
+            if (pos == start) {
+                throw new IllegalArgumentException("Expected a JSON value at offset " + pos);
+            }
+        }
+
+        private void skipString() {
+            expect((byte) '"');
+            while (pos < data.length && data[pos] != '"') {
+                pos += data[pos] == '\\' ? 2 : 1;
+            }
+            expect((byte) '"');
+        }
+
+        private void skipWhitespace() {
+            while (pos < data.length && (data[pos] == ' ' || data[pos] == '\t' || data[pos] == '\r' || data[pos] == '\n')) {
+                pos++;
+            }
+        }
+
+        private byte peek() {
+            if (pos >= data.length) {
+                throw new IllegalArgumentException("Unexpected end of JSON");
+            }
+            return data[pos];
+        }
+
+        private void expect(byte expected) {
+            if (peek() != expected) {
+                throw new IllegalArgumentException("Expected '" + (char) expected + "' at offset " + pos);
+            }
+            pos++;
+        }
+
+        private void copy(int from, int to) {
+            if (out != null) {
+                out.write(data, from, to - from);
+            }
+        }
+
+        private void write(int b) {
+            if (out != null) {
+                out.write(b);
+            }
+        }
+    }
+
+    private static String jsonLiteral(String value) {
+        if (value.matches("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?|true|false|null")
+                || (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\""))) {
+            return value;
+        }
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    // Open XML element while scanning
+    private static final class OpenElement {
+        final String path;
+        final int start;
+        final int contentStart;
+        final Map<String, Integer> childCounts = new HashMap<>();
+        boolean hasChildren;
+
+        OpenElement(String path, int start, int contentStart) {
+            this.path = path;
+            this.start = start;
+            this.contentStart = contentStart;
+        }
+    }
+
+    private static List<Leaf> xmlLeaves(byte[] data) {
+        List<Leaf> leaves = new ArrayList<>();
+        Deque<OpenElement> open = new ArrayDeque<>();
+        Map<String, Integer> rootCounts = new HashMap<>();
+        int pos = 0;
+        while ((pos = indexOf(data, "<", pos)) >= 0) {
+            if (startsWith(data, pos, "<?")) {
+                pos = skipPast(data, pos, "?>");
+            } else if (startsWith(data, pos, "<!--")) {
+                pos = skipPast(data, pos, "-->");
+            } else if (startsWith(data, pos, "<![CDATA[")) {
+                pos = skipPast(data, pos, "]]>");
+            } else if (startsWith(data, pos, "<!")) {
+                pos = skipPast(data, pos, ">");
+            } else if (startsWith(data, pos, "</")) {
+                int end = skipPast(data, pos, ">");
+                OpenElement element = open.poll();
+                if (element == null) {
+                    throw new IllegalArgumentException("Unmatched closing tag at offset " + pos);
+                }
+                if (!element.hasChildren) {
+                    leaves.add(new Leaf(element.path, new String(data, element.contentStart, pos - element.contentStart, StandardCharsets.ISO_8859_1),
+                        element.start, end, element.contentStart, pos));
+                }
+                pos = end;
+            } else {
+                int end = tagEnd(data, pos);
+                int nameEnd = pos + 1;
+                while (nameEnd < end && data[nameEnd] != ' ' && data[nameEnd] != '\t' && data[nameEnd] != '\r'
+                        && data[nameEnd] != '\n' && data[nameEnd] != '/' && data[nameEnd] != '>') {
+                    nameEnd++;
+                }
+                String name = new String(data, pos + 1, nameEnd - pos - 1, StandardCharsets.ISO_8859_1);
+                OpenElement parent = open.peek();
+                Map<String, Integer> siblings = parent != null ? parent.childCounts : rootCounts;
+                int index = siblings.merge(name, 1, Integer::sum) - 1;
+                String path = (parent != null ? parent.path : "") + "/" + name + (index > 0 ? "[" + index + "]" : "");
+                if (parent != null) {
+                    parent.hasChildren = true;
+                }
+                if (data[end - 2] == '/') {
+                    leaves.add(new Leaf(path, "", pos, end, -1, -1));
+                } else {
+                    open.push(new OpenElement(path, pos, end));
+                }
+                pos = end;
+            }
+        }
+        if (!open.isEmpty()) {
+            throw new IllegalArgumentException("Unclosed XML element " + open.peek().path);
+        }
+        return leaves;
+    }
+
+    // Offset just past the '>' of the tag starting at pos, skipping quoted attribute values
+    private static int tagEnd(byte[] data, int pos) {
+        byte quote = 0;
+        for (int i = pos + 1; i < data.length; i++) {
+            if (quote != 0) {
+                if (data[i] == quote) {
+                    quote = 0;
+                }
+            } else if (data[i] == '"' || data[i] == '\'') {
+                quote = data[i];
+            } else if (data[i] == '>') {
+                return i + 1;
+            }
+        }
+        throw new IllegalArgumentException("Unterminated XML tag at offset " + pos);
+    }
+
+    // Each part spans its delimiter line up to the next delimiter line; the value is the part body
+    private static List<Leaf> multipartLeaves(byte[] data, String boundary) {
+        List<Leaf> leaves = new ArrayList<>();
+        String delimiter = "--" + boundary;
+        Map<String, Integer> counts = new HashMap<>();
+        int pos = indexOf(data, delimiter, 0);
+        if (pos < 0) {
+            throw new IllegalArgumentException("Multipart boundary not found");
+        }
+        while (!startsWith(data, pos + delimiter.length(), "--")) {
+            int lineEnd = indexOf(data, "\n", pos);
+            int headEnd = lineEnd < 0 ? -1 : indexOf(data, "\r\n\r\n", lineEnd - 1);
+            if (headEnd < 0) {
+                throw new IllegalArgumentException("Unterminated multipart headers at offset " + pos);
+            }
+            int valueStart = headEnd + CRLF_CRLF.length;
+            int next = indexOf(data, "\r\n" + delimiter, valueStart);
+            if (next < 0) {
+                throw new IllegalArgumentException("Unterminated multipart part at offset " + pos);
+            }
+            String head = lineEnd + 1 < headEnd ? new String(data, lineEnd + 1, headEnd - lineEnd - 1, StandardCharsets.ISO_8859_1) : "";
+            String name = dispositionName(head);
+            int index = counts.merge(name, 1, Integer::sum) - 1;
+            leaves.add(new Leaf(index > 0 ? name + "[" + index + "]" : name,
+                new String(data, valueStart, next - valueStart, StandardCharsets.ISO_8859_1), pos, next + 2, valueStart, next));
+            pos = next + 2;
+        }
+        return leaves;
+    }
+
+    private static String dispositionName(String head) {
+        for (String line : head.split("\r\n")) {
+            if (line.regionMatches(true, 0, "Content-Disposition:", 0, 20)) {
+                for (String param : line.substring(20).split(";")) {
+                    String trimmed = param.strip();
+                    if (trimmed.regionMatches(true, 0, "name=", 0, 5)) {
+                        return unquote(trimmed.substring(5));
+                    }
+                }
+            }
+        }
+        return "part";
+    }
+
+    private static String boundary(String contentType) {
+        for (String param : contentType.split(";")) {
+            String trimmed = param.strip();
+            if (trimmed.regionMatches(true, 0, "boundary=", 0, 9) && trimmed.length() > 9) {
+                return unquote(trimmed.substring(9));
+            }
+        }
+        return null;
+    }
+
+    private static String unquote(String value) {
+        return value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"") ? value.substring(1, value.length() - 1) : value;
+    }
+
+    private static String escapeXml(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;");
+    }
+
+    private static boolean startsWith(byte[] data, int pos, String prefix) {
+        if (pos < 0 || pos + prefix.length() > data.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (data[pos + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] data, String pattern, int from) {
+        for (int i = Math.max(0, from); i + pattern.length() <= data.length; i++) {
+            if (startsWith(data, i, pattern)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipPast(byte[] data, int pos, String terminator) {
+        int end = indexOf(data, terminator, pos);
+        if (end < 0) {
+            throw new IllegalArgumentException("Unterminated XML markup at offset " + pos);
+        }
+        return end + terminator.length();
+    }
+}
@@ -0,0 +1,492 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The comparison models on their own, and whole analyses against a fake transport that answers from a function
+// of the request and counts what was sent
+@Timeout(value = 10, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+class AnalysisEngineTest {
+    @Test
+    void lineTemplateMatchesAnchorsInOrder() {
+        AnalysisEngine.LineTemplate template = template("id=", ";t=", "");
+        assertTrue(template.matches(bytes("id=42;t=9"), 0, 9));
+        assertTrue(template.matches(bytes("id=;t="), 0, 6));
+        assertFalse(template.matches(bytes("id=42"), 0, 5));
+        assertFalse(template.matches(bytes("x=42;t=9"), 0, 8));
+
+        AnalysisEngine.LineTemplate middle = template("<", "-", "-", ">");
+        assertTrue(middle.matches(bytes("<a-b-c>"), 0, 7));
+        assertTrue(middle.matches(bytes("<--->"), 0, 5));
+        assertFalse(middle.matches(bytes("<a-b>"), 0, 5));
+        // Only the given range counts
+        assertTrue(middle.matches(bytes("xx<a-b-c>xx"), 2, 9));
+        assertEquals("id=<__DYNAMIC_CONTENTS__>;t=<__DYNAMIC_CONTENTS__>", string(template.normalized()));
+    }
+
+    @Test
+    void basicTemplateBuilderMarksLinesThatDiffer() {
+        AnalysisEngine.TemplateBuilder builder = new AnalysisEngine.TemplateBuilder(false);
+        assertTrue(builder.add(lines("HTTP/1.1 200 OK\nDate: 1\n\nbody")));
+        assertTrue(builder.add(lines("HTTP/1.1 200 OK\nDate: 2\n\nbody")));
+        assertFalse(builder.add(lines("HTTP/1.1 200 OK\nDate: 3\n\nbody")));
+        assertEquals(Set.of(1), builder.dynamicLines());
+        assertEquals(Map.of(), builder.templates());
+        // A shorter sample drops the lines it lacks from the model
+        assertTrue(builder.add(lines("HTTP/1.1 200 OK\nDate: 3\n")));
+    }
+
+    @Test
+    void accurateTemplateBuilderKeepsCommonTokens() {
+        AnalysisEngine.TemplateBuilder builder = new AnalysisEngine.TemplateBuilder(true);
+        builder.add(lines("HTTP/1.1 200 OK\nSet-Cookie: sid=abc; Path=/\n\nbody"));
+        assertTrue(builder.add(lines("HTTP/1.1 200 OK\nSet-Cookie: sid=xyz; Path=/\n\nbody")));
+        // Another value in the same place leaves the template as it is
+        assertFalse(builder.add(lines("HTTP/1.1 200 OK\nSet-Cookie: sid=qrs; Path=/\n\nbody")));
+        assertEquals(Set.of(), builder.dynamicLines());
+        AnalysisEngine.LineTemplate template = builder.templates().get(1);
+        assertNotNull(template);
+        assertEquals(Set.of(1), builder.templates().keySet());
+        assertTrue(template.matches(bytes("Set-Cookie: sid=anything; Path=/"), 0, 32));
+        assertFalse(template.matches(bytes("Set-Cookie: sid=anything; Path=/admin"), 0, 37));
+    }
+
+    @Test
+    void lineNormalizerIgnoresDynamicLines() {
+        List<AnalysisEngine.ResponseLines> baselines = List.of(
+            lines("HTTP/1.1 200 OK\r\nDate: 1\r\nContent-Type: text/plain\r\n\r\nhello\nworld"),
+            lines("HTTP/1.1 200 OK\r\nDate: 2\r\nContent-Type: text/plain\r\n\r\nhello\nworld"));
+        AnalysisEngine.LineNormalizer normalizer = lineNormalizer(baselines, false);
+        assertTrue(normalizer.matchesBaseline(bytes("HTTP/1.1 200 OK\r\nDate: 9\r\nContent-Type: text/plain\r\n\r\nhello\nworld")));
+        assertFalse(normalizer.matchesBaseline(bytes("HTTP/1.1 200 OK\r\nDate: 9\r\nContent-Type: text/plain\r\n\r\nhello\nthere")));
+        assertFalse(normalizer.matchesBaseline(bytes("HTTP/1.1 200 OK\r\nDate: 9\r\nContent-Type: text/plain\r\n\r\nhello")));
+        assertTrue(normalizer.headDiffers(bytes("HTTP/1.1 200 OK\r\nDate: 9\r\nContent-Type: text/html\r\n\r\n")));
+        assertFalse(normalizer.headDiffers(bytes("HTTP/1.1 200 OK\r\nDate: 9\r\nContent-Type:  text/plain\r\n\r\n")));
+        assertEquals(new AnalysisEngine.Difference(1, 6, 5, 65),
+            normalizer.difference(bytes("HTTP/1.1 200 OK\r\nDate: 9\r\nContent-Type: text/plain\r\n\r\nhello\nthere")));
+        assertEquals(string(normalizer.digest(baselines.get(0).data)),
+            string(normalizer.digest(bytes("HTTP/1.1 200 OK\r\nDate: 7\r\nContent-Type: text/plain\r\n\r\nhello\nworld"))));
+    }
+
+    @Test
+    void structuralNormalizerComparesJsonLeavesByPath() {
+        List<AnalysisEngine.ResponseLines> baselines = List.of(
+            lines(json("{\"id\": 1, \"ts\": 100, \"items\": [\"a\", \"b\"]}")),
+            lines(json("{\"id\": 1, \"ts\": 200, \"items\": [\"a\", \"b\"]}")),
+            lines(json("{\"id\": 1, \"ts\": 300, \"items\": [\"a\", \"b\"]}")));
+        AnalysisEngine.StructuralNormalizer normalizer = AnalysisEngine.StructuralNormalizer.compile(baselines);
+        assertNotNull(normalizer);
+        assertEquals("JSON, 3 stable / 1 volatile paths", normalizer.describe());
+        assertTrue(normalizer.matchesBaseline(bytes(json("{\"id\": 1, \"ts\": 999, \"items\": [\"a\", \"b\"]}"))));
+        // Layout and member order do not matter
+        assertTrue(normalizer.matchesBaseline(bytes(json("{\"items\":[\"a\",\"b\"],\n\"ts\":5,\"id\":1}"))));
+        assertFalse(normalizer.matchesBaseline(bytes(json("{\"id\": 2, \"ts\": 999, \"items\": [\"a\", \"b\"]}"))));
+        assertFalse(normalizer.matchesBaseline(bytes(json("{\"id\": 1, \"ts\": 999, \"items\": [\"a\"]}"))));
+        assertFalse(normalizer.matchesBaseline(bytes(json("{\"id\": 1, \"ts\": 999, \"items\": [\"a\", \"b\"], \"x\": 0}"))));
+        assertFalse(normalizer.matchesBaseline(bytes(json("{\"id\": 1, \"ts\": 999, \"items\": [\"a\", \"b\""))));
+        assertEquals(string(normalizer.digest(baselines.get(0).data)),
+            string(normalizer.digest(bytes(json("{\"id\": 1, \"ts\": 5, \"items\": [\"a\", \"b\"]}")))));
+    }
+
+    @Test
+    void structuralNormalizerComparesHtmlAndSkipsOtherBodies() {
+        List<AnalysisEngine.ResponseLines> html = List.of(
+            lines("HTTP/1.1 200 OK\r\nContent-Type: text/html\r\n\r\n<html><body><p>Hi</p><span>1</span></body></html>"),
+            lines("HTTP/1.1 200 OK\r\nContent-Type: text/html\r\n\r\n<html><body><p>Hi</p><span>2</span></body></html>"));
+        AnalysisEngine.StructuralNormalizer normalizer = AnalysisEngine.StructuralNormalizer.compile(html);
+        assertNotNull(normalizer);
+        assertTrue(normalizer.matchesBaseline(bytes(
+            "HTTP/1.1 200 OK\r\nContent-Type: text/html\r\n\r\n<html>\n<body>\n<p>Hi</p>\n<span>3</span>\n</body>\n</html>")));
+        assertFalse(normalizer.matchesBaseline(bytes(
+            "HTTP/1.1 200 OK\r\nContent-Type: text/html\r\n\r\n<html><body><p>Bye</p><span>3</span></body></html>")));
+
+        assertNull(AnalysisEngine.StructuralNormalizer.compile(List.of(lines("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n\r\nhi"))));
+    }
+
+    // Only the id parameter matters, so every other removal is a probe without impact
+    @Test
+    void perElementModeSendsOneProbePerElement() throws Exception {
+        FakeTransport transport = new FakeTransport(request -> request.target().contains("id=") ? ok("found") : status(403));
+        RawRequest request = sixteenParameters();
+        List<AnalysisEvent> events = analyze(transport, request, config(false));
+        // 16 removals and the minimized request
+        assertEquals(16 + 1, transport.probes(request));
+        assertBaselines(transport, request);
+        assertEquals(List.of("id"), findings(events));
+        AnalysisEvent.Minimized minimized = minimized(events);
+        assertEquals("/search?id=7", minimized.request().target());
+        assertEquals(1, minimized.kept());
+        assertEquals(16, minimized.total());
+    }
+
+    @Test
+    void bisectOnlySplitsBatchesWithImpact() throws Exception {
+        FakeTransport transport = new FakeTransport(request -> request.target().contains("id=") ? ok("found") : status(403));
+        RawRequest request = sixteenParameters();
+        List<AnalysisEvent> events = analyze(transport, request, config(true));
+        // Batches of 16, 8 + 8, 4 + 4, 2 + 2 and 1 + 1 elements, then the minimized request
+        assertEquals(1 + 2 + 2 + 2 + 2 + 1, transport.probes(request));
+        assertBaselines(transport, request);
+        assertTrue(logs(events).contains("Bisect resolved 16 elements with 9 requests."));
+        assertEquals(List.of("id"), findings(events));
+        assertEquals("/search?id=7", minimized(events).request().target());
+    }
+
+    // Either header authenticates, so neither removal has impact on its own and the minimized request first fails
+    @Test
+    void ddminRestoresOneOfTwoAlternativeElements() throws Exception {
+        FakeTransport transport = new FakeTransport(request ->
+            request.headerValue("X-Token-A") != null || request.headerValue("X-Token-B") != null ? ok("welcome") : status(401));
+        RawRequest request = RawRequest.fromUrl("GET", "http://example.com/home?x=1&y=2", List.of("X-Token-A: a", "X-Token-B: b"), new byte[0]);
+        List<AnalysisEvent> events = analyze(transport, request, config(false));
+        // Verifying keeps nothing, then ddmin keeps {x, y} and {A, B}, then {A} and {B}. Keeping nothing is
+        // tried again in the last round, from memory; {B} may be cancelled unsent once {A} has passed.
+        assertTrue(logs(events).stream().anyMatch(log -> log.endsWith("needed Header X-Token-A together; 5 candidate requests.")), logs(events).toString());
+        AnalysisEvent.Minimized minimized = minimized(events);
+        List<RawRequest.Element> elements = request.elements("All");
+        assertEquals(1, transport.sends(request.withRemovedElements(elements)));
+        RawRequest onlyB = request.withRemovedElements(elements.subList(0, 3));
+        // 4 removals, nothing kept, {x, y}, {A, B} and {A}
+        assertEquals(4 + 4, transport.probes(request) - transport.sends(onlyB));
+        assertBaselines(transport, request);
+        assertEquals(List.of(), findings(events));
+        assertEquals("/home", minimized.request().target());
+        assertEquals("a", minimized.request().headerValue("X-Token-A"));
+        assertNull(minimized.request().headerValue("X-Token-B"));
+        assertEquals(1, minimized.kept());
+        assertEquals(4, minimized.total());
+    }
+
+    // Pausing in the mutation phase, after bisect has published its hits, and resuming must not publish them again
+    @Test
+    void resumedBisectDoesNotRepeatFindings() throws Exception {
+        RawRequest request = sixteenParameters();
+        String duplicated = request.withMutatedElement(request.elements("All").get(0), RawRequest.Mutation.DUPLICATED).target();
+        AnalysisControl control = new AnalysisControl();
+        AtomicBoolean paused = new AtomicBoolean();
+        FakeTransport transport = new FakeTransport(probe -> {
+            if (probe.target().equals(duplicated) && paused.compareAndSet(false, true)) {
+                control.pause();
+            }
+            return probe.target().contains("id=") ? ok("found") : status(403);
+        });
+        AnalysisConfig config = new AnalysisConfig("All", false, 3, false, 0, false, true, Set.of(RawRequest.Mutation.DUPLICATED),
+            50, 4, 0, 0, false, 100, 0, false, false);
+
+        List<AnalysisEvent> events = Collections.synchronizedList(new ArrayList<>());
+        AnalysisEngine engine = new AnalysisEngine(transport);
+        engine.analyze(request, config, events::add, control);
+        assertTrue(snapshot(events).stream().anyMatch(AnalysisEvent.Stopped.class::isInstance), "analysis was not paused");
+        assertEquals(List.of("id"), findings(events));
+
+        control.resume();
+        // Probes cancelled by the pause may still add to the first list
+        events = Collections.synchronizedList(new ArrayList<>());
+        engine.analyze(request, config, events::add, control);
+        assertTrue(logs(events).stream().anyMatch(log -> log.startsWith("Resuming")), logs(events).toString());
+        assertEquals(List.of(), findings(events));
+        assertEquals("/search?id=7", minimized(events).request().target());
+    }
+
+    // The baselines sampled before a pause come back from the engine's checkpoint file, and only the rest is sent
+    @Test
+    void resumesSamplingWithTheSpilledBaselines() throws Exception {
+        RawRequest request = RawRequest.fromUrl("GET", "http://example.com/search?id=7&x=1", List.of(), new byte[0]);
+        String original = request.target();
+        AnalysisControl control = new AnalysisControl();
+        AtomicInteger baselines = new AtomicInteger();
+        FakeTransport transport = new FakeTransport(probe -> {
+            if (probe.target().equals(original) && baselines.incrementAndGet() == 2) {
+                // The second baseline never answers; the pause abandons it
+                control.pause();
+                try {
+                    Thread.sleep(10_000);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException("abandoned");
+                }
+            }
+            return probe.target().contains("id=") ? ok("found") : status(403);
+        });
+        AnalysisConfig config = new AnalysisConfig("All", false, 3, false, 300, false, false, Set.of(), 50, 4, 0, 0, false, 100, 0, false, false);
+
+        AnalysisEngine engine = new AnalysisEngine(transport);
+        List<AnalysisEvent> events = Collections.synchronizedList(new ArrayList<>());
+        engine.analyze(request, config, events::add, control);
+        assertTrue(snapshot(events).stream().anyMatch(AnalysisEvent.Stopped.class::isInstance), "analysis was not paused");
+
+        control.resume();
+        events = Collections.synchronizedList(new ArrayList<>());
+        engine.analyze(request, config, events::add, control);
+        assertTrue(logs(events).contains("Resuming http://example.com/search?id=7&x=1 with 1 sampled baselines."), logs(events).toString());
+        assertTrue(logs(events).stream().anyMatch(log -> log.endsWith(": 3 baselines")), logs(events).toString());
+        assertEquals(List.of("id"), findings(events));
+        engine.close();
+    }
+
+    // Like Burp's sendRequest, the transport ignores the interrupt of a timed-out probe; with one thread, no other
+    // probe may start until that send has really returned
+    @Test
+    void abandonedSendsKeepTheirPermit() throws Exception {
+        RawRequest request = RawRequest.fromUrl("GET", "http://example.com/p?a=1&b=2&c=3", List.of(), new byte[0]);
+        String original = request.target();
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        FakeTransport transport = new FakeTransport(probe -> {
+            if (probe.target().equals(original)) {
+                return ok("page");
+            }
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                if (!probe.target().contains("a=")) {
+                    sleepUninterruptibly(400);
+                }
+                return ok("other");
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        });
+        AnalysisConfig config = new AnalysisConfig("All", false, 3, false, 0, false, false, Set.of(), 50, 1, 0, 100, false, 100, 0, false, false);
+        List<AnalysisEvent> events = analyze(transport, request, config);
+        assertTrue(logs(events).stream().anyMatch(log -> log.startsWith("Abandoned http://example.com/p?b=2&c=3 after 100 ms")),
+            logs(events).toString());
+        assertEquals(1, maxInFlight.get());
+    }
+
+    private static void sleepUninterruptibly(long millis) {
+        long end = System.nanoTime() + millis * 1_000_000;
+        long left;
+        while ((left = end - System.nanoTime()) > 0) {
+            try {
+                Thread.sleep(left / 1_000_000 + 1);
+            } catch (InterruptedException e) {
+                // Ignored, like a blocking transport would
+            }
+        }
+    }
+
+    // The original request goes out as the 3 baselines, and as controls that may be cancelled unsent when the
+    // analysis no longer needs them
+    private static void assertBaselines(FakeTransport transport, RawRequest request) {
+        int sends = transport.sends(request);
+        assertTrue(sends >= 3 && sends <= 3 + 3, sends + " sends of the original request");
+    }
+
+    @Test
+    void adaptiveBaselinesStopAfterThreeMatchingResponses() throws Exception {
+        FakeTransport transport = new FakeTransport(request -> ok("same"));
+        RawRequest request = RawRequest.fromUrl("GET", "http://example.com/", List.of(), new byte[0]);
+        List<AnalysisEvent> events = analyze(transport, request, adaptiveConfig(6));
+        assertTrue(logs(events).contains("Baseline sampling finished for http://example.com/: stable after 3 baselines"), logs(events).toString());
+    }
+
+    // The second baseline finds the dynamic line, so two more must agree with the model
+    @Test
+    void adaptiveBaselinesWaitForTheModelToSettle() throws Exception {
+        AtomicInteger counter = new AtomicInteger();
+        FakeTransport transport = new FakeTransport(request -> bytes("HTTP/1.1 200 OK\r\nDate: " + counter.incrementAndGet() + "\r\n\r\nbody"));
+        RawRequest request = RawRequest.fromUrl("GET", "http://example.com/", List.of(), new byte[0]);
+        List<AnalysisEvent> events = analyze(transport, request, adaptiveConfig(6));
+        assertTrue(logs(events).contains("Baseline sampling finished for http://example.com/: stable after 4 baselines"), logs(events).toString());
+    }
+
+    // The stored model holds line hashes, not the baseline, and one matching baseline confirms it
+    @Test
+    void storedLineModelsAreConfirmedByOneBaseline() throws Exception {
+        AtomicInteger counter = new AtomicInteger();
+        // Lines that do not compress away, as in a real page
+        String body = String.join("\n", IntStream.range(0, 200).mapToObj(i -> "static line " + Integer.toHexString(i * 0x9e3779b1)
+            + " " + Long.toHexString(i * 0x9e3779b97f4a7c15L) + " " + Integer.toHexString(i * 0x85ebca6b)).toList());
+        FakeTransport transport = new FakeTransport(request -> request.target().contains("id=")
+            ? bytes("HTTP/1.1 200 OK\r\nDate: " + counter.incrementAndGet() + "\r\n\r\n" + body) : status(404));
+        RawRequest request = RawRequest.fromUrl("GET", "http://example.com/item?id=1&x=2", List.of(), new byte[0]);
+        MemoryModelStore store = new MemoryModelStore();
+
+        analyze(transport, request, reuseConfig(false), store);
+        assertEquals(1, store.models.size());
+        int baselineSize = transport.server.apply(request).length;
+        assertTrue(store.models.values().iterator().next().length < baselineSize / 4, "stored model is not compact");
+
+        transport.sent.clear();
+        List<AnalysisEvent> events = analyze(transport, request, reuseConfig(false), store);
+        assertTrue(logs(events).stream().anyMatch(log -> log.startsWith("Reusing the stored model for") && log.endsWith("after 1 baseline")),
+            logs(events).toString());
+        assertEquals(List.of("id"), findings(events));
+
+        // A changed static line means the model no longer holds
+        FakeTransport changed = new FakeTransport(request1 -> bytes("HTTP/1.1 200 OK\r\nDate: 1\r\n\r\n" + body.replace("static line", "line")));
+        events = analyze(changed, request, reuseConfig(false), store);
+        assertTrue(logs(events).stream().anyMatch(log -> log.endsWith("no longer matches; sampling baselines again")), logs(events).toString());
+    }
+
+    @Test
+    void storedStructuralModelsCompareLeafHashes() throws Exception {
+        AtomicInteger counter = new AtomicInteger();
+        FakeTransport transport = new FakeTransport(request -> bytes(json(request.target().contains("id=")
+            ? "{\"id\": 1, \"ts\": " + counter.incrementAndGet() + ", \"items\": [\"a\", \"b\"]}" : "{\"error\": true}")));
+        RawRequest request = RawRequest.fromUrl("GET", "http://example.com/item?id=1&x=2", List.of(), new byte[0]);
+        MemoryModelStore store = new MemoryModelStore();
+        assertEquals(List.of("id"), findings(analyze(transport, request, reuseConfig(true), store)));
+
+        List<AnalysisEvent> events = analyze(transport, request, reuseConfig(true), store);
+        assertTrue(logs(events).stream().anyMatch(log -> log.startsWith("Reusing the stored model for")), logs(events).toString());
+        assertEquals(List.of("id"), findings(events));
+
+        FakeTransport changed = new FakeTransport(request1 -> bytes(json("{\"id\": 1, \"ts\": 0, \"items\": [\"a\"]}")));
+        events = analyze(changed, request, reuseConfig(true), store);
+        assertTrue(logs(events).stream().anyMatch(log -> log.endsWith("no longer matches; sampling baselines again")), logs(events).toString());
+    }
+
+    private static RawRequest sixteenParameters() {
+        String query = String.join("&", IntStream.range(0, 15).mapToObj(i -> "p" + i + "=" + i).toList());
+        return RawRequest.fromUrl("GET", "http://example.com/search?" + query + "&id=7", List.of(), new byte[0]);
+    }
+
+    private static AnalysisConfig config(boolean bisect) {
+        return new AnalysisConfig("All", false, 3, false, 0, false, bisect, Set.of(), 50, 4, 0, 0, false, 100, 0, false, false);
+    }
+
+    private static AnalysisConfig adaptiveConfig(int maxBaselines) {
+        return new AnalysisConfig("All", false, maxBaselines, true, 0, false, false, Set.of(), 50, 4, 0, 0, false, 100, 0, false, false);
+    }
+
+    private static AnalysisConfig reuseConfig(boolean accurate) {
+        return new AnalysisConfig("All", accurate, 3, false, 0, true, false, Set.of(), 50, 4, 0, 0, false, 100, 0, false, false);
+    }
+
+    private static List<AnalysisEvent> analyze(HttpTransport transport, RawRequest request, AnalysisConfig config)
+            throws IOException, InterruptedException {
+        return analyze(transport, request, config, null);
+    }
+
+    private static List<AnalysisEvent> analyze(HttpTransport transport, RawRequest request, AnalysisConfig config, ModelStore store)
+            throws IOException, InterruptedException {
+        List<AnalysisEvent> events = Collections.synchronizedList(new ArrayList<>());
+        new AnalysisEngine(transport, store).analyze(request, config, events::add);
+        return events;
+    }
+
+    private static List<String> findings(List<AnalysisEvent> events) {
+        return snapshot(events).stream().filter(AnalysisEvent.Finding.class::isInstance).map(event -> ((AnalysisEvent.Finding) event).element().name()).toList();
+    }
+
+    private static List<String> logs(List<AnalysisEvent> events) {
+        return snapshot(events).stream().filter(AnalysisEvent.Log.class::isInstance).map(event -> ((AnalysisEvent.Log) event).message()).toList();
+    }
+
+    private static AnalysisEvent.Minimized minimized(List<AnalysisEvent> events) {
+        return snapshot(events).stream().filter(AnalysisEvent.Minimized.class::isInstance).map(AnalysisEvent.Minimized.class::cast).findFirst().orElseThrow();
+    }
+
+    // Events from probe threads may still arrive after a paused analysis returns
+    private static List<AnalysisEvent> snapshot(List<AnalysisEvent> events) {
+        synchronized (events) {
+            return new ArrayList<>(events);
+        }
+    }
+
+    private static AnalysisEngine.LineTemplate template(String... anchors) {
+        byte[][] bytes = new byte[anchors.length][];
+        for (int i = 0; i < anchors.length; i++) {
+            bytes[i] = bytes(anchors[i]);
+        }
+        return new AnalysisEngine.LineTemplate(bytes);
+    }
+
+    private static AnalysisEngine.LineNormalizer lineNormalizer(List<AnalysisEngine.ResponseLines> baselines, boolean accurate) {
+        AnalysisEngine.TemplateBuilder builder = new AnalysisEngine.TemplateBuilder(accurate);
+        baselines.forEach(builder::add);
+        return new AnalysisEngine.LineNormalizer(baselines.get(0).data, builder.dynamicLines(), builder.templates());
+    }
+
+    private static AnalysisEngine.ResponseLines lines(String response) {
+        return AnalysisEngine.ResponseLines.of(bytes(response));
+    }
+
+    private static String json(String body) {
+        return "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n\r\n" + body;
+    }
+
+    private static byte[] ok(String body) {
+        return bytes("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: " + body.length() + "\r\n\r\n" + body);
+    }
+
+    private static byte[] status(int code) {
+        return bytes("HTTP/1.1 " + code + " Denied\r\nContent-Type: text/plain\r\nContent-Length: 6\r\n\r\ndenied");
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static String string(byte[] data) {
+        return new String(data, StandardCharsets.ISO_8859_1);
+    }
+
+    private static final class MemoryModelStore implements ModelStore {
+        final Map<String, byte[]> models = new ConcurrentHashMap<>();
+
+        @Override
+        public byte[] load(String key) {
+            return models.get(key);
+        }
+
+        @Override
+        public void save(String key, byte[] model) {
+            models.put(key, model);
+        }
+
+        @Override
+        public int clear() {
+            int removed = models.size();
+            models.clear();
+            return removed;
+        }
+    }
+
+    private static final class FakeTransport implements HttpTransport {
+        final Function<RawRequest, byte[]> server;
+        final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+
+        FakeTransport(Function<RawRequest, byte[]> server) {
+            this.server = server;
+        }
+
+        @Override
+        public byte[] send(RawRequest request, ResponseLimit limit) {
+            sent.add(string(request.bytes()));
+            return server.apply(request);
+        }
+
+        int sends(RawRequest request) {
+            String bytes = string(request.bytes());
+            synchronized (sent) {
+                return (int) sent.stream().filter(bytes::equals).count();
+            }
+        }
+
+        // Sends of anything other than the original request
+        int probes(RawRequest original) {
+            String bytes = string(original.bytes());
+            synchronized (sent) {
+                return (int) sent.stream().filter(request -> !request.equals(bytes)).count();
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileModelStoreTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void savesLoadsAndClearsModels() throws Exception {
+        FileModelStore store = new FileModelStore(directory.resolve("models"));
+        assertNull(store.load("ab"));
+        assertEquals(0, store.clear());
+
+        store.save("ab", new byte[] {1, 2});
+        store.save("cd", new byte[] {3});
+        assertArrayEquals(new byte[] {1, 2}, store.load("ab"));
+        // Other files in the directory are left alone
+        Files.writeString(directory.resolve("models").resolve("notes.txt"), "keep");
+
+        assertEquals(2, store.clear());
+        assertNull(store.load("ab"));
+        assertNull(store.load("cd"));
+        assertTrue(Files.exists(directory.resolve("models").resolve("notes.txt")));
+    }
+}
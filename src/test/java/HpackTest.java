@@ -0,0 +1,125 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Header blocks from RFC 7541 Appendix C, decoded in sequence by one decoder as they would arrive on a connection
+class HpackTest {
+    private static final String DATE_21 = "Mon, 21 Oct 2013 20:13:21 GMT";
+    private static final String DATE_22 = "Mon, 21 Oct 2013 20:13:22 GMT";
+    private static final String COOKIE = "foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1";
+    // Dynamic table size update to 256 octets, the table size the response examples assume
+    private static final String TABLE_SIZE_256 = "3fe101";
+
+    @Test
+    void decodesRequestsWithoutHuffman() throws IOException {
+        Hpack.Decoder decoder = new Hpack.Decoder();
+        assertEquals(firstRequest(), decode(decoder, "828684410f7777772e6578616d706c652e636f6d"));
+        assertEquals(secondRequest(), decode(decoder, "828684be58086e6f2d6361636865"));
+        assertEquals(thirdRequest(), decode(decoder, "828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565"));
+    }
+
+    @Test
+    void decodesRequestsWithHuffman() throws IOException {
+        Hpack.Decoder decoder = new Hpack.Decoder();
+        assertEquals(firstRequest(), decode(decoder, "828684418cf1e3c2e5f23a6ba0ab90f4ff"));
+        assertEquals(secondRequest(), decode(decoder, "828684be5886a8eb10649cbf"));
+        assertEquals(thirdRequest(), decode(decoder, "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf"));
+    }
+
+    // The 256-octet table only holds the last few responses' headers, so each block evicts older entries
+    @Test
+    void decodesResponsesWithoutHuffmanAndEvicts() throws IOException {
+        Hpack.Decoder decoder = new Hpack.Decoder();
+        assertEquals(firstResponse(), decode(decoder, TABLE_SIZE_256
+            + "4803333032580770726976617465611d4d6f6e2c203231204f637420323031332032303a31333a323120474d54"
+            + "6e1768747470733a2f2f7777772e6578616d706c652e636f6d"));
+        assertEquals(secondResponse(), decode(decoder, "4803333037c1c0bf"));
+        assertEquals(thirdResponse(), decode(decoder, "88c1611d4d6f6e2c203231204f637420323031332032303a31333a323220474d54"
+            + "c05a04677a69707738666f6f3d4153444a4b48514b425a584f5157454f50495541585157454f49553b206d61782d61"
+            + "67653d333630303b2076657273696f6e3d31"));
+        // The table now holds three entries (indexes 62 to 64); the older ones were evicted
+        assertThrows(IOException.class, () -> decode(decoder, "c3"));
+    }
+
+    @Test
+    void decodesResponsesWithHuffmanAndEvicts() throws IOException {
+        Hpack.Decoder decoder = new Hpack.Decoder();
+        assertEquals(firstResponse(), decode(decoder, TABLE_SIZE_256
+            + "488264025885aec3771a4b6196d07abe941054d444a8200595040b8166e082a62d1bff6e919d29ad171863c78f0b97c8e9ae82ae43d3"));
+        assertEquals(secondResponse(), decode(decoder, "4883640effc1c0bf"));
+        assertEquals(thirdResponse(), decode(decoder, "88c16196d07abe941054d444a8200595040b8166e084a62d1bffc05a839bd9ab77ad94e7821dd7f2e6c7b335df"
+            + "dfcd5b3960d5af27087f3672c1ab270fb5291f9587316065c003ed4ee5b1063d5007"));
+    }
+
+    @Test
+    void shrinkingTheTableEvictsEverything() throws IOException {
+        Hpack.Decoder decoder = new Hpack.Decoder();
+        decode(decoder, "828684410f7777772e6578616d706c652e636f6d");
+        assertEquals(List.of(), decode(decoder, "20"));
+        assertThrows(IOException.class, () -> decode(decoder, "be"));
+    }
+
+    @Test
+    void rejectsMalformedBlocks() {
+        // Index 0, a table size above the advertised maximum, a truncated string and an EOS symbol in a Huffman string
+        assertThrows(IOException.class, () -> decode(new Hpack.Decoder(), "80"));
+        assertThrows(IOException.class, () -> decode(new Hpack.Decoder(), "3fe21f"));
+        assertThrows(IOException.class, () -> decode(new Hpack.Decoder(), "400a6375"));
+        assertThrows(IOException.class, () -> decode(new Hpack.Decoder(), "4084ffffffff00"));
+    }
+
+    @Test
+    void encodedLiteralsDecode() throws IOException {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        Hpack.encode(block, ":path", "/search?q=" + "x".repeat(200));
+        Hpack.encode(block, "user-agent", "");
+        assertEquals(List.of(new Hpack.Header(":path", "/search?q=" + "x".repeat(200)), new Hpack.Header("user-agent", "")),
+            new Hpack.Decoder().decode(block.toByteArray()));
+    }
+
+    private static List<Hpack.Header> decode(Hpack.Decoder decoder, String hex) throws IOException {
+        return decoder.decode(HexFormat.of().parseHex(hex));
+    }
+
+    private static List<Hpack.Header> firstRequest() {
+        return headers(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com");
+    }
+
+    private static List<Hpack.Header> secondRequest() {
+        return headers(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+            "cache-control", "no-cache");
+    }
+
+    private static List<Hpack.Header> thirdRequest() {
+        return headers(":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com",
+            "custom-key", "custom-value");
+    }
+
+    private static List<Hpack.Header> firstResponse() {
+        return headers(":status", "302", "cache-control", "private", "date", DATE_21, "location", "https://www.example.com");
+    }
+
+    private static List<Hpack.Header> secondResponse() {
+        return headers(":status", "307", "cache-control", "private", "date", DATE_21, "location", "https://www.example.com");
+    }
+
+    private static List<Hpack.Header> thirdResponse() {
+        return headers(":status", "200", "cache-control", "private", "date", DATE_22, "location", "https://www.example.com",
+            "content-encoding", "gzip", "set-cookie", COOKIE);
+    }
+
+    private static List<Hpack.Header> headers(String... namesAndValues) {
+        List<Hpack.Header> headers = new ArrayList<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            headers.add(new Hpack.Header(namesAndValues[i], namesAndValues[i + 1]));
+        }
+        return headers;
+    }
+}
@@ -0,0 +1,405 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Drives a connection against a scripted server on a local socket that reads and writes raw frames
+@Timeout(value = 10, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+class Http2ConnectionTest {
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+
+    private static final int END_STREAM = 0x1;
+    private static final int ACK = 0x1;
+    private static final int END_HEADERS = 0x4;
+    private static final int PADDED = 0x8;
+
+    private record Frame(int type, int flags, int streamId, byte[] payload) {
+    }
+
+    private final ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor();
+    private ServerSocket server;
+    private Socket peer;
+    private InputStream in;
+    private OutputStream out;
+    private Http2Connection connection;
+
+    @BeforeEach
+    void listen() throws IOException {
+        server = new ServerSocket(0);
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        clients.shutdownNow();
+        if (peer != null) {
+            peer.close();
+        }
+        server.close();
+    }
+
+    @Test
+    void splitsLongHeaderBlocksIntoContinuationFrames() throws IOException {
+        byte[] block = new byte[40];
+        List<Frame> frames = frames(Http2Connection.headerFrames(5, block, true, 16));
+        assertEquals(3, frames.size());
+        assertEquals(HEADERS, frames.get(0).type());
+        assertEquals(END_STREAM, frames.get(0).flags());
+        assertEquals(CONTINUATION, frames.get(1).type());
+        assertEquals(0, frames.get(1).flags());
+        assertEquals(CONTINUATION, frames.get(2).type());
+        assertEquals(END_HEADERS, frames.get(2).flags());
+        assertEquals(8, frames.get(2).payload().length);
+        frames.forEach(frame -> assertEquals(5, frame.streamId()));
+    }
+
+    @Test
+    void rebuildsResponsesFromContinuationAndPaddedData() throws Exception {
+        connect(Map.of());
+        Future<byte[]> response = send(get("/search?q=1"));
+
+        Frame request = nextFrame(HEADERS);
+        assertEquals(END_HEADERS | END_STREAM, request.flags());
+        Map<String, String> headers = decodeHeaders(request.payload());
+        assertEquals("GET", headers.get(":method"));
+        assertEquals("/search?q=1", headers.get(":path"));
+        assertEquals("127.0.0.1:" + server.getLocalPort(), headers.get(":authority"));
+        assertEquals("test", headers.get("user-agent"));
+        assertFalse(headers.containsKey("host"));
+
+        byte[] block = responseHeaders("200", "content-type", "text/plain");
+        write(HEADERS, 0, request.streamId(), slice(block, 0, 3));
+        write(CONTINUATION, END_HEADERS, request.streamId(), slice(block, 3, block.length));
+        write(DATA, PADDED, request.streamId(), concat(new byte[] {4}, bytes("hello"), new byte[4]));
+        write(DATA, END_STREAM, request.streamId(), bytes(" world"));
+
+        assertEquals("HTTP/2 200\r\ncontent-type: text/plain\r\n\r\nhello world", string(response.get()));
+    }
+
+    @Test
+    void resetFailsOnlyThatStream() throws Exception {
+        connect(Map.of());
+        Map<String, Future<byte[]>> responses = Map.of("/a", send(get("/a")), "/b", send(get("/b")));
+        Map<String, Integer> streamIds = new HashMap<>();
+        for (int i = 0; i < 2; i++) {
+            Frame request = nextFrame(HEADERS);
+            streamIds.put(decodeHeaders(request.payload()).get(":path"), request.streamId());
+        }
+
+        write(RST_STREAM, 0, streamIds.get("/a"), int32(0x2));
+        respond(streamIds.get("/b"), "b");
+
+        ExecutionException reset = assertThrows(ExecutionException.class, () -> responses.get("/a").get());
+        assertInstanceOf(IOException.class, reset.getCause());
+        assertTrue(reset.getCause().getMessage().contains("reset"));
+        assertEquals("HTTP/2 200\r\n\r\nb", string(responses.get("/b").get()));
+        assertTrue(connection.isUsable());
+    }
+
+    @Test
+    void goAwayFailsStreamsAboveTheLastProcessedOne() throws Exception {
+        connect(Map.of());
+        Future<byte[]> first = send(get("/a"));
+        int firstId = nextFrame(HEADERS).streamId();
+        Future<byte[]> second = send(get("/b"));
+        nextFrame(HEADERS);
+
+        write(GOAWAY, 0, 0, concat(int32(firstId), int32(0)));
+        respond(firstId, "a");
+
+        assertEquals("HTTP/2 200\r\n\r\na", string(first.get()));
+        ExecutionException refused = assertThrows(ExecutionException.class, second::get);
+        assertInstanceOf(IOException.class, refused.getCause());
+        assertFalse(connection.isUsable());
+        assertThrows(IOException.class, () -> connection.send(get("/c"), HttpTransport.ResponseLimit.NONE));
+        // The client does not wait for the server to close the socket
+        assertClosedAfterGoAway(in);
+    }
+
+    @Test
+    void closeWaitsForOpenStreams() throws Exception {
+        connect(Map.of());
+        Future<byte[]> open = send(get("/a"));
+        int streamId = nextFrame(HEADERS).streamId();
+
+        connection.close();
+        assertFalse(connection.isUsable());
+        assertThrows(IOException.class, () -> connection.send(get("/b"), HttpTransport.ResponseLimit.NONE));
+        assertNoFrameOfType(GOAWAY);
+
+        respond(streamId, "a");
+        assertEquals("HTTP/2 200\r\n\r\na", string(open.get()));
+        assertClosedAfterGoAway(in);
+    }
+
+    // A new stream limit replaces the transport's connection, and the old one is closed rather than left open
+    @Test
+    void transportClosesReplacedConnections() throws Exception {
+        JdkHttpTransport transport = new JdkHttpTransport(Duration.ofSeconds(5));
+        Future<byte[]> first = clients.submit(() -> transport.sendMultiplexed(get("/a"), 10, HttpTransport.ResponseLimit.NONE));
+        accept(Map.of());
+        respond(nextFrame(HEADERS).streamId(), "a");
+        assertEquals("HTTP/2 200\r\n\r\na", string(first.get()));
+
+        Socket replaced = peer;
+        InputStream replacedIn = in;
+        Future<byte[]> second = clients.submit(() -> transport.sendMultiplexed(get("/b"), 5, HttpTransport.ResponseLimit.NONE));
+        accept(Map.of());
+        assertClosedAfterGoAway(replacedIn);
+        replaced.close();
+        respond(nextFrame(HEADERS).streamId(), "b");
+        assertEquals("HTTP/2 200\r\n\r\nb", string(second.get()));
+
+        transport.close();
+        assertClosedAfterGoAway(in);
+    }
+
+    // The body waits for WINDOW_UPDATE frames while the reader keeps answering the server
+    @Test
+    void splitsBodiesToTheSendWindow() throws Exception {
+        connect(Map.of(0x4, 10));
+        byte[] body = bytes("0123456789abcdefghijKLMNO");
+        Future<byte[]> response = send(RawRequest.fromUrl("POST", url("/upload"), List.of("User-Agent: test"), body));
+
+        Frame request = nextFrame(HEADERS);
+        assertEquals(END_HEADERS, request.flags());
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        Frame data = nextFrame(DATA);
+        assertEquals(10, data.payload().length);
+        received.writeBytes(data.payload());
+        assertNoFrameOfType(DATA);
+
+        write(PING, 0, 0, bytes("12345678"));
+        Frame pong = nextFrame(PING);
+        assertEquals(ACK, pong.flags());
+        assertArrayEquals(bytes("12345678"), pong.payload());
+
+        write(WINDOW_UPDATE, 0, request.streamId(), int32(10));
+        data = nextFrame(DATA);
+        assertEquals(10, data.payload().length);
+        assertEquals(0, data.flags());
+        received.writeBytes(data.payload());
+        write(WINDOW_UPDATE, 0, request.streamId(), int32(100));
+        data = nextFrame(DATA);
+        assertEquals(END_STREAM, data.flags());
+        received.writeBytes(data.payload());
+        assertArrayEquals(body, received.toByteArray());
+
+        respond(request.streamId(), "ok");
+        assertEquals("HTTP/2 200\r\n\r\nok", string(response.get()));
+    }
+
+    // The server answers with a large body before reading the request body, which fills the socket buffers in
+    // both directions: the reader must keep reading (and acknowledging data) while the body write is blocked
+    @Test
+    void keepsReadingWhileTheBodyWriteIsBlocked() throws Exception {
+        connect(Map.of(0x4, 1 << 30));
+        write(WINDOW_UPDATE, 0, 0, int32(1 << 30));
+        byte[] body = new byte[16 << 20];
+        Future<byte[]> response = send(RawRequest.fromUrl("POST", url("/upload"), List.of("User-Agent: test"), body));
+        int streamId = nextFrame(HEADERS).streamId();
+
+        write(HEADERS, END_HEADERS, streamId, responseHeaders("200"));
+        byte[] chunk = new byte[16_384];
+        for (int i = 0; i < 768; i++) {
+            write(DATA, 0, streamId, chunk);
+        }
+        long received = 0;
+        while (received < body.length) {
+            received += nextFrame(DATA).payload().length;
+        }
+        write(DATA, END_STREAM, streamId, new byte[0]);
+        assertEquals(14 + 768 * 16_384, response.get().length);
+    }
+
+    @Test
+    void stopsReadingABodyAtTheLimit() throws Exception {
+        connect(Map.of());
+        Future<byte[]> response = clients.submit(() -> connection.send(get("/big"), new HttpTransport.ResponseLimit(head -> true, 4)));
+        int streamId = nextFrame(HEADERS).streamId();
+        write(HEADERS, END_HEADERS, streamId, responseHeaders("200"));
+        write(DATA, 0, streamId, bytes("abcdefgh"));
+
+        assertEquals("HTTP/2 200\r\n\r\nabcd", string(response.get()));
+        Frame reset = nextFrame(RST_STREAM);
+        assertEquals(streamId, reset.streamId());
+        assertTrue(connection.isUsable());
+    }
+
+    // Opens a connection and plays the server side of its preface
+    private void connect(Map<Integer, Integer> settings) throws Exception {
+        Future<Http2Connection> client = clients.submit(() -> Http2Connection.open("127.0.0.1", server.getLocalPort(), false, 5000, 10));
+        accept(settings);
+        connection = client.get();
+    }
+
+    // Accepts the connection, checks the client preface and answers with the given settings
+    private void accept(Map<Integer, Integer> settings) throws Exception {
+        peer = server.accept();
+        peer.setSoTimeout(5000);
+        in = peer.getInputStream();
+        out = peer.getOutputStream();
+        assertEquals("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n", new String(in.readNBytes(24), StandardCharsets.ISO_8859_1));
+        assertEquals(SETTINGS, readFrame().type());
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        settings.forEach((id, value) -> {
+            payload.write(id >>> 8);
+            payload.write(id);
+            payload.writeBytes(int32(value));
+        });
+        write(SETTINGS, 0, 0, payload.toByteArray());
+        Frame ack = nextFrame(SETTINGS);
+        assertEquals(ACK, ack.flags());
+    }
+
+    private Future<byte[]> send(RawRequest request) {
+        return clients.submit(() -> connection.send(request, HttpTransport.ResponseLimit.NONE));
+    }
+
+    private void respond(int streamId, String body) throws IOException {
+        write(HEADERS, END_HEADERS, streamId, responseHeaders("200"));
+        write(DATA, END_STREAM, streamId, bytes(body));
+    }
+
+    private RawRequest get(String path) {
+        return RawRequest.fromUrl("GET", url(path), List.of("User-Agent: test"), new byte[0]);
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getLocalPort() + path;
+    }
+
+    private Frame readFrame() throws IOException {
+        return readFrame(in);
+    }
+
+    private static Frame readFrame(InputStream in) throws IOException {
+        byte[] header = in.readNBytes(9);
+        assertEquals(9, header.length, "connection closed");
+        int length = (header[0] & 0xff) << 16 | (header[1] & 0xff) << 8 | header[2] & 0xff;
+        int streamId = ((header[5] & 0x7f) << 24 | (header[6] & 0xff) << 16 | (header[7] & 0xff) << 8 | header[8] & 0xff);
+        return new Frame(header[3] & 0xff, header[4] & 0xff, streamId, in.readNBytes(length));
+    }
+
+    // Skips connection-level frames such as WINDOW_UPDATE until one of the given type arrives
+    private Frame nextFrame(int type) throws IOException {
+        while (true) {
+            Frame frame = readFrame();
+            if (frame.type() == type) {
+                return frame;
+            }
+        }
+    }
+
+    private void assertNoFrameOfType(int type) throws IOException {
+        peer.setSoTimeout(300);
+        try {
+            while (true) {
+                assertFalse(readFrame().type() == type, "unexpected frame of type " + type);
+            }
+        } catch (SocketTimeoutException e) {
+            // Nothing more was sent
+        } finally {
+            peer.setSoTimeout(5000);
+        }
+    }
+
+    // A GOAWAY without error, then the end of the stream
+    private static void assertClosedAfterGoAway(InputStream in) throws IOException {
+        Frame frame;
+        do {
+            frame = readFrame(in);
+        } while (frame.type() != GOAWAY);
+        assertArrayEquals(new byte[8], frame.payload());
+        assertEquals(-1, in.read());
+    }
+
+    private void write(int type, int flags, int streamId, byte[] payload) throws IOException {
+        out.write(Http2Connection.frame(type, flags, streamId, payload, 0, payload.length));
+        out.flush();
+    }
+
+    private static List<Frame> frames(byte[] encoded) throws IOException {
+        InputStream frames = new ByteArrayInputStream(encoded);
+        List<Frame> result = new ArrayList<>();
+        while (frames.available() > 0) {
+            result.add(readFrame(frames));
+        }
+        return result;
+    }
+
+    private static Map<String, String> decodeHeaders(byte[] block) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        for (Hpack.Header header : new Hpack.Decoder().decode(block)) {
+            headers.put(header.name(), header.value());
+        }
+        return headers;
+    }
+
+    private static byte[] responseHeaders(String status, String... namesAndValues) {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        Hpack.encode(block, ":status", status);
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            Hpack.encode(block, namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return block.toByteArray();
+    }
+
+    private static byte[] int32(int value) {
+        return new byte[] {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+
+    private static byte[] slice(byte[] bytes, int from, int to) {
+        return Arrays.copyOfRange(bytes, from, to);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            joined.writeBytes(part);
+        }
+        return joined.toByteArray();
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static String string(byte[] bytes) {
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,104 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Sends to a local server that answers every connection with one canned response
+@Timeout(value = 10, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+class JdkHttpTransportTest {
+    private ServerSocket server;
+    private volatile String response;
+
+    @BeforeEach
+    void listen() throws IOException {
+        server = new ServerSocket(0);
+        Thread.ofVirtual().start(() -> {
+            while (!server.isClosed()) {
+                try (Socket socket = server.accept()) {
+                    readHead(socket.getInputStream());
+                    socket.getOutputStream().write(response.getBytes(StandardCharsets.ISO_8859_1));
+                } catch (IOException e) {
+                    // Closed at the end of the test
+                }
+            }
+        });
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        server.close();
+    }
+
+    @Test
+    void decodesChunkedBodies() throws Exception {
+        response = "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nTransfer-Encoding: chunked\r\nX-After: 1\r\n\r\n"
+            + "7\r\n{\"id\": \r\n5;ext=1\r\n1, \"n\r\n5\r\n\": 2}\r\n0\r\nX-Trailer: t\r\n\r\n";
+        assertEquals("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: 17\r\nX-After: 1\r\n\r\n{\"id\": 1, \"n\": 2}",
+            send(HttpTransport.ResponseLimit.NONE));
+    }
+
+    @Test
+    void decodedJsonComparesStructurally() throws Exception {
+        response = "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nTransfer-Encoding: chunked\r\n\r\n"
+            + "6\r\n{\"a\": \r\n2\r\n1}\r\n0\r\n\r\n";
+        byte[] first = bytes(send(HttpTransport.ResponseLimit.NONE));
+        AnalysisEngine.StructuralNormalizer normalizer = AnalysisEngine.StructuralNormalizer.compile(
+            List.of(AnalysisEngine.ResponseLines.of(first), AnalysisEngine.ResponseLines.of(first)));
+        assertNotNull(normalizer);
+        assertEquals("JSON, 1 stable / 0 volatile paths", normalizer.describe());
+    }
+
+    @Test
+    void keepsOtherTransferCodings() throws Exception {
+        response = "HTTP/1.1 200 OK\nTransfer-Encoding: gzip, chunked\n\n3\nabc\n0\n\n";
+        assertEquals("HTTP/1.1 200 OK\nTransfer-Encoding: gzip\nContent-Length: 3\n\nabc", send(HttpTransport.ResponseLimit.NONE));
+    }
+
+    // The limit applies to the decoded body, not the framing
+    @Test
+    void stopsAtTheLimitInsideAChunk() throws Exception {
+        response = "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n4\r\nabcd\r\n4\r\nefgh\r\n0\r\n\r\n";
+        assertEquals("HTTP/1.1 200 OK\r\nContent-Length: 6\r\n\r\nabcdef", send(new HttpTransport.ResponseLimit(head -> true, 6)));
+    }
+
+    @Test
+    void rejectsMalformedChunkSizes() {
+        response = "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\nabc\r\n0\r\n\r\n";
+        assertThrows(IOException.class, () -> send(HttpTransport.ResponseLimit.NONE));
+    }
+
+    private String send(HttpTransport.ResponseLimit limit) throws IOException {
+        RawRequest request = RawRequest.fromUrl("GET", "http://127.0.0.1:" + server.getLocalPort() + "/", List.of(), new byte[0]);
+        try (JdkHttpTransport transport = new JdkHttpTransport(Duration.ofSeconds(5))) {
+            return new String(transport.send(request, limit), StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private static void readHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        while (!head.toString(StandardCharsets.ISO_8859_1).endsWith("\r\n\r\n")) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Request head incomplete");
+            }
+            head.write(b);
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
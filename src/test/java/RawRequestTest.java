@@ -0,0 +1,139 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RawRequestTest {
+    private static final String FORM = "POST /submit?a=1&b=2 HTTP/1.1\r\n"
+        + "Host: example.com\r\n"
+        + "Cookie: session=abc; theme=dark\r\n"
+        + "Content-Type: application/x-www-form-urlencoded\r\n"
+        + "Content-Length: 11\r\n"
+        + "X-Trace: 7\r\n"
+        + "\r\n"
+        + "user=me&q=x";
+
+    @Test
+    void enumeratesParametersCookiesAndHeadersInOrder() {
+        RawRequest request = request(FORM);
+        assertEquals(List.of(
+            element(RawRequest.Kind.URL, "a", 0),
+            element(RawRequest.Kind.URL, "b", 1),
+            element(RawRequest.Kind.BODY, "user", 0),
+            element(RawRequest.Kind.BODY, "q", 1),
+            element(RawRequest.Kind.COOKIE, "session", 0),
+            element(RawRequest.Kind.COOKIE, "theme", 1),
+            element(RawRequest.Kind.HEADER, "Cookie", 1),
+            element(RawRequest.Kind.HEADER, "Content-Type", 2),
+            element(RawRequest.Kind.HEADER, "Content-Length", 3),
+            element(RawRequest.Kind.HEADER, "X-Trace", 4)), request.elements("All"));
+        assertEquals(4, request.elements("Parameters").size());
+        assertEquals(2, request.elements("Cookies").size());
+        assertEquals(4, request.elements("Headers").size());
+    }
+
+    @Test
+    void enumeratesStructuredBodyLeaves() {
+        RawRequest json = RawRequest.fromUrl("POST", "http://example.com/api", List.of("Content-Type: application/json"),
+            bytes("{\"user\":{\"name\":\"a\",\"roles\":[\"x\",\"y\"]},\"n\":1}"));
+        assertEquals(List.of(
+            element(RawRequest.Kind.JSON, "/user/name", 0),
+            element(RawRequest.Kind.JSON, "/user/roles/0", 1),
+            element(RawRequest.Kind.JSON, "/user/roles/1", 2),
+            element(RawRequest.Kind.JSON, "/n", 3)), json.elements("Parameters"));
+
+        RawRequest malformed = RawRequest.fromUrl("POST", "http://example.com/api", List.of("Content-Type: application/json"),
+            bytes("{\"user\":"));
+        assertEquals(List.of(), malformed.elements("Parameters"));
+    }
+
+    @Test
+    void removesQueryParameters() {
+        RawRequest request = request(FORM);
+        assertEquals("/submit?b=2", request.withRemovedElements(List.of(element(RawRequest.Kind.URL, "a", 0))).target());
+        // Without any parameter left the '?' goes too
+        assertEquals("/submit", request.withRemovedElements(request.elements("All").subList(0, 2)).target());
+    }
+
+    @Test
+    void removingBodyParametersRewritesContentLength() {
+        RawRequest request = request(FORM);
+        RawRequest removed = request.withRemovedElements(List.of(element(RawRequest.Kind.BODY, "user", 0)));
+        assertEquals("q=x", string(removed.body()));
+        assertEquals("3", removed.headerValue("Content-Length"));
+        // The head is untouched apart from Content-Length
+        assertEquals(FORM.replace("Content-Length: 11", "Content-Length: 3").replace("user=me&q=x", "q=x"), string(removed.bytes()));
+    }
+
+    @Test
+    void removesCookiesAndDropsAnEmptyCookieHeader() {
+        RawRequest request = request(FORM);
+        RawRequest oneLeft = request.withRemovedElements(List.of(element(RawRequest.Kind.COOKIE, "session", 0)));
+        assertEquals("theme=dark", oneLeft.headerValue("Cookie"));
+        RawRequest noneLeft = request.withRemovedElements(request.elements("Cookies"));
+        assertNull(noneLeft.headerValue("Cookie"));
+        assertEquals("11", noneLeft.headerValue("Content-Length"));
+    }
+
+    @Test
+    void removesHeaders() {
+        RawRequest request = request(FORM);
+        RawRequest removed = request.withRemovedElements(List.of(element(RawRequest.Kind.HEADER, "X-Trace", 4)));
+        assertNull(removed.headerValue("X-Trace"));
+        assertEquals(List.of("Host", "Cookie", "Content-Type", "Content-Length"),
+            removed.headers().stream().map(RawRequest.Header::name).toList());
+        assertEquals("user=me&q=x", string(removed.body()));
+    }
+
+    @Test
+    void removingBodyLeavesRewritesContentLength() {
+        RawRequest json = RawRequest.fromUrl("POST", "http://example.com/api", List.of("Content-Type: application/json"),
+            bytes("{\"a\":1,\"b\":[true,false]}"));
+        RawRequest removed = json.withRemovedElements(List.of(element(RawRequest.Kind.JSON, "/a", 0)));
+        assertEquals("{\"b\":[true,false]}", string(removed.body()));
+        assertEquals("18", removed.headerValue("Content-Length"));
+    }
+
+    @Test
+    void mutatesValues() {
+        RawRequest request = request(FORM);
+        RawRequest.Element a = element(RawRequest.Kind.URL, "a", 0);
+        assertEquals("/submit?a=&b=2", request.withMutatedElement(a, RawRequest.Mutation.EMPTY).target());
+        assertEquals("/submit?a=abc&b=2", request.withMutatedElement(a, RawRequest.Mutation.TYPE_CHANGED).target());
+        assertEquals("/submit?a=1&a=1&b=2", request.withMutatedElement(a, RawRequest.Mutation.DUPLICATED).target());
+        // Random values keep the shape and are the same for every run
+        String random = string(request.withMutatedElement(element(RawRequest.Kind.BODY, "user", 0), RawRequest.Mutation.RANDOM).body());
+        assertTrue(random.matches("user=[a-z]{2}&q=x") && !random.equals("user=me&q=x"), random);
+        assertEquals(string(request.withMutatedElement(a, RawRequest.Mutation.RANDOM).bytes()),
+            string(request.withMutatedElement(a, RawRequest.Mutation.RANDOM).bytes()));
+        // Headers that frame the body are only ever removed
+        assertNull(request.withMutatedElement(element(RawRequest.Kind.HEADER, "Content-Length", 3), RawRequest.Mutation.EMPTY));
+    }
+
+    @Test
+    void canonicalFormIgnoresParameterOrder() {
+        RawRequest first = RawRequest.fromUrl("GET", "http://example.com/?a=1&b=2", List.of("X-A: 1", "X-B: 2"), new byte[0]);
+        RawRequest second = RawRequest.fromUrl("GET", "http://example.com/?b=2&a=1", List.of("X-B: 2", "X-A: 1"), new byte[0]);
+        assertEquals(string(first.canonicalForm()), string(second.canonicalForm()));
+    }
+
+    private static RawRequest request(String text) {
+        return new RawRequest("example.com", 80, false, bytes(text));
+    }
+
+    private static RawRequest.Element element(RawRequest.Kind kind, String name, int index) {
+        return new RawRequest.Element(kind, name, index);
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static String string(byte[] data) {
+        return new String(data, StandardCharsets.ISO_8859_1);
+    }
+}
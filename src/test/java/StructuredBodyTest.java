@@ -0,0 +1,120 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StructuredBodyTest {
+    private static final String JSON = "{ \"user\": {\"name\": \"a\", \"roles\": [\"x\", \"y\"]},\n  \"n\": 1 }";
+    private static final String XML = "<?xml version=\"1.0\"?><order id=\"7\"><item><sku>A&amp;1</sku></item><item><sku>B</sku></item><gift/></order>";
+    private static final String MULTIPART_TYPE = "multipart/form-data; boundary=\"XyZ\"";
+    private static final String MULTIPART = "--XyZ\r\n"
+        + "Content-Disposition: form-data; name=\"title\"\r\n\r\n"
+        + "hello\r\n"
+        + "--XyZ\r\n"
+        + "Content-Disposition: form-data; name=\"file\"; filename=\"a.txt\"\r\n"
+        + "Content-Type: text/plain\r\n\r\n"
+        + "line 1\r\nline 2\r\n"
+        + "--XyZ\r\n"
+        + "Content-Disposition: form-data; name=\"title\"\r\n\r\n"
+        + "again\r\n"
+        + "--XyZ--\r\n";
+
+    @Test
+    void detectsFormats() {
+        assertEquals(StructuredBody.Format.JSON, StructuredBody.detect("application/vnd.api+json; charset=utf-8"));
+        assertEquals(StructuredBody.Format.XML, StructuredBody.detect("text/xml"));
+        assertEquals(StructuredBody.Format.MULTIPART, StructuredBody.detect(MULTIPART_TYPE));
+        // Multipart without a boundary cannot be split
+        assertNull(StructuredBody.detect("multipart/form-data"));
+        assertNull(StructuredBody.detect("text/plain"));
+        assertNull(StructuredBody.detect(null));
+    }
+
+    @Test
+    void jsonLeavesAreScalarsByPointer() {
+        assertEquals(List.of("/user/name=\"a\"", "/user/roles/0=\"x\"", "/user/roles/1=\"y\"", "/n=1"),
+            leaves(StructuredBody.Format.JSON, null, JSON));
+    }
+
+    @Test
+    void jsonRewriteFixesCommasAndKeepsEverythingElse() {
+        assertEquals(JSON, rewrite(StructuredBody.Format.JSON, null, JSON, Map.of()));
+        assertEquals("{ \"user\": { \"roles\": [\"x\", \"y\"]},\n  \"n\": 1 }",
+            rewrite(StructuredBody.Format.JSON, null, JSON, Map.of(0, List.of())));
+        assertEquals("{ \"user\": {\"name\": \"a\", \"roles\": [ \"y\"]},\n  \"n\": 1 }",
+            rewrite(StructuredBody.Format.JSON, null, JSON, Map.of(1, List.of())));
+        // The last member goes together with the comma before it and its whitespace
+        assertEquals("{ \"user\": {\"name\": \"a\", \"roles\": [\"x\", \"y\"]}}",
+            rewrite(StructuredBody.Format.JSON, null, JSON, Map.of(3, List.of())));
+        assertEquals("{ \"user\": {\"name\": \"a\", \"roles\": []},\n  \"n\": 1 }",
+            rewrite(StructuredBody.Format.JSON, null, JSON, Map.of(1, List.of(), 2, List.of())));
+    }
+
+    @Test
+    void jsonRewriteWritesLiteralsAndQuotesText() {
+        assertEquals("{ \"user\": {\"name\": 5, \"roles\": [\"x\", \"y\"]},\n  \"n\": \"a\\\"b\" }",
+            rewrite(StructuredBody.Format.JSON, null, JSON, Map.of(0, List.of("5"), 3, List.of("a\"b"))));
+        assertEquals("{ \"user\": {\"name\": \"a\", \"roles\": [\"x\",\"x\", \"y\"]},\n  \"n\": 1 }",
+            rewrite(StructuredBody.Format.JSON, null, JSON, Map.of(1, List.of("\"x\"", "\"x\""))));
+    }
+
+    @Test
+    void malformedJsonThrows() {
+        assertThrows(IllegalArgumentException.class, () -> leaves(StructuredBody.Format.JSON, null, "{\"a\": 1"));
+        assertThrows(IllegalArgumentException.class, () -> leaves(StructuredBody.Format.JSON, null, "{\"a\": 1} x"));
+        assertThrows(IllegalArgumentException.class, () -> leaves(StructuredBody.Format.JSON, null, "{\"a\": }"));
+    }
+
+    @Test
+    void xmlLeavesAreElementsWithoutChildren() {
+        assertEquals(List.of("/order/item/sku=A&amp;1", "/order/item[1]/sku=B", "/order/gift="),
+            leaves(StructuredBody.Format.XML, null, XML));
+    }
+
+    @Test
+    void xmlRewriteRemovesAndReplacesElements() {
+        assertEquals(XML.replace("<sku>B</sku>", ""), rewrite(StructuredBody.Format.XML, null, XML, Map.of(1, List.of())));
+        assertEquals(XML.replace("<gift/>", ""), rewrite(StructuredBody.Format.XML, null, XML, Map.of(2, List.of())));
+        assertEquals(XML.replace("A&amp;1", "x&amp;&lt;y"), rewrite(StructuredBody.Format.XML, null, XML, Map.of(0, List.of("x&<y"))));
+        // A self-closing element gains content, or stays as it is when emptied
+        assertEquals(XML.replace("<gift/>", "<gift>yes</gift>"), rewrite(StructuredBody.Format.XML, null, XML, Map.of(2, List.of("yes"))));
+        assertEquals(XML, rewrite(StructuredBody.Format.XML, null, XML, Map.of(2, List.of(""))));
+        assertThrows(IllegalArgumentException.class, () -> leaves(StructuredBody.Format.XML, null, "<a><b></a>x<c>"));
+    }
+
+    @Test
+    void multipartLeavesArePartsByName() {
+        assertEquals(List.of("title=hello", "file=line 1\r\nline 2", "title[1]=again"),
+            leaves(StructuredBody.Format.MULTIPART, MULTIPART_TYPE, MULTIPART));
+    }
+
+    @Test
+    void multipartRewriteRemovesWholeParts() {
+        String withoutFile = MULTIPART.replace("--XyZ\r\nContent-Disposition: form-data; name=\"file\"; filename=\"a.txt\"\r\n"
+            + "Content-Type: text/plain\r\n\r\nline 1\r\nline 2\r\n", "");
+        assertEquals(withoutFile, rewrite(StructuredBody.Format.MULTIPART, MULTIPART_TYPE, MULTIPART, Map.of(1, List.of())));
+        String withoutLast = MULTIPART.replace("--XyZ\r\nContent-Disposition: form-data; name=\"title\"\r\n\r\nagain\r\n", "");
+        assertEquals(withoutLast, rewrite(StructuredBody.Format.MULTIPART, MULTIPART_TYPE, MULTIPART, Map.of(2, List.of())));
+        assertEquals(MULTIPART.replace("hello", "bye"),
+            rewrite(StructuredBody.Format.MULTIPART, MULTIPART_TYPE, MULTIPART, Map.of(0, List.of("bye"))));
+    }
+
+    private static List<String> leaves(StructuredBody.Format format, String contentType, String body) {
+        return StructuredBody.leaves(format, contentType, bytes(body)).stream().map(leaf -> leaf.path() + "=" + leaf.value()).toList();
+    }
+
+    private static String rewrite(StructuredBody.Format format, String contentType, String body, Map<Integer, List<String>> values) {
+        byte[] data = bytes(body);
+        return new String(StructuredBody.rewrite(format, data, StructuredBody.leaves(format, contentType, data), values),
+            StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}